@@ -0,0 +1,172 @@
+package memory;
+
+/**
+ * Cache-blocked kernel for multiplying a row-major matrix by a column-major matrix.
+ * The right operand is packed once into a contiguous row-major panel, so every task
+ * streams it sequentially instead of going through one locked dot product per column.
+ * Each call computes a block of output rows, walking the inner dimension and the output
+ * columns in tiles that stay resident in cache.
+ */
+public class BlockedMultiply {
+
+    public static final int ROW_BLOCK = 32; // output rows computed by one task
+    private static final int INNER_BLOCK = 128; // tile of the inner dimension
+    private static final int COL_BLOCK = 256; // tile of the output columns
+
+    private final double[] packed; // right operand as row-major (inner x cols)
+    private final int inner;
+    private final int cols;
+
+    public BlockedMultiply(SharedMatrix right) {
+        this(right, 1);
+    }
+
+    /**
+     * Packs scale times the right operand, so a sign on the product costs nothing.
+     */
+    public BlockedMultiply(SharedMatrix right, double scale) {
+        if (right == null) {
+            throw new IllegalArgumentException("Can't pack right operand, matrix is null.");
+        }
+        if (right.length() == 0 || right.get(0).length() == 0) {
+            throw new IllegalArgumentException("Matrix is empty.");
+        }
+        if (right.getOrientation() != VectorOrientation.COLUMN_MAJOR) {
+            throw new IllegalArgumentException("Matrix must be column-major for blocked multiplication.");
+        }
+        this.cols = right.length();
+        this.inner = right.get(0).length();
+        if ((long) inner * cols > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Matrix is too large to be packed.");
+        }
+        this.packed = new double[inner * cols];
+        for (int j = 0; j < cols; j++) {
+            SharedVector column = right.get(j);
+            column.readLock(); // read lock - we only copy the column
+            try {
+                double[] data = column.data();
+                int offset = column.offset();
+                if (column.size() != inner) {
+                    throw new IllegalArgumentException("All columns must have the same length.");
+                }
+                for (int k = 0; k < inner; k++) {
+                    packed[k * cols + j] = scale * data[offset + k];
+                }
+            } finally {
+                column.readUnlock();
+            }
+        }
+    }
+
+    public int innerLength() {
+        return inner;
+    }
+
+    public int columnCount() {
+        return cols;
+    }
+
+    /**
+     * Replaces rows [from, to) of the given row-major matrix with their product by the
+     * packed right operand.
+     */
+    public void multiplyRows(SharedMatrix left, int from, int to) {
+        multiplyRows(left, from, to, null, 0);
+    }
+
+    /**
+     * Like multiplyRows(left, from, to), but accumulates the product onto addendScale times
+     * the matching rows of addend (fused A * B + C), when addend is not null.
+     */
+    public void multiplyRows(SharedMatrix left, int from, int to, SharedMatrix addend, double addendScale) {
+        if (left == null) {
+            throw new IllegalArgumentException("Can't do blocked multiplication, matrix is null.");
+        }
+        if (from < 0 || to > left.length() || from > to) {
+            throw new IndexOutOfBoundsException("Invalid row range: [" + from + ", " + to + ")");
+        }
+        int rows = to - from;
+        SharedVector[] vecs = new SharedVector[rows];
+        for (int r = 0; r < rows; r++) {
+            vecs[r] = left.get(from + r);
+        }
+
+        // write lock on every row of the block - we replace their content
+        int locked = 0;
+        try {
+            for (SharedVector vec : vecs) {
+                vec.writeLock();
+                locked++;
+            }
+            double[][] a = new double[rows][];
+            int[] aOff = new int[rows];
+            for (int r = 0; r < rows; r++) {
+                if (vecs[r].getOrientation() != VectorOrientation.ROW_MAJOR) {
+                    throw new IllegalArgumentException("Vector must be row-major for vector-matrix multiplication.");
+                }
+                a[r] = vecs[r].data();
+                aOff[r] = vecs[r].offset();
+                if (vecs[r].size() != inner) {
+                    throw new IllegalArgumentException(
+                            "Vector length must equal to matrix row count for vector-matrix multiplication.");
+                }
+            }
+
+            double[][] c = new double[rows][cols];
+            if (addend != null) {
+                for (int r = 0; r < rows; r++) {
+                    SharedVector addRow = addend.get(from + r);
+                    if (addRow.length() != cols) {
+                        throw new IllegalArgumentException("Vectors must be of the same length to add.");
+                    }
+                    addRow.copyTo(c[r], 0);
+                    if (addendScale != 1) {
+                        for (int j = 0; j < cols; j++) {
+                            c[r][j] *= addendScale;
+                        }
+                    }
+                }
+            }
+            for (int kk = 0; kk < inner; kk += INNER_BLOCK) {
+                int kEnd = Math.min(kk + INNER_BLOCK, inner);
+                for (int jj = 0; jj < cols; jj += COL_BLOCK) {
+                    int jEnd = Math.min(jj + COL_BLOCK, cols);
+                    int r = 0;
+                    // four rows at a time, so each loaded element of the panel is used four times
+                    for (; r + 4 <= rows; r += 4) {
+                        double[] c0 = c[r], c1 = c[r + 1], c2 = c[r + 2], c3 = c[r + 3];
+                        for (int k = kk; k < kEnd; k++) {
+                            double a0 = a[r][aOff[r] + k], a1 = a[r + 1][aOff[r + 1] + k];
+                            double a2 = a[r + 2][aOff[r + 2] + k], a3 = a[r + 3][aOff[r + 3] + k];
+                            int base = k * cols;
+                            for (int j = jj; j < jEnd; j++) {
+                                double b = packed[base + j];
+                                c0[j] += a0 * b;
+                                c1[j] += a1 * b;
+                                c2[j] += a2 * b;
+                                c3[j] += a3 * b;
+                            }
+                        }
+                    }
+                    for (; r < rows; r++) {
+                        double[] cr = c[r];
+                        for (int k = kk; k < kEnd; k++) {
+                            double aik = a[r][aOff[r] + k];
+                            int base = k * cols;
+                            for (int j = jj; j < jEnd; j++) {
+                                cr[j] += aik * packed[base + j];
+                            }
+                        }
+                    }
+                }
+            }
+            for (int r = 0; r < rows; r++) {
+                vecs[r].replace(c[r]);
+            }
+        } finally {
+            for (int r = 0; r < locked; r++) {
+                vecs[r].writeUnlock();
+            }
+        }
+    }
+}
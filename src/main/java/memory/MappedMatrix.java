@@ -0,0 +1,119 @@
+package memory;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A row-major matrix of little-endian doubles kept in a memory-mapped file instead of the heap,
+ * so it may be much larger than the heap. The file is mapped in bands of whole rows (a single
+ * mapping can't exceed 2GB), and the OS pages the elements in and out as tasks stream over them.
+ * Reads and writes are absolute, so tasks working on different rows or columns need no lock;
+ * callers make sure a region isn't written while another task reads it.
+ */
+public class MappedMatrix {
+
+    static final long MAX_BAND_BYTES = 1L << 30; // bytes per mapping
+
+    private final int rows;
+    private final int cols;
+    private final int bandRows; // rows per mapping
+    private final MappedByteBuffer[] mappings;
+    private final DoubleBuffer[] bands;
+
+    /**
+     * Maps rows x cols doubles starting at byte offset of the channel's file. A writable mapping
+     * grows the file as needed. The channel may be closed afterwards, mappings stay valid.
+     */
+    public static MappedMatrix map(FileChannel channel, long offset, int rows, int cols, boolean writable)
+            throws IOException {
+        return map(channel, offset, rows, cols, writable, MAX_BAND_BYTES);
+    }
+
+    static MappedMatrix map(FileChannel channel, long offset, int rows, int cols, boolean writable,
+            long maxBandBytes) throws IOException {
+        if (rows < 0 || cols < 0) {
+            throw new IllegalArgumentException("Invalid matrix shape " + rows + " x " + cols);
+        }
+        long rowBytes = (long) cols * Double.BYTES;
+        if (rowBytes > maxBandBytes) {
+            throw new IllegalArgumentException("Rows of " + cols + " elements are too wide to be mapped.");
+        }
+        int bandRows = rowBytes == 0 ? Math.max(rows, 1) : (int) Math.min(Math.max(rows, 1), maxBandBytes / rowBytes);
+        int bandCount = (rows + bandRows - 1) / bandRows;
+        FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+        MappedByteBuffer[] mappings = new MappedByteBuffer[bandCount];
+        DoubleBuffer[] bands = new DoubleBuffer[bandCount];
+        for (int b = 0; b < bandCount; b++) {
+            int first = b * bandRows;
+            int count = Math.min(bandRows, rows - first);
+            mappings[b] = channel.map(mode, offset + first * rowBytes, count * rowBytes);
+            bands[b] = mappings[b].order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        }
+        return new MappedMatrix(rows, cols, bandRows, mappings, bands);
+    }
+
+    private MappedMatrix(int rows, int cols, int bandRows, MappedByteBuffer[] mappings, DoubleBuffer[] bands) {
+        this.rows = rows;
+        this.cols = cols;
+        this.bandRows = bandRows;
+        this.mappings = mappings;
+        this.bands = bands;
+    }
+
+    public int rowCount() {
+        return rows;
+    }
+
+    public int columnCount() {
+        return cols;
+    }
+
+    /**
+     * Copies elements [from, to) of the row into dest starting at destPos.
+     */
+    public void read(int row, int from, int to, double[] dest, int destPos) {
+        checkRange(row, from, to);
+        bands[row / bandRows].get((row % bandRows) * cols + from, dest, destPos, to - from);
+    }
+
+    /**
+     * Copies length elements of src, starting at srcPos, into the row starting at column from.
+     */
+    public void write(int row, int from, double[] src, int srcPos, int length) {
+        checkRange(row, from, from + length);
+        bands[row / bandRows].put((row % bandRows) * cols + from, src, srcPos, length);
+    }
+
+    /**
+     * Copies rows [from, to) into the first to - from rows of dest, like SharedMatrix.readRows().
+     */
+    public void readRows(int from, int to, double[][] dest) {
+        if (from < 0 || to > rows || from > to) {
+            throw new IndexOutOfBoundsException("Invalid row range: [" + from + ", " + to + ")");
+        }
+        for (int i = from; i < to; i++) {
+            read(i, 0, cols, dest[i - from], 0);
+        }
+    }
+
+    // writes the changes of a writable mapping back to the file
+    public void force() {
+        for (MappedByteBuffer mapping : mappings) {
+            if (!mapping.isReadOnly()) {
+                mapping.force();
+            }
+        }
+    }
+
+    private void checkRange(int row, int from, int to) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row out of bounds: " + row);
+        }
+        if (from < 0 || to > cols || from > to) {
+            throw new IndexOutOfBoundsException("Invalid range: [" + from + ", " + to + ")");
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package memory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hands out off-heap storage for the vectors of OFF_HEAP matrices, out of direct buffers
+ * that are recycled instead of being left to the garbage collector. Small requests are cut
+ * from shared blocks, larger ones get blocks of their own, a whole number of BLOCK_BYTES.
+ * Closing the arena returns every block to a process-wide pool, where the next arena picks
+ * them up. release() gives a buffer back earlier: a block of its own right away, a shared block
+ * once every buffer cut from it is released.
+ * Nothing allocated by an arena may be used once it is closed.
+ */
+public class OffHeapArena implements AutoCloseable {
+
+    static final int BLOCK_BYTES = 1 << 24; // 16MB
+    private static final long POOL_LIMIT = 1L << 30; // bytes kept for reuse, beyond that blocks go to the GC
+
+    // free blocks by capacity, shared by all arenas
+    private static final Map<Integer, ArrayDeque<ByteBuffer>> pool = new HashMap<>();
+    private static long pooledBytes = 0;
+
+    // ByteBuffer.equals() compares contents, so blocks are only ever told apart by identity
+    private final Set<ByteBuffer> blocks = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<DoubleBuffer, ByteBuffer> ownBlocks = new IdentityHashMap<>();
+    private final Map<DoubleBuffer, ByteBuffer> sharedBlocks = new IdentityHashMap<>(); // of live small buffers
+    private final Map<ByteBuffer, Integer> liveBuffers = new IdentityHashMap<>(); // per shared block
+    private ByteBuffer current; // block small requests are cut from
+    private boolean closed = false;
+
+    /**
+     * Returns a zeroed buffer of the given number of doubles, indexed from 0.
+     */
+    public synchronized DoubleBuffer allocate(int doubles) {
+        if (closed) {
+            throw new IllegalStateException("Arena is closed.");
+        }
+        long bytes = checkedBytes(doubles);
+        if (bytes > BLOCK_BYTES / 2) {
+            int capacity = (int) Math.min(Integer.MAX_VALUE, (bytes + BLOCK_BYTES - 1) / BLOCK_BYTES * BLOCK_BYTES);
+            ByteBuffer block = take(capacity);
+            zero(block, (int) bytes);
+            blocks.add(block);
+            DoubleBuffer buffer = block.slice(0, (int) bytes).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            ownBlocks.put(buffer, block);
+            return buffer;
+        }
+        if (current == null || current.remaining() < bytes) {
+            current = take(BLOCK_BYTES);
+            blocks.add(current);
+        }
+        int at = current.position();
+        current.position(at + (int) bytes);
+        ByteBuffer slice = current.slice(at, (int) bytes);
+        zero(slice, (int) bytes);
+        DoubleBuffer buffer = slice.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        sharedBlocks.put(buffer, current);
+        liveBuffers.merge(current, 1, Integer::sum);
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back before the arena is closed; nothing may use it afterwards. Its block
+     * goes back to the pool once no buffer cut from it is left, or is cut again from the start
+     * when it is the one small requests currently come from. Releasing a buffer twice, or one
+     * this arena did not allocate, has no effect.
+     */
+    public synchronized void release(DoubleBuffer buffer) {
+        ByteBuffer block = ownBlocks.remove(buffer);
+        if (block != null) {
+            if (blocks.remove(block)) {
+                give(block);
+            }
+            return;
+        }
+        block = sharedBlocks.remove(buffer);
+        if (block == null || liveBuffers.merge(block, -1, Integer::sum) > 0) {
+            return;
+        }
+        liveBuffers.remove(block);
+        if (block == current) {
+            current.position(0);
+        } else if (blocks.remove(block)) {
+            give(block);
+        }
+    }
+
+    // blocks held by this arena, for tests
+    synchronized int blockCount() {
+        return blocks.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (ByteBuffer block : blocks) {
+            give(block);
+        }
+        blocks.clear();
+        ownBlocks.clear();
+        sharedBlocks.clear();
+        liveBuffers.clear();
+        current = null;
+    }
+
+    /**
+     * Storage that belongs to no arena, for matrices created outside of an evaluation; it is
+     * freed by the garbage collector.
+     */
+    static DoubleBuffer unpooled(int doubles) {
+        return ByteBuffer.allocateDirect((int) checkedBytes(doubles)).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    private static long checkedBytes(int doubles) {
+        if (doubles < 0) {
+            throw new IllegalArgumentException("Invalid size: " + doubles);
+        }
+        long bytes = (long) doubles * Double.BYTES;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Matrix is too large for off-heap storage.");
+        }
+        return bytes;
+    }
+
+    private static ByteBuffer take(int capacity) {
+        synchronized (pool) {
+            ArrayDeque<ByteBuffer> free = pool.get(capacity);
+            if (free != null && !free.isEmpty()) {
+                pooledBytes -= capacity;
+                ByteBuffer block = free.pop();
+                block.clear();
+                return block;
+            }
+        }
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    private static void give(ByteBuffer block) {
+        synchronized (pool) {
+            if (pooledBytes + block.capacity() <= POOL_LIMIT) {
+                pool.computeIfAbsent(block.capacity(), c -> new ArrayDeque<>()).push(block);
+                pooledBytes += block.capacity();
+            }
+        }
+    }
+
+    // recycled blocks hold the data of an earlier arena
+    private static void zero(ByteBuffer block, int bytes) {
+        byte[] zeros = new byte[Math.min(bytes, 1 << 16)];
+        for (int at = 0; at < bytes; at += zeros.length) {
+            block.put(at, zeros, 0, Math.min(zeros.length, bytes - at));
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package memory;
+/**
+ * The width of the floating point elements a SharedMatrix stores.
+ * FLOAT64 keeps doubles. FLOAT32 keeps floats, half the memory and memory traffic: a kernel
+ * widens the elements it reads, computes in double, and rounds what it stores back to float.
+ * Dot products of two float vectors read both in place (see SimdKernels); other kernels work
+ * on a widened copy of the vector they change, so FLOAT32 mostly saves memory, not time.
+ * FLOAT32 is only available on the heap (PER_VECTOR or CONTIGUOUS storage).
+ */
+public enum Precision {
+    FLOAT64,
+    FLOAT32
+}
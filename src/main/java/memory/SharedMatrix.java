@@ -1,57 +1,397 @@
 package memory;
 
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 public class SharedMatrix {
 
+    private static final int LOCK_STRIPES = 1024; // max locks shared by the vectors of a contiguous matrix
+    private static final int TILE = 64; // tile size for transposing copies
+
+    private final StorageMode storage;
+    private final Precision precision;
+    private final OffHeapArena arena; // allocates OFF_HEAP storage, null to leave it to the GC
     private volatile SharedVector[] vectors = {}; // underlying vectors
+    private DoubleBuffer owned; // OFF_HEAP storage allocated by the last load, null if shared
 
     public SharedMatrix() {
         // TODO: initialize empty matrix
+        this(StorageMode.PER_VECTOR);
+    }
+
+    public SharedMatrix(StorageMode storage) {
+        this(storage, null);
+    }
+
+    /**
+     * An empty matrix whose OFF_HEAP storage comes from the arena, so it can be given back
+     * deterministically. Without an arena, off-heap storage is freed by the GC.
+     */
+    public SharedMatrix(StorageMode storage, OffHeapArena arena) {
+        this(storage, Precision.FLOAT64, arena);
+    }
+
+    /**
+     * An empty matrix that stores its elements with the given precision. FLOAT32 storage is on
+     * the heap only, it can't be combined with OFF_HEAP.
+     */
+    public SharedMatrix(StorageMode storage, Precision precision, OffHeapArena arena) {
+        if (storage == null) {
+            throw new IllegalArgumentException("Storage mode is null.");
+        }
+        if (precision == null) {
+            throw new IllegalArgumentException("Precision is null.");
+        }
+        if (precision == Precision.FLOAT32 && storage == StorageMode.OFF_HEAP) {
+            throw new IllegalArgumentException("Single precision is not supported with off-heap storage.");
+        }
+        this.storage = storage;
+        this.precision = precision;
+        this.arena = arena;
         this.vectors = new SharedVector[0];
     }
 
     public SharedMatrix(double[][] matrix) {
         // TODO: construct matrix as row-major SharedVectors
-        if (matrix == null){
+        this(matrix, StorageMode.PER_VECTOR);
+    }
+
+    public SharedMatrix(double[][] matrix, StorageMode storage) {
+        this(storage);
+        loadRowMajor(matrix);
+    }
+
+    /**
+     * A single-precision PER_VECTOR matrix holding a copy of the given rows.
+     */
+    public SharedMatrix(float[][] matrix) {
+        this(StorageMode.PER_VECTOR, Precision.FLOAT32, null);
+        if (matrix == null) {
             throw new IllegalArgumentException("Input matrix is null.");
         }
-        vectors = new SharedVector[matrix.length];
+        SharedVector[] tmp = new SharedVector[matrix.length];
         for (int i = 0; i < matrix.length; i++) {
-            vectors[i] = new SharedVector(matrix[i].clone(), VectorOrientation.ROW_MAJOR);
+            if (matrix[i] == null || matrix[i].length != matrix[0].length) {
+                throw new IllegalArgumentException("Inconsistent row sizes in matrix.");
+            }
+            tmp[i] = new SharedVector(matrix[i].clone(), VectorOrientation.ROW_MAJOR);
+        }
+        vectors = tmp;
+    }
+
+    public StorageMode getStorageMode() {
+        return storage;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    public OffHeapArena getArena() {
+        return arena;
+    }
+
+    /**
+     * Gives the off-heap storage this matrix loaded back to its arena and empties the matrix.
+     * Only for a matrix whose vectors nothing else uses anymore; shared vectors are left alone.
+     */
+    public void release() {
+        SharedVector[] vecs = vectors;
+        DoubleBuffer flat = owned;
+        vectors = new SharedVector[0];
+        owned = null;
+        if (flat == null || arena == null) {
+            return;
+        }
+        arena.release(flat);
+        for (SharedVector vec : vecs) {
+            vec.release(); // vectors replaced by a computation have storage of their own
         }
     }
 
     public void loadRowMajor(double[][] matrix) {
         // TODO: replace internal data with new row-major matrix
+        loadRowMajor(matrix, false);
+    }
+
+    /**
+     * Replaces internal data with the rows of the given matrix, or with the rows of its
+     * transpose (its columns) when transposed is true, without materializing the transpose.
+     */
+    public void loadRowMajor(double[][] matrix, boolean transposed) {
         if (matrix == null){
             throw new IllegalArgumentException("Input matrix is null.");
         }
-        int len = matrix.length;
-        SharedVector[] tmp = new SharedVector[len];
-        for (int i = 0; i < len; i++){
-            tmp [i] = new SharedVector(matrix[i].clone(),VectorOrientation.ROW_MAJOR);
-        }
-        vectors = tmp;
+        vectors = transposed
+                ? splitColumns(matrix, VectorOrientation.ROW_MAJOR)
+                : splitRows(matrix, VectorOrientation.ROW_MAJOR);
     }
 
     public void loadColumnMajor(double[][] matrix) {
         // TODO: replace internal data with new column-major matrix
+        loadColumnMajor(matrix, false);
+    }
+
+    /**
+     * Replaces internal data with the columns of the given matrix, or with the columns of its
+     * transpose (its rows) when transposed is true, without materializing the transpose.
+     */
+    public void loadColumnMajor(double[][] matrix, boolean transposed) {
         if (matrix == null) {
             throw new IllegalArgumentException("Input matrix is null.");
         }
+        vectors = transposed
+                ? splitRows(matrix, VectorOrientation.COLUMN_MAJOR)
+                : splitColumns(matrix, VectorOrientation.COLUMN_MAJOR);
+    }
+
+    /**
+     * Replaces internal data with a copy of the rows of source, whatever its orientation.
+     * Unlike going through readRowMajor(), the content is copied only once.
+     */
+    public void loadRowMajor(SharedMatrix source) {
+        if (source == null) {
+            throw new IllegalArgumentException("Input matrix is null.");
+        }
+        SharedVector[] vecs = source.vectors;
+        vectors = copyVectors(vecs, vecs.length > 0 && vecs[0].getOrientation() != VectorOrientation.ROW_MAJOR,
+                VectorOrientation.ROW_MAJOR);
+    }
+
+    /**
+     * Replaces internal data with a copy of the columns of source, whatever its orientation.
+     */
+    public void loadColumnMajor(SharedMatrix source) {
+        if (source == null) {
+            throw new IllegalArgumentException("Input matrix is null.");
+        }
+        SharedVector[] vecs = source.vectors;
+        vectors = copyVectors(vecs, vecs.length > 0 && vecs[0].getOrientation() != VectorOrientation.COLUMN_MAJOR,
+                VectorOrientation.COLUMN_MAJOR);
+    }
+
+    /**
+     * Makes this matrix use the vectors of source without copying them, so that a result
+     * can be consumed in place. Writes through either matrix are visible in both.
+     */
+    public void share(SharedMatrix source) {
+        if (source == null) {
+            throw new IllegalArgumentException("Input matrix is null.");
+        }
+        vectors = source.vectors;
+        owned = null;
+    }
+
+    /**
+     * Like share(), for a matrix that is going to be written to in place of source: the off-heap
+     * storage source loaded becomes this matrix's, so release() on source no longer gives it back.
+     */
+    public void takeOver(SharedMatrix source) {
+        share(source);
+        owned = source.owned;
+        source.owned = null;
+    }
+
+    /**
+     * Returns the transpose of this matrix as a view on the same storage: every vector is
+     * kept as is, with the other orientation. The view is meant for reading; it no longer
+     * follows a vector of this matrix whose content is replaced.
+     */
+    public SharedMatrix transposedView() {
+        SharedVector[] vecs = vectors;
+        SharedVector[] flipped = new SharedVector[vecs.length];
+        for (int i = 0; i < vecs.length; i++) {
+            VectorOrientation orientation = vecs[i].getOrientation() == VectorOrientation.ROW_MAJOR
+                    ? VectorOrientation.COLUMN_MAJOR
+                    : VectorOrientation.ROW_MAJOR;
+            flipped[i] = vecs[i].view(orientation);
+        }
+        SharedMatrix view = new SharedMatrix(storage, precision, arena);
+        view.vectors = flipped;
+        return view;
+    }
+
+    // copies of the given vectors, or of the vectors across them when across is true,
+    // laid out according to the storage mode of this matrix (gathered in double, then narrowed
+    // in one pass for single precision)
+    private SharedVector[] copyVectors(SharedVector[] src, boolean across, VectorOrientation orientation) {
+        if (src.length == 0) {
+            return new SharedVector[0];
+        }
+        acquireAllVectorReadLocks(src);
+        try {
+            int width = src[0].length();
+            for (SharedVector vec : src) {
+                if (vec.length() != width) {
+                    throw new IllegalArgumentException("Inconsistent vector sizes in matrix.");
+                }
+            }
+            int count = across ? width : src.length;
+            int size = across ? src.length : width;
+            if (storage == StorageMode.OFF_HEAP) {
+                return copyOffHeap(src, across, count, size, width, orientation);
+            }
+            boolean contiguous = storage == StorageMode.CONTIGUOUS;
+            double[] flat = contiguous ? new double[checkedSize(count, size)] : null;
+            double[][] dest = new double[count][];
+            int[] destOff = new int[count];
+            for (int i = 0; i < count; i++) {
+                dest[i] = contiguous ? flat : new double[size];
+                destOff[i] = contiguous ? i * size : 0;
+            }
+            if (!across) {
+                for (int i = 0; i < count; i++) {
+                    src[i].copyTo(dest[i], destOff[i]);
+                }
+            } else {
+                // copy TILE source vectors out in bulk, then scatter them across the destination
+                double[][] buf = new double[Math.min(TILE, src.length)][width];
+                for (int ii = 0; ii < src.length; ii += TILE) {
+                    int tile = Math.min(TILE, src.length - ii);
+                    for (int c = 0; c < tile; c++) {
+                        src[ii + c].copyTo(buf[c], 0);
+                    }
+                    for (int j = 0; j < count; j++) {
+                        double[] row = dest[j];
+                        int base = destOff[j] + ii;
+                        for (int c = 0; c < tile; c++) {
+                            row[base + c] = buf[c][j];
+                        }
+                    }
+                }
+            }
+            if (contiguous) {
+                return views(flat, count, size, orientation);
+            }
+            SharedVector[] tmp = new SharedVector[count];
+            for (int i = 0; i < count; i++) {
+                tmp[i] = vector(dest[i], orientation);
+            }
+            return tmp;
+        } finally {
+            releaseAllVectorReadLocks(src);
+        }
+    }
+
+    // copyVectors() into one off-heap buffer; the caller holds the read locks of src
+    private SharedVector[] copyOffHeap(SharedVector[] src, boolean across, int count, int size, int width,
+            VectorOrientation orientation) {
+        DoubleBuffer flat = allocate(checkedSize(count, size));
+        if (!across) {
+            double[] vec = new double[size];
+            for (int i = 0; i < count; i++) {
+                src[i].copyTo(vec, 0);
+                flat.put(i * size, vec);
+            }
+        } else {
+            // copy TILE source vectors out, then put a slice of each into every destination vector
+            double[][] buf = new double[Math.min(TILE, src.length)][width];
+            double[] slice = new double[buf.length];
+            for (int ii = 0; ii < src.length; ii += TILE) {
+                int tile = Math.min(TILE, src.length - ii);
+                for (int c = 0; c < tile; c++) {
+                    src[ii + c].copyTo(buf[c], 0);
+                }
+                for (int j = 0; j < count; j++) {
+                    for (int c = 0; c < tile; c++) {
+                        slice[c] = buf[c][j];
+                    }
+                    flat.put(j * size + ii, slice, 0, tile);
+                }
+            }
+        }
+        return views(flat, count, size, orientation);
+    }
+
+    // one vector per row of the matrix
+    private SharedVector[] splitRows(double[][] matrix, VectorOrientation orientation) {
+        if (storage == StorageMode.OFF_HEAP) {
+            int width = checkedWidth(matrix);
+            DoubleBuffer flat = allocate(checkedSize(matrix.length, width));
+            for (int i = 0; i < matrix.length; i++) {
+                flat.put(i * width, matrix[i]);
+            }
+            return views(flat, matrix.length, width, orientation);
+        }
+        if (storage == StorageMode.CONTIGUOUS) {
+            int width = checkedWidth(matrix);
+            double[] flat = new double[checkedSize(matrix.length, width)];
+            for (int i = 0; i < matrix.length; i++) {
+                System.arraycopy(matrix[i], 0, flat, i * width, width);
+            }
+            return views(flat, matrix.length, width, orientation);
+        }
+        int len = matrix.length;
+        SharedVector[] tmp = new SharedVector[len];
+        for (int i = 0; i < len; i++){
+            tmp[i] = precision == Precision.FLOAT32 ? vector(matrix[i], orientation)
+                    : new SharedVector(matrix[i].clone(), orientation);
+        }
+        return tmp;
+    }
+
+    // one vector per column of the matrix
+    private SharedVector[] splitColumns(double[][] matrix, VectorOrientation orientation) {
         if (matrix.length == 0) {
-            vectors = new SharedVector[0];
-            return;
+            return new SharedVector[0];
+        }
+        if (storage == StorageMode.CONTIGUOUS) {
+            int rows = matrix.length;
+            int cols = checkedWidth(matrix);
+            double[] flat = new double[checkedSize(rows, cols)];
+            // column i lives in flat[i * rows .. (i + 1) * rows); copy tile by tile to stay in cache
+            for (int jj = 0; jj < rows; jj += TILE) {
+                for (int ii = 0; ii < cols; ii += TILE) {
+                    for (int j = jj; j < Math.min(jj + TILE, rows); j++) {
+                        double[] row = matrix[j];
+                        for (int i = ii; i < Math.min(ii + TILE, cols); i++) {
+                            flat[i * rows + j] = row[i];
+                        }
+                    }
+                }
+            }
+            return views(flat, cols, rows, orientation);
+        }
+        if (storage == StorageMode.OFF_HEAP) {
+            int rows = matrix.length;
+            int cols = checkedWidth(matrix);
+            DoubleBuffer flat = allocate(checkedSize(rows, cols));
+            // gather TILE columns at a time on the heap, then put each of them in one go
+            double[][] buf = new double[Math.min(TILE, cols)][rows];
+            for (int ii = 0; ii < cols; ii += TILE) {
+                int width = Math.min(TILE, cols - ii);
+                for (int j = 0; j < rows; j++) {
+                    double[] row = matrix[j];
+                    for (int c = 0; c < width; c++) {
+                        buf[c][j] = row[ii + c];
+                    }
+                }
+                for (int c = 0; c < width; c++) {
+                    flat.put((ii + c) * rows, buf[c]);
+                }
+            }
+            return views(flat, cols, rows, orientation);
         }
         int len = matrix[0].length;
+        double[][] cols = new double[len][matrix.length];
+        // copy tile by tile, so the rows being read and the columns being written stay in cache
+        for (int jj = 0; jj < matrix.length; jj += TILE) {
+            for (int ii = 0; ii < len; ii += TILE) {
+                for (int j = jj; j < Math.min(jj + TILE, matrix.length); j++) {
+                    double[] row = matrix[j];
+                    for (int i = ii; i < Math.min(ii + TILE, len); i++) {
+                        cols[i][j] = row[i];
+                    }
+                }
+            }
+        }
         SharedVector[] tmp = new SharedVector[len];
         for (int i = 0; i < len; i++) {
-            double[] col = new double[matrix.length];
-            for (int j = 0; j < matrix.length; j++) {
-                col[j] = matrix[j][i];
-            }
-            tmp[i] = new SharedVector(col, VectorOrientation.COLUMN_MAJOR);
+            tmp[i] = vector(cols[i], orientation);
         }
-        vectors = tmp;
+        return tmp;
     }
 
     public double[][] readRowMajor() {
@@ -72,10 +412,7 @@ public class SharedMatrix {
                 double[][] result = new double[m][n];
 
                 for (int i = 0; i < m; i++) {
-                    SharedVector vec = vecs[i];
-                    for (int j = 0; j < n; j++) {
-                        result[i][j] = vec.get(j);
-                    }
+                    vecs[i].read(0, n, result[i], 0);
                 }
                 return result;
 
@@ -84,10 +421,18 @@ public class SharedMatrix {
                 int m = vecs[0].length();
                 double[][] result = new double[m][n];
 
-                for (int i = 0; i < n; i++) {
-                    SharedVector vec = vecs[i];
+                // copy TILE columns out in bulk, then scatter them into the rows together
+                double[][] cols = new double[Math.min(TILE, n)][m];
+                for (int ii = 0; ii < n; ii += TILE) {
+                    int width = Math.min(TILE, n - ii);
+                    for (int c = 0; c < width; c++) {
+                        vecs[ii + c].read(0, m, cols[c], 0);
+                    }
                     for (int j = 0; j < m; j++) {
-                        result[j][i] = vec.get(j);
+                        double[] row = result[j];
+                        for (int c = 0; c < width; c++) {
+                            row[ii + c] = cols[c][j];
+                        }
                     }
                 }
                 return result;
@@ -98,6 +443,93 @@ public class SharedMatrix {
 
     }
 
+    public int rowCount() {
+        SharedVector[] vecs = vectors;
+        if (vecs.length == 0) {
+            return 0;
+        }
+        return vecs[0].getOrientation() == VectorOrientation.ROW_MAJOR ? vecs.length : vecs[0].length();
+    }
+
+    public int columnCount() {
+        SharedVector[] vecs = vectors;
+        if (vecs.length == 0) {
+            return 0;
+        }
+        return vecs[0].getOrientation() == VectorOrientation.ROW_MAJOR ? vecs[0].length() : vecs.length;
+    }
+
+    /**
+     * Copies rows [from, to) into the first to - from rows of dest, whatever the orientation,
+     * so the matrix can be exported a block of rows at a time instead of all at once.
+     */
+    public void readRows(int from, int to, double[][] dest) {
+        SharedVector[] vecs = vectors;
+        if (from < 0 || to > rowCount() || from > to) {
+            throw new IndexOutOfBoundsException("Invalid row range: [" + from + ", " + to + ")");
+        }
+        if (from == to) {
+            return;
+        }
+        if (vecs[0].getOrientation() == VectorOrientation.ROW_MAJOR) {
+            for (int i = from; i < to; i++) {
+                vecs[i].copyTo(dest[i - from], 0);
+            }
+            return;
+        }
+        double[] column = new double[to - from];
+        for (int c = 0; c < vecs.length; c++) {
+            vecs[c].read(from, to, column, 0);
+            for (int r = 0; r < column.length; r++) {
+                dest[r][c] = column[r];
+            }
+        }
+    }
+
+    /**
+     * Hash of the shape and the elements, consistent with contentEquals. Reads one row at a
+     * time, so the matrix is never exported as a whole.
+     */
+    public int contentHashCode() {
+        int rows = rowCount();
+        int cols = columnCount();
+        int h = 31 * rows + cols;
+        double[][] row = new double[1][cols];
+        for (int i = 0; i < rows; i++) {
+            readRows(i, i + 1, row);
+            h = 31 * h + Arrays.hashCode(row[0]);
+        }
+        return h;
+    }
+
+    /**
+     * Whether both matrices have the same shape and elements, whatever their storage,
+     * precision or orientation. Compares one row at a time.
+     */
+    public boolean contentEquals(SharedMatrix other) {
+        if (other == null) {
+            return false;
+        }
+        if (other == this) {
+            return true;
+        }
+        int rows = rowCount();
+        int cols = columnCount();
+        if (rows != other.rowCount() || cols != other.columnCount()) {
+            return false;
+        }
+        double[][] mine = new double[1][cols];
+        double[][] theirs = new double[1][cols];
+        for (int i = 0; i < rows; i++) {
+            readRows(i, i + 1, mine);
+            other.readRows(i, i + 1, theirs);
+            if (!Arrays.equals(mine[0], theirs[0])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public SharedVector get(int index) {
         if (index < 0 || index >= vectors.length) {
             throw new IndexOutOfBoundsException("Index out of bounds: " + index);
@@ -118,6 +550,80 @@ public class SharedMatrix {
         return vectors[0].getOrientation();
     }
 
+    // all rows must have the same width to share one backing array
+    private static int checkedWidth(double[][] matrix) {
+        if (matrix.length == 0) {
+            return 0;
+        }
+        int width = matrix[0].length;
+        for (double[] row : matrix) {
+            if (row == null || row.length != width) {
+                throw new IllegalArgumentException("Inconsistent row sizes in matrix.");
+            }
+        }
+        return width;
+    }
+
+    private static int checkedSize(int rows, int cols) {
+        long size = (long) rows * cols;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Matrix is too large for contiguous storage.");
+        }
+        return (int) size;
+    }
+
+    // off-heap storage for the next load, which this matrix then owns
+    private DoubleBuffer allocate(int size) {
+        DoubleBuffer flat = arena != null ? arena.allocate(size) : OffHeapArena.unpooled(size);
+        owned = flat;
+        return flat;
+    }
+
+    // one view per vector on the backing array; vector i uses lock i % stripes, so the vectors
+    // of a block of consecutive rows never share a lock with each other
+    private SharedVector[] views(double[] flat, int count, int width, VectorOrientation orientation) {
+        ReadWriteLock[] locks = stripes(count);
+        SharedVector[] tmp = new SharedVector[count];
+        float[] narrowed = precision == Precision.FLOAT32 ? narrow(flat) : null;
+        for (int i = 0; i < count; i++) {
+            tmp[i] = narrowed != null
+                    ? new SharedVector(narrowed, i * width, width, orientation, locks[i % locks.length])
+                    : new SharedVector(flat, i * width, width, orientation, locks[i % locks.length]);
+        }
+        return tmp;
+    }
+
+    // a vector on an array of its own, given fresh by the caller
+    private SharedVector vector(double[] data, VectorOrientation orientation) {
+        return precision == Precision.FLOAT32 ? new SharedVector(narrow(data), orientation)
+                : new SharedVector(data, orientation);
+    }
+
+    private static float[] narrow(double[] data) {
+        float[] narrowed = new float[data.length];
+        for (int i = 0; i < data.length; i++) {
+            narrowed[i] = (float) data[i];
+        }
+        return narrowed;
+    }
+
+    private SharedVector[] views(DoubleBuffer flat, int count, int width, VectorOrientation orientation) {
+        ReadWriteLock[] locks = stripes(count);
+        SharedVector[] tmp = new SharedVector[count];
+        for (int i = 0; i < count; i++) {
+            tmp[i] = new SharedVector(flat, i * width, width, orientation, locks[i % locks.length], arena);
+        }
+        return tmp;
+    }
+
+    private static ReadWriteLock[] stripes(int count) {
+        ReadWriteLock[] locks = new ReadWriteLock[Math.max(1, Math.min(count, LOCK_STRIPES))];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        return locks;
+    }
+
     private void acquireAllVectorReadLocks(SharedVector[] vecs) {
         // TODO: acquire read lock for each vector
         for (SharedVector vec : vecs){
@@ -1,25 +1,99 @@
 package memory;
 
+import java.nio.DoubleBuffer;
 import java.util.NoSuchElementException;
 import java.util.concurrent.locks.ReadWriteLock;
 
 public class SharedVector {
 
+    static final boolean SIMD_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    // Vector API dot product (see SimdKernels) instead of the scalar loop; on with -Dlae.simd=true,
+    // when the JVM runs with --add-modules jdk.incubator.vector. Tests may switch it
+    static boolean simd = Boolean.getBoolean("lae.simd") && SIMD_AVAILABLE;
+
     private double[] vector;
+    private DoubleBuffer buffer; // off-heap storage, used instead of vector (see StorageMode.OFF_HEAP)
+    private OffHeapArena arena; // where an off-heap vector gets new storage, null for unpooled storage
+    private float[] floats; // single-precision storage, used instead of vector (see Precision.FLOAT32)
+    private int offset; // first element inside the storage (non-zero for views on contiguous storage)
+    private int size; // number of elements, may be smaller than vector.length for views
     private VectorOrientation orientation;
-    private ReadWriteLock lock = new java.util.concurrent.locks.ReentrantReadWriteLock();
+    private ReadWriteLock lock;
 
     public SharedVector(double[] vector, VectorOrientation orientation) {
         // TODO: store vector data and its orientation
+        this(vector, 0, vector == null ? 0 : vector.length, orientation,
+                new java.util.concurrent.locks.ReentrantReadWriteLock());
+    }
+
+    // view on [offset, offset + size) of a storage array that may be shared with other vectors,
+    // guarded by a lock that may also be shared (lock striping)
+    SharedVector(double[] vector, int offset, int size, VectorOrientation orientation, ReadWriteLock lock) {
+        if (vector == null) {
+            throw new IllegalArgumentException("Vector data is null.");
+        }
+        if (offset < 0 || size < 0 || offset + size > vector.length) {
+            throw new IndexOutOfBoundsException("Invalid view: offset " + offset + ", size " + size);
+        }
         this.vector = vector;
+        this.offset = offset;
+        this.size = size;
+        this.orientation = orientation;
+        this.lock = lock;
+    }
+
+    /**
+     * A single-precision vector on the given array; its elements are computed in double and
+     * rounded to float when stored.
+     */
+    public SharedVector(float[] vector, VectorOrientation orientation) {
+        this(vector, 0, vector == null ? 0 : vector.length, orientation,
+                new java.util.concurrent.locks.ReentrantReadWriteLock());
+    }
+
+    // single-precision view on [offset, offset + size) of a storage array, like the double one
+    SharedVector(float[] vector, int offset, int size, VectorOrientation orientation, ReadWriteLock lock) {
+        if (vector == null) {
+            throw new IllegalArgumentException("Vector data is null.");
+        }
+        if (offset < 0 || size < 0 || offset + size > vector.length) {
+            throw new IndexOutOfBoundsException("Invalid view: offset " + offset + ", size " + size);
+        }
+        this.floats = vector;
+        this.offset = offset;
+        this.size = size;
+        this.orientation = orientation;
+        this.lock = lock;
+    }
+
+    // off-heap view on [offset, offset + size) of the buffer, replacements are allocated from arena
+    SharedVector(DoubleBuffer buffer, int offset, int size, VectorOrientation orientation, ReadWriteLock lock,
+            OffHeapArena arena) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("Vector data is null.");
+        }
+        if (offset < 0 || size < 0 || offset + size > buffer.capacity()) {
+            throw new IndexOutOfBoundsException("Invalid view: offset " + offset + ", size " + size);
+        }
+        this.buffer = buffer;
+        this.arena = arena;
+        this.offset = offset;
+        this.size = size;
         this.orientation = orientation;
+        this.lock = lock;
     }
 
     public double get(int index) {
         // TODO: return element at index (read-locked)
         this.readLock(); // need read lock to safely read while others might write
         try {
-            return vector[index];
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index out of bounds: " + index);
+            }
+            if (buffer != null) {
+                return buffer.get(offset + index);
+            }
+            return floats != null ? floats[offset + index] : vector[offset + index];
         } finally {
             this.readUnlock();
         }
@@ -29,7 +103,7 @@ public class SharedVector {
         // TODO: return vector length
         this.readLock(); // lock to get consistent length
         try {
-            return vector.length;
+            return size;
         } finally {
             this.readUnlock();
         }
@@ -45,6 +119,163 @@ public class SharedVector {
         }
     }
 
+    // raw access for the kernels of this package; caller must hold the matching lock.
+    // elements live in data()[offset() .. offset() + size() - 1]. An off-heap or single-precision
+    // vector hands out a copy at offset 0 instead (widened to double), which is written back with store()
+    double[] data() {
+        if (buffer == null && floats == null) {
+            return vector;
+        }
+        double[] copy = new double[size];
+        if (buffer != null) {
+            buffer.get(offset, copy, 0, size);
+        } else {
+            widen(floats, offset, copy, 0, size);
+        }
+        return copy;
+    }
+
+    int offset() {
+        return buffer != null || floats != null ? 0 : offset;
+    }
+
+    boolean isOffHeap() {
+        return buffer != null;
+    }
+
+    public Precision getPrecision() {
+        return floats != null ? Precision.FLOAT32 : Precision.FLOAT64;
+    }
+
+    // writes back the elements of data() after changing them; caller must hold the write lock
+    private void store(double[] data) {
+        if (buffer != null) {
+            buffer.put(offset, data, 0, size);
+        } else if (floats != null) {
+            narrow(data, 0, floats, offset, size);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // element i, read in place whatever the storage; caller must hold the lock
+    private double at(int i) {
+        return buffer != null ? buffer.get(offset + i) : floats != null ? floats[offset + i] : vector[offset + i];
+    }
+
+    private void set(int i, double value) {
+        if (buffer != null) {
+            buffer.put(offset + i, value);
+        } else if (floats != null) {
+            floats[offset + i] = (float) value;
+        } else {
+            vector[offset + i] = value;
+        }
+    }
+
+    // double array storage; the kernels go element by element through the other kinds instead of copying them
+    private boolean onHeap() {
+        return buffer == null && floats == null;
+    }
+
+    // replace the content with a freshly computed row; caller must hold the write lock.
+    // a view stops sharing the storage of its matrix from here on
+    void replace(double[] data) {
+        if (buffer != null) {
+            this.buffer = arena != null ? arena.allocate(data.length) : OffHeapArena.unpooled(data.length);
+            this.buffer.put(0, data);
+        } else if (floats != null) {
+            this.floats = new float[data.length];
+            narrow(data, 0, floats, 0, data.length);
+        } else {
+            this.vector = data;
+        }
+        this.offset = 0;
+        this.size = data.length;
+    }
+
+    // gives the off-heap storage of this vector back to its arena; caller makes sure nothing uses it anymore
+    void release() {
+        if (buffer != null && arena != null) {
+            arena.release(buffer);
+        }
+    }
+
+    // view on the same elements and lock with another orientation, for transposing without copying;
+    // it stops following this vector if the content is replaced
+    SharedVector view(VectorOrientation orientation) {
+        this.readLock();
+        try {
+            if (buffer != null) {
+                return new SharedVector(buffer, offset, size, orientation, lock, arena);
+            }
+            if (floats != null) {
+                return new SharedVector(floats, offset, size, orientation, lock);
+            }
+            return new SharedVector(vector, offset, size, orientation, lock);
+        } finally {
+            this.readUnlock();
+        }
+    }
+
+    /**
+     * Copies the whole vector into dest starting at destPos, under a single read lock.
+     */
+    public void copyTo(double[] dest, int destPos) {
+        this.readLock();
+        try {
+            if (buffer != null) {
+                buffer.get(offset, dest, destPos, size);
+            } else if (floats != null) {
+                widen(floats, offset, dest, destPos, size);
+            } else {
+                System.arraycopy(vector, offset, dest, destPos, size);
+            }
+        } finally {
+            this.readUnlock();
+        }
+    }
+
+    /**
+     * Copies elements [from, to) into dest starting at destPos, under a single read lock.
+     */
+    public void read(int from, int to, double[] dest, int destPos) {
+        this.readLock();
+        try {
+            if (from < 0 || to > size || from > to) {
+                throw new IndexOutOfBoundsException("Invalid range: [" + from + ", " + to + ")");
+            }
+            if (buffer != null) {
+                buffer.get(offset + from, dest, destPos, to - from);
+            } else if (floats != null) {
+                widen(floats, offset + from, dest, destPos, to - from);
+            } else {
+                System.arraycopy(vector, offset + from, dest, destPos, to - from);
+            }
+        } finally {
+            this.readUnlock();
+        }
+    }
+
+    /**
+     * Runs the kernel on the raw elements under a single write lock.
+     */
+    public void apply(VectorKernel kernel) {
+        if (kernel == null) {
+            throw new IllegalArgumentException("Kernel is null.");
+        }
+        this.writeLock();
+        try {
+            double[] data = data();
+            kernel.apply(data, offset(), size);
+            store(data);
+        } finally {
+            this.writeUnlock();
+        }
+    }
+
     public void writeLock() {
         // TODO: acquire write lock
         lock.writeLock().lock();
@@ -91,14 +322,24 @@ public class SharedVector {
         this.writeLock();
         other.readLock();
         try {
-            if (other.vector.length != this.vector.length) {
+            if (other.size != this.size) {
                 throw new IllegalArgumentException("Vectors must be of the same length to add.");
             }
             if (other.orientation != this.orientation) {
                 throw new IllegalArgumentException("Vectors must have the same orientation to add.");
             }
-            for (int i = 0; i < this.vector.length; i++) {
-                this.vector[i] += other.vector[i];
+            if (!this.onHeap() || !other.onHeap()) {
+                for (int i = 0; i < this.size; i++) {
+                    set(i, at(i) + other.at(i));
+                }
+                return;
+            }
+            double[] a = this.vector;
+            double[] b = other.vector;
+            int ao = this.offset;
+            int bo = other.offset;
+            for (int i = 0; i < this.size; i++) {
+                a[ao + i] += b[bo + i];
             }
         } finally {
             other.readUnlock();
@@ -106,18 +347,52 @@ public class SharedVector {
         }
     }
 
-    public void negate() {
-        // TODO: negate vector
-        this.writeLock(); // write lock because we modify all elements
+    /**
+     * Replaces this vector with scale * this + otherScale * other, in a single pass.
+     * Used to fold negations of either operand into an addition.
+     */
+    public void combine(double scale, SharedVector other, double otherScale) {
+        if (other == null) {
+            throw new IllegalArgumentException("Can't add other vector is null.");
+        }
+        // write lock on this (we modify it), read lock on other (just reading)
+        this.writeLock();
+        other.readLock();
         try {
-            for (int i = 0; i < vector.length; i++) {
-                this.vector[i] = -this.vector[i];
+            if (other.size != this.size) {
+                throw new IllegalArgumentException("Vectors must be of the same length to add.");
+            }
+            if (other.orientation != this.orientation) {
+                throw new IllegalArgumentException("Vectors must have the same orientation to add.");
+            }
+            if (!this.onHeap() || !other.onHeap()) {
+                for (int i = 0; i < this.size; i++) {
+                    set(i, scale * at(i) + otherScale * other.at(i));
+                }
+                return;
+            }
+            double[] a = this.vector;
+            double[] b = other.vector;
+            int ao = this.offset;
+            int bo = other.offset;
+            for (int i = 0; i < this.size; i++) {
+                a[ao + i] = scale * a[ao + i] + otherScale * b[bo + i];
             }
         } finally {
+            other.readUnlock();
             this.writeUnlock();
         }
     }
 
+    public void negate() {
+        // TODO: negate vector
+        apply((data, from, length) -> {
+            for (int i = from; i < from + length; i++) {
+                data[i] = -data[i];
+            }
+        });
+    }
+
     public double dot(SharedVector other) {
         // TODO: compute dot product (row · column)
         if (other == null) {
@@ -127,31 +402,82 @@ public class SharedVector {
         this.readLock();
         other.readLock();
         try {
-            if (other.vector.length != this.vector.length) {
+            if (other.size != this.size) {
                 throw new IllegalArgumentException("Vectors must be of the same length for doing dot product.");
             }
             if (this.orientation != VectorOrientation.ROW_MAJOR
                     || other.orientation != VectorOrientation.COLUMN_MAJOR) {
                 throw new IllegalArgumentException("Vectors orientations are not fits for dot product.");
             }
-            double sum = 0;
-            for (int i = 0; i < vector.length; i++) {
-                sum += (this.vector[i] * other.vector[i]);
-            }
-            return sum;
+            return dotUnlocked(other);
         } finally {
             other.readUnlock();
             readUnlock();
         }
     }
 
+    // caller must hold the locks of both vectors
+    private double dotUnlocked(SharedVector other) {
+        if (floats != null && other.floats != null) {
+            return dotFloats(other);
+        }
+        return dotUnlocked(this.data(), this.offset(), other);
+    }
+
+    // both single precision: read in place and widened as they are multiplied, not copied first
+    private double dotFloats(SharedVector other) {
+        float[] a = floats;
+        float[] b = other.floats;
+        if (simd) {
+            return SimdKernels.dot(a, offset, b, other.offset, size);
+        }
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += (double) a[offset + i] * b[other.offset + i];
+        }
+        return sum;
+    }
+
+    private double dotUnlocked(double[] a, int ao, SharedVector other) {
+        // off-heap and single-precision columns are read in place, rather than copied for every dot product
+        if (other.buffer != null) {
+            DoubleBuffer b = other.buffer;
+            int bo = other.offset;
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += a[ao + i] * b.get(bo + i);
+            }
+            return sum;
+        }
+        if (other.floats != null) {
+            float[] b = other.floats;
+            int bo = other.offset;
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += a[ao + i] * b[bo + i];
+            }
+            return sum;
+        }
+        double[] b = other.vector;
+        int bo = other.offset;
+        if (simd) {
+            return SimdKernels.dot(a, ao, b, bo, size);
+        }
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += (a[ao + i] * b[bo + i]);
+        }
+        return sum;
+    }
+
     // write lock needed - we replace the vector content
     public void vecMatMul(SharedMatrix matrix) {
         // TODO: compute row-vector × matrix
         if (matrix == null) {
             throw new IllegalArgumentException("Can't do vector-matrix multiplication, matrix is null.");
         }
-        if (matrix.length() == 0 || matrix.get(0).length() == 0) {
+        int cols = matrix.length();
+        if (cols == 0 || matrix.get(0).length() == 0) {
             throw new IllegalArgumentException("Matrix is empty.");
         }
         if (matrix.getOrientation() != VectorOrientation.COLUMN_MAJOR) {
@@ -163,21 +489,46 @@ public class SharedVector {
             if (this.orientation != VectorOrientation.ROW_MAJOR) {
                 throw new IllegalArgumentException("Vector must be row-major for vector-matrix multiplication.");
             }
-            // matrix is column-major
-            if (matrix.getOrientation() == VectorOrientation.COLUMN_MAJOR) {
-                if (this.vector.length != matrix.get(0).length()) {
-                    throw new IllegalArgumentException(
-                            "Vector length must equal to matrix row count for vector-matrix multiplication.");
+            double[] result = new double[cols];
+            double[] row = null; // copied once, if needed, for an off-heap or float vector, not once per column
+            for (int i = 0; i < cols; i++) {
+                SharedVector column = matrix.get(i);
+                column.readLock(); // one lock per column, the dot product itself runs on the raw arrays
+                try {
+                    if (column.size != this.size) {
+                        throw new IllegalArgumentException(
+                                "Vector length must equal to matrix row count for vector-matrix multiplication.");
+                    }
+                    if (column.orientation != VectorOrientation.COLUMN_MAJOR) {
+                        throw new IllegalArgumentException("Vectors orientations are not fits for dot product.");
+                    }
+                    if (floats != null && column.floats != null) {
+                        result[i] = dotFloats(column);
+                    } else {
+                        if (row == null) {
+                            row = data();
+                        }
+                        result[i] = dotUnlocked(row, offset(), column);
+                    }
+                } finally {
+                    column.readUnlock();
                 }
-                double[] result = new double[matrix.length()];
-                for (int i = 0; i < result.length; i++) {
-                    result[i] = this.dot(matrix.get(i));
-                }
-                this.vector = result;
-                this.orientation = VectorOrientation.ROW_MAJOR;
             }
+            replace(result);
         } finally {
             this.writeUnlock();
         }
     }
-}
\ No newline at end of file
+
+    private static void widen(float[] src, int srcPos, double[] dest, int destPos, int length) {
+        for (int i = 0; i < length; i++) {
+            dest[destPos + i] = src[srcPos + i];
+        }
+    }
+
+    private static void narrow(double[] src, int srcPos, float[] dest, int destPos, int length) {
+        for (int i = 0; i < length; i++) {
+            dest[destPos + i] = (float) src[srcPos + i];
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package memory;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API kernels, on the widest vectors of the CPU (4 doubles with AVX2, 8 with AVX-512).
+ * Only loaded when SharedVector.simd is on, since the jdk.incubator.vector module is not there
+ * by default.
+ * There is no kernel for add or negate: C2 already vectorizes their scalar loops, and the
+ * Vector API versions in SimdKernelsBenchmark run no faster. The serial sum of the scalar dot
+ * product is what it can't vectorize.
+ */
+final class SimdKernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    // half as wide, so the floats of one load widen into exactly one vector of doubles
+    private static final VectorSpecies<Float> FLOAT_SPECIES = VectorSpecies.of(float.class,
+            VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+
+    private SimdKernels() {}
+
+    /**
+     * Dot product of a[ao ..] and b[bo ..] over n elements. Four independent accumulators keep
+     * consecutive fused multiply-adds from waiting on each other; the sum is taken in another
+     * order than the scalar loop, so it may differ from it in the last bits.
+     */
+    static double dot(double[] a, int ao, double[] b, int bo, int n) {
+        DoubleVector acc0 = DoubleVector.zero(SPECIES);
+        DoubleVector acc1 = DoubleVector.zero(SPECIES);
+        DoubleVector acc2 = DoubleVector.zero(SPECIES);
+        DoubleVector acc3 = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = n - 4 * LANES; i <= bound; i += 4 * LANES) {
+            acc0 = DoubleVector.fromArray(SPECIES, a, ao + i)
+                    .fma(DoubleVector.fromArray(SPECIES, b, bo + i), acc0);
+            acc1 = DoubleVector.fromArray(SPECIES, a, ao + i + LANES)
+                    .fma(DoubleVector.fromArray(SPECIES, b, bo + i + LANES), acc1);
+            acc2 = DoubleVector.fromArray(SPECIES, a, ao + i + 2 * LANES)
+                    .fma(DoubleVector.fromArray(SPECIES, b, bo + i + 2 * LANES), acc2);
+            acc3 = DoubleVector.fromArray(SPECIES, a, ao + i + 3 * LANES)
+                    .fma(DoubleVector.fromArray(SPECIES, b, bo + i + 3 * LANES), acc3);
+        }
+        for (int bound = SPECIES.loopBound(n); i < bound; i += LANES) {
+            acc0 = DoubleVector.fromArray(SPECIES, a, ao + i)
+                    .fma(DoubleVector.fromArray(SPECIES, b, bo + i), acc0);
+        }
+        double sum = acc0.add(acc1).add(acc2.add(acc3)).reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            sum += a[ao + i] * b[bo + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Dot product of two single-precision ranges, computed in double like the scalar loop on
+     * widened elements: the floats are widened in registers as they are loaded, with no copy.
+     */
+    static double dot(float[] a, int ao, float[] b, int bo, int n) {
+        DoubleVector acc0 = DoubleVector.zero(SPECIES);
+        DoubleVector acc1 = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = n - 2 * LANES; i <= bound; i += 2 * LANES) {
+            acc0 = widen(a, ao + i).fma(widen(b, bo + i), acc0);
+            acc1 = widen(a, ao + i + LANES).fma(widen(b, bo + i + LANES), acc1);
+        }
+        for (int bound = n - LANES; i <= bound; i += LANES) {
+            acc0 = widen(a, ao + i).fma(widen(b, bo + i), acc0);
+        }
+        double sum = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            sum += (double) a[ao + i] * b[bo + i];
+        }
+        return sum;
+    }
+
+    private static DoubleVector widen(float[] a, int from) {
+        return (DoubleVector) FloatVector.fromArray(FLOAT_SPECIES, a, from)
+                .convertShape(VectorOperators.F2D, SPECIES, 0);
+    }
+}
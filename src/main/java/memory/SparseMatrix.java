@@ -0,0 +1,335 @@
+package memory;
+
+import java.util.Arrays;
+
+/**
+ * An immutable matrix that stores only its non-zero elements, compressed by rows (CSR) or by
+ * columns (CSC): line i holds the indices[pointers[i] .. pointers[i + 1]) and values of the
+ * same range, indices in increasing order. The CSR form of a matrix is the CSC form of its
+ * transpose, so transpose() costs nothing. Products and sums run a range of output rows at a
+ * time, so they can be split into tasks like the dense kernels.
+ */
+public final class SparseMatrix {
+
+    // literals with at most this fraction of non-zero elements are worth compressing
+    public static final double MAX_DENSITY = 0.1;
+
+    private final int rows;
+    private final int cols;
+    private final boolean rowMajor; // CSR if true, CSC otherwise
+    private final int[] pointers;
+    private final int[] indices;
+    private final double[] values;
+
+    private SparseMatrix(int rows, int cols, boolean rowMajor, int[] pointers, int[] indices, double[] values) {
+        this.rows = rows;
+        this.cols = cols;
+        this.rowMajor = rowMajor;
+        this.pointers = pointers;
+        this.indices = indices;
+        this.values = values;
+    }
+
+    /**
+     * Whether the matrix has few enough non-zero elements to be compressed (see MAX_DENSITY).
+     */
+    public static boolean isSparse(double[][] matrix) {
+        long size = 0;
+        long nonZeros = 0;
+        for (double[] row : matrix) {
+            size += row.length;
+            for (double x : row) {
+                if (x != 0) {
+                    nonZeros++;
+                }
+            }
+        }
+        return size > 0 && nonZeros <= MAX_DENSITY * size;
+    }
+
+    // the CSR form of a row-major matrix
+    public static SparseMatrix fromDense(double[][] matrix) {
+        if (matrix == null) {
+            throw new IllegalArgumentException("Input matrix is null.");
+        }
+        int cols = matrix.length == 0 ? 0 : matrix[0].length;
+        int nonZeros = 0;
+        for (double[] row : matrix) {
+            if (row == null || row.length != cols) {
+                throw new IllegalArgumentException("Inconsistent row sizes in matrix.");
+            }
+            for (double x : row) {
+                if (x != 0) {
+                    nonZeros++;
+                }
+            }
+        }
+        int[] pointers = new int[matrix.length + 1];
+        int[] indices = new int[nonZeros];
+        double[] values = new double[nonZeros];
+        int p = 0;
+        for (int i = 0; i < matrix.length; i++) {
+            double[] row = matrix[i];
+            for (int j = 0; j < cols; j++) {
+                if (row[j] != 0) {
+                    indices[p] = j;
+                    values[p++] = row[j];
+                }
+            }
+            pointers[i + 1] = p;
+        }
+        return new SparseMatrix(matrix.length, cols, true, pointers, indices, values);
+    }
+
+    /**
+     * Assembles a CSR matrix from compressed rows, as filled by multiplyRows() and addRows().
+     */
+    public static SparseMatrix fromRows(int cols, int[][] rowIndices, double[][] rowValues) {
+        int[] pointers = new int[rowIndices.length + 1];
+        for (int i = 0; i < rowIndices.length; i++) {
+            pointers[i + 1] = pointers[i] + rowIndices[i].length;
+        }
+        int[] indices = new int[pointers[rowIndices.length]];
+        double[] values = new double[indices.length];
+        for (int i = 0; i < rowIndices.length; i++) {
+            System.arraycopy(rowIndices[i], 0, indices, pointers[i], rowIndices[i].length);
+            System.arraycopy(rowValues[i], 0, values, pointers[i], rowValues[i].length);
+        }
+        return new SparseMatrix(rowIndices.length, cols, true, pointers, indices, values);
+    }
+
+    public int rowCount() {
+        return rows;
+    }
+
+    public int columnCount() {
+        return cols;
+    }
+
+    public int nonZeros() {
+        return indices.length;
+    }
+
+    public boolean isRowMajor() {
+        return rowMajor;
+    }
+
+    public double density() {
+        long size = (long) rows * cols;
+        return size == 0 ? 0 : (double) nonZeros() / size;
+    }
+
+    // whether no stored element is infinite or NaN, so implicit zeros multiply like stored ones
+    public boolean isFinite() {
+        for (double x : values) {
+            if (!Double.isFinite(x)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the transpose, on the same arrays: CSR becomes CSC and the other way round
+    public SparseMatrix transpose() {
+        return new SparseMatrix(cols, rows, !rowMajor, pointers, indices, values);
+    }
+
+    // the same matrix compressed by rows, converted if it was compressed by columns
+    public SparseMatrix toRowMajor() {
+        return rowMajor ? this : recompressed();
+    }
+
+    // the same matrix compressed by columns, converted if it was compressed by rows
+    public SparseMatrix toColumnMajor() {
+        return rowMajor ? recompressed() : this;
+    }
+
+    // the other compression of the same matrix, by counting the elements of every cross line
+    private SparseMatrix recompressed() {
+        int lines = rowMajor ? rows : cols;
+        int crossLines = rowMajor ? cols : rows;
+        int[] crossPointers = new int[crossLines + 1];
+        for (int index : indices) {
+            crossPointers[index + 1]++;
+        }
+        for (int j = 0; j < crossLines; j++) {
+            crossPointers[j + 1] += crossPointers[j];
+        }
+        int[] next = Arrays.copyOf(crossPointers, crossLines);
+        int[] crossIndices = new int[indices.length];
+        double[] crossValues = new double[values.length];
+        for (int i = 0; i < lines; i++) {
+            for (int p = pointers[i]; p < pointers[i + 1]; p++) {
+                int q = next[indices[p]]++;
+                crossIndices[q] = i;
+                crossValues[q] = values[p];
+            }
+        }
+        return new SparseMatrix(rows, cols, !rowMajor, crossPointers, crossIndices, crossValues);
+    }
+
+    public double[][] toDense() {
+        double[][] matrix = new double[rows][cols];
+        int lines = rowMajor ? rows : cols;
+        for (int i = 0; i < lines; i++) {
+            for (int p = pointers[i]; p < pointers[i + 1]; p++) {
+                if (rowMajor) {
+                    matrix[i][indices[p]] = values[p];
+                } else {
+                    matrix[indices[p]][i] = values[p];
+                }
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Fills rows [from, to) of out with scale * (this × right), this being CSR and right dense:
+     * every non-zero element scales a row of right into the output row.
+     */
+    public void multiplyRows(int from, int to, double[][] right, double scale, double[][] out) {
+        requireLayout(this, true);
+        int width = right.length == 0 ? 0 : right[0].length;
+        for (int i = from; i < to; i++) {
+            double[] row = new double[width];
+            for (int p = pointers[i]; p < pointers[i + 1]; p++) {
+                double v = scale * values[p];
+                double[] r = right[indices[p]];
+                for (int j = 0; j < width; j++) {
+                    row[j] += v * r[j];
+                }
+            }
+            out[i] = row;
+        }
+    }
+
+    /**
+     * Fills rows [from, to) of out with scale * (left × right), left being dense and right CSC:
+     * every output element is the dot product of a row of left with the non-zeros of a column.
+     */
+    public static void multiplyRows(double[][] left, int from, int to, SparseMatrix right, double scale,
+            double[][] out) {
+        requireLayout(right, false);
+        for (int i = from; i < to; i++) {
+            double[] a = left[i];
+            double[] row = new double[right.cols];
+            for (int j = 0; j < right.cols; j++) {
+                double sum = 0;
+                for (int p = right.pointers[j]; p < right.pointers[j + 1]; p++) {
+                    sum += a[right.indices[p]] * right.values[p];
+                }
+                row[j] = scale * sum;
+            }
+            out[i] = row;
+        }
+    }
+
+    /**
+     * Fills rows [from, to) of outIndices/outValues with the compressed rows of
+     * scale * (this × right), both CSR, accumulating every output row in a dense scratch row
+     * (Gustavson's algorithm). Elements that come out as zero are dropped.
+     */
+    public void multiplyRows(int from, int to, SparseMatrix right, double scale, int[][] outIndices,
+            double[][] outValues) {
+        requireLayout(this, true);
+        requireLayout(right, true);
+        double[] acc = new double[right.cols];
+        int[] seen = new int[right.cols]; // row + 1 that last touched a column
+        int[] touched = new int[right.cols];
+        for (int i = from; i < to; i++) {
+            int count = 0;
+            for (int p = pointers[i]; p < pointers[i + 1]; p++) {
+                double v = scale * values[p];
+                int k = indices[p];
+                for (int q = right.pointers[k]; q < right.pointers[k + 1]; q++) {
+                    int j = right.indices[q];
+                    if (seen[j] != i + 1) {
+                        seen[j] = i + 1;
+                        acc[j] = 0;
+                        touched[count++] = j;
+                    }
+                    acc[j] += v * right.values[q];
+                }
+            }
+            Arrays.sort(touched, 0, count);
+            int nonZeros = 0;
+            for (int c = 0; c < count; c++) {
+                if (acc[touched[c]] != 0) {
+                    nonZeros++;
+                }
+            }
+            int[] rowIndices = new int[nonZeros];
+            double[] rowValues = new double[nonZeros];
+            for (int c = 0, n = 0; c < count; c++) {
+                int j = touched[c];
+                if (acc[j] != 0) {
+                    rowIndices[n] = j;
+                    rowValues[n++] = acc[j];
+                }
+            }
+            outIndices[i] = rowIndices;
+            outValues[i] = rowValues;
+        }
+    }
+
+    /**
+     * Fills rows [from, to) of outIndices/outValues with the compressed rows of
+     * scale * this + otherScale * other, both CSR, merging the two rows in one pass.
+     */
+    public void addRows(int from, int to, double scale, SparseMatrix other, double otherScale, int[][] outIndices,
+            double[][] outValues) {
+        requireLayout(this, true);
+        requireLayout(other, true);
+        if (other.rows != rows || other.cols != cols) {
+            throw new IllegalArgumentException("Matrices must have the same dimensions for addition");
+        }
+        for (int i = from; i < to; i++) {
+            int p = pointers[i];
+            int q = other.pointers[i];
+            int pEnd = pointers[i + 1];
+            int qEnd = other.pointers[i + 1];
+            int[] rowIndices = new int[(pEnd - p) + (qEnd - q)];
+            double[] rowValues = new double[rowIndices.length];
+            int n = 0;
+            while (p < pEnd || q < qEnd) {
+                int j = Math.min(p < pEnd ? indices[p] : Integer.MAX_VALUE,
+                        q < qEnd ? other.indices[q] : Integer.MAX_VALUE);
+                double a = p < pEnd && indices[p] == j ? values[p++] : 0;
+                double b = q < qEnd && other.indices[q] == j ? other.values[q++] : 0;
+                double sum = scale * a + otherScale * b;
+                if (sum != 0) {
+                    rowIndices[n] = j;
+                    rowValues[n++] = sum;
+                }
+            }
+            outIndices[i] = Arrays.copyOf(rowIndices, n);
+            outValues[i] = Arrays.copyOf(rowValues, n);
+        }
+    }
+
+    private static void requireLayout(SparseMatrix matrix, boolean rowMajor) {
+        if (matrix.rowMajor != rowMajor) {
+            throw new IllegalArgumentException("Sparse matrix must be compressed by "
+                    + (rowMajor ? "rows" : "columns") + " for this kernel.");
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SparseMatrix)) {
+            return false;
+        }
+        SparseMatrix other = (SparseMatrix) o;
+        return rows == other.rows && cols == other.cols && rowMajor == other.rowMajor
+                && Arrays.equals(pointers, other.pointers) && Arrays.equals(indices, other.indices)
+                && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 31 * rows + cols;
+        h = 31 * h + (rowMajor ? 1 : 0);
+        h = 31 * h + Arrays.hashCode(indices);
+        return 31 * h + Arrays.hashCode(values);
+    }
+}
@@ -0,0 +1,14 @@
+package memory;
+/**
+ * How a SharedMatrix keeps its elements.
+ * PER_VECTOR gives every vector its own array and its own lock.
+ * CONTIGUOUS keeps the whole matrix in one array, with each vector being a view on its
+ * row (or column) and the locks being shared between vectors (lock striping).
+ * OFF_HEAP lays the matrix out like CONTIGUOUS, but in direct memory outside of the heap,
+ * allocated from an OffHeapArena; operations copy a vector to the heap while working on it.
+ */
+public enum StorageMode {
+    PER_VECTOR,
+    CONTIGUOUS,
+    OFF_HEAP
+}
@@ -0,0 +1,403 @@
+package memory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Strassen's recursive multiplication of a square row-major matrix by a square column-major
+ * matrix of the same size. One level splits both operands in quadrants and gets the four
+ * quadrants of the product out of 7 products of sums of quadrants instead of 8. Levels are
+ * added while the blocks stay at least cutoff wide (odd sizes are padded with zeros), and the
+ * products of the last level go to the classical blocked kernel.
+ * The recursion is unrolled up front: each of the 7^depth leaf products multiplies a signed sum
+ * of blocks of the left operand by a signed sum of blocks of the right one, so they are all
+ * independent, and each of them is computed a range of rows at a time. The operand blocks are
+ * read in place, and the rows of a leaf product are added into the blocks of the result they
+ * contribute to as soon as they are computed, so no leaf product is kept. A row of the result
+ * replaces the row of the left operand once every product that reads that row or adds into it
+ * is done, by whichever call finishes it, so the combine is spread over all the calls.
+ * Strassen trades multiplications for additions: its rounding errors are somewhat larger than
+ * those of the classical kernel, and grow with the depth.
+ */
+public class StrassenMultiply {
+
+    // one level, quadrants numbered 11, 12, 21, 22: product k multiplies the sum over q of
+    // LEFT_TERMS[k][q] * Aq by the sum of RIGHT_TERMS[k][q] * Bq, and quadrant q of the
+    // result is the sum over k of RESULT_TERMS[q][k] * Mk
+    private static final int[][] LEFT_TERMS = {
+            { 1, 0, 0, 1 }, { 0, 0, 1, 1 }, { 1, 0, 0, 0 }, { 0, 0, 0, 1 },
+            { 1, 1, 0, 0 }, { -1, 0, 1, 0 }, { 0, 1, 0, -1 } };
+    private static final int[][] RIGHT_TERMS = {
+            { 1, 0, 0, 1 }, { 1, 0, 0, 0 }, { 0, 1, 0, -1 }, { -1, 0, 1, 0 },
+            { 0, 0, 0, 1 }, { 1, 1, 0, 0 }, { 0, 0, 1, 1 } };
+    private static final int[][] RESULT_TERMS = {
+            { 1, 0, 0, 1, -1, 0, 1 }, { 0, 0, 1, 0, 1, 0, 0 },
+            { 0, 1, 0, 1, 0, 0, 0 }, { 1, -1, 1, 0, 0, 1, 0 } };
+    private static final int PRODUCTS = 7;
+
+    private final SharedMatrix left;
+    private final SharedMatrix right;
+    private final double scale;
+    private final SharedMatrix addend;
+    private final double addendScale;
+    private final int n;
+    private final int size; // width of the blocks at the last level
+    private final int grid; // blocks per row and per column at the last level
+    private final Product[] products;
+    private final double[][] result; // rows of the result being summed, until written into left
+    private final AtomicIntegerArray pending; // by row: products still reading it or adding into it
+    private volatile boolean failed;
+
+    /**
+     * Sets up the product of left by right, which replaces the rows of left. The product is
+     * scaled by scale, and addendScale times addend is added to it when addend is not null
+     * (fused A * B + C). Neither operand may change until the multiplication is done.
+     */
+    public StrassenMultiply(SharedMatrix left, SharedMatrix right, double scale, SharedMatrix addend,
+            double addendScale, int cutoff) {
+        if (left == null || right == null) {
+            throw new IllegalArgumentException("Can't do Strassen multiplication, matrix is null.");
+        }
+        if (cutoff <= 0) {
+            throw new IllegalArgumentException("Cutoff must be positive.");
+        }
+        if (left.length() == 0 || right.length() == 0) {
+            throw new IllegalArgumentException("Matrix is empty.");
+        }
+        if (left.getOrientation() != VectorOrientation.ROW_MAJOR
+                || right.getOrientation() != VectorOrientation.COLUMN_MAJOR) {
+            throw new IllegalArgumentException(
+                    "Strassen multiplication needs a row-major left and a column-major right matrix.");
+        }
+        this.n = left.length();
+        if (left.get(0).length() != n || right.length() != n || right.get(0).length() != n) {
+            throw new IllegalArgumentException("Strassen multiplication needs square matrices of the same size.");
+        }
+        if (addend != null && (addend.length() != n || addend.get(0).length() != n)) {
+            throw new IllegalArgumentException("Matrices must have the same dimensions for addition");
+        }
+        this.left = left;
+        this.right = right;
+        this.scale = scale;
+        this.addend = addend;
+        this.addendScale = addendScale;
+
+        int depth = 0;
+        int blockSize = n;
+        while (blockSize >= 2 * cutoff) {
+            blockSize = (blockSize + 1) / 2;
+            depth++;
+        }
+        this.size = blockSize;
+        this.grid = 1 << depth;
+
+        // unroll the levels, from a single product of the whole operands
+        Terms[] leftTerms = { new Terms(new int[] { 0 }, new int[] { 1 }) };
+        Terms[] rightTerms = { new Terms(new int[] { 0 }, new int[] { 1 }) };
+        Terms[] blocks = { new Terms(new int[] { 0 }, new int[] { 1 }) };
+        for (int level = 0, width = 1; level < depth; level++, width *= 2) {
+            leftTerms = split(leftTerms, LEFT_TERMS, width);
+            rightTerms = split(rightTerms, RIGHT_TERMS, width);
+            blocks = splitResult(blocks, width);
+        }
+
+        // turn the sums of products of every result block into the blocks every product adds into
+        List<List<int[]>> targets = new ArrayList<>();
+        for (int k = 0; k < leftTerms.length; k++) {
+            targets.add(new ArrayList<>());
+        }
+        for (int b = 0; b < blocks.length; b++) {
+            for (int t = 0; t < blocks[b].blocks.length; t++) {
+                targets.get(blocks[b].blocks[t]).add(new int[] { b, blocks[b].signs[t] });
+            }
+        }
+        this.products = new Product[leftTerms.length];
+        int[] usesPerBlockRow = new int[grid];
+        for (int k = 0; k < products.length; k++) {
+            products[k] = new Product(leftTerms[k], rightTerms[k], Terms.of(targets.get(k)));
+            for (int blockRow : products[k].blockRows) {
+                usesPerBlockRow[blockRow]++;
+            }
+        }
+        this.result = new double[n][];
+        this.pending = new AtomicIntegerArray(n);
+        for (int i = 0; i < n; i++) {
+            pending.set(i, usesPerBlockRow[i / size]);
+        }
+    }
+
+    /**
+     * Number of leaf products, 7^depth.
+     */
+    public int productCount() {
+        return products.length;
+    }
+
+    /**
+     * Width of the leaf products, whose rows multiplyRows() computes.
+     */
+    public int blockSize() {
+        return size;
+    }
+
+    /**
+     * Computes rows [from, to) of the given leaf product and adds them into the result. The
+     * rows of the result this completes replace the matching rows of the left operand.
+     * If a call fails, so does the multiplication: every later call throws
+     * IllegalStateException, and the rows of the left operand not replaced yet are left as
+     * they are.
+     */
+    public void multiplyRows(int product, int from, int to) {
+        if (product < 0 || product >= products.length) {
+            throw new IndexOutOfBoundsException("Invalid product: " + product);
+        }
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Invalid row range: [" + from + ", " + to + ")");
+        }
+        if (failed) {
+            throw new IllegalStateException("Strassen multiplication failed in another product.");
+        }
+        try {
+            Product p = products[product];
+            BlockedMultiply kernel = p.kernel();
+            double[][] sums = new double[to - from][size];
+            sumBlocks(left, p.left, from, false, sums);
+            SharedMatrix rows = new SharedMatrix();
+            rows.loadRowMajor(sums);
+            kernel.multiplyRows(rows, 0, to - from);
+            double[] row = new double[size];
+            for (int r = 0; r < to - from; r++) {
+                rows.get(r).copyTo(row, 0);
+                addInto(p.targets, from + r, row);
+            }
+            p.rowsDone(to - from);
+            for (int blockRow : p.blockRows) {
+                for (int local = from; local < to; local++) {
+                    int i = blockRow * size + local;
+                    if (i < n && pending.decrementAndGet(i) == 0) {
+                        writeRow(i);
+                    }
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    // a leaf product: its operands as sums of blocks, the blocks of the result it adds into,
+    // and the block rows it reads or writes
+    private final class Product {
+
+        final Terms left;
+        final Terms right;
+        final Terms targets;
+        final int[] blockRows;
+        private final AtomicInteger done = new AtomicInteger();
+        private BlockedMultiply kernel; // the packed right operand, until every row is computed
+
+        Product(Terms left, Terms right, Terms targets) {
+            this.left = left;
+            this.right = right;
+            this.targets = targets;
+            boolean[] used = new boolean[grid];
+            for (int block : left.blocks) {
+                used[block / grid] = true;
+            }
+            for (int block : targets.blocks) {
+                used[block / grid] = true;
+            }
+            int count = 0;
+            int[] rows = new int[grid];
+            for (int r = 0; r < grid; r++) {
+                if (used[r]) {
+                    rows[count++] = r;
+                }
+            }
+            this.blockRows = Arrays.copyOf(rows, count);
+        }
+
+        // packed by the first task of the product, the others wait for it
+        synchronized BlockedMultiply kernel() {
+            if (kernel == null) {
+                // the columns of the right sum are sums of columns of the blocks of the right operand
+                double[][] columns = new double[size][size];
+                sumBlocks(StrassenMultiply.this.right, right, 0, true, columns);
+                SharedMatrix matrix = new SharedMatrix();
+                matrix.loadColumnMajor(columns, true);
+                kernel = new BlockedMultiply(matrix);
+            }
+            return kernel;
+        }
+
+        void rowsDone(int count) {
+            if (done.addAndGet(count) == size) {
+                synchronized (this) {
+                    kernel = null;
+                }
+            }
+        }
+    }
+
+    // adds the rows [from, from + dest.length) of every block of the terms, times its sign, into dest;
+    // the vectors of src are the columns of the operand instead of its rows when columns is true,
+    // and the elements past n are the zeros of the padding
+    private void sumBlocks(SharedMatrix src, Terms terms, int from, boolean columns, double[][] dest) {
+        double[] part = new double[size];
+        for (int t = 0; t < terms.blocks.length; t++) {
+            int blockRow = terms.blocks[t] / grid;
+            int blockCol = terms.blocks[t] % grid;
+            if (columns) {
+                int swap = blockRow;
+                blockRow = blockCol;
+                blockCol = swap;
+            }
+            int colStart = blockCol * size;
+            int width = Math.min(size, n - colStart);
+            double sign = terms.signs[t];
+            for (int r = 0; r < dest.length; r++) {
+                int srcRow = blockRow * size + from + r;
+                if (srcRow >= n || width <= 0) {
+                    continue;
+                }
+                src.get(srcRow).read(colStart, colStart + width, part, 0);
+                double[] d = dest[r];
+                for (int j = 0; j < width; j++) {
+                    d[j] += sign * part[j];
+                }
+            }
+        }
+    }
+
+    // adds row local of a leaf product, times its sign, into every block of the result it belongs to
+    private void addInto(Terms targets, int local, double[] row) {
+        for (int t = 0; t < targets.blocks.length; t++) {
+            int i = targets.blocks[t] / grid * size + local;
+            int colStart = targets.blocks[t] % grid * size;
+            int width = Math.min(size, n - colStart);
+            if (i >= n || width <= 0) {
+                continue;
+            }
+            double sign = targets.signs[t];
+            double[] dest;
+            synchronized (result) {
+                if (result[i] == null) {
+                    result[i] = new double[n];
+                }
+                dest = result[i];
+            }
+            synchronized (dest) {
+                for (int j = 0; j < width; j++) {
+                    dest[colStart + j] += sign * row[j];
+                }
+            }
+        }
+    }
+
+    // scales row i of the result, adds the addend and replaces row i of the left operand with it
+    private void writeRow(int i) {
+        if (failed) {
+            return;
+        }
+        double[] row;
+        synchronized (result) {
+            row = result[i] != null ? result[i] : new double[n];
+            result[i] = null;
+        }
+        synchronized (row) { // the last additions into it are visible
+            if (addend != null) {
+                double[] addRow = new double[n];
+                addend.get(i).copyTo(addRow, 0);
+                for (int j = 0; j < n; j++) {
+                    row[j] = scale * row[j] + addendScale * addRow[j];
+                }
+            } else if (scale != 1) {
+                for (int j = 0; j < n; j++) {
+                    row[j] *= scale;
+                }
+            }
+        }
+        SharedVector vec = left.get(i);
+        vec.writeLock();
+        try {
+            vec.replace(row);
+        } finally {
+            vec.writeUnlock();
+        }
+    }
+
+    // one more level of the operand sums: every product becomes 7 products, and every block of
+    // a sum becomes the quadrants of that block that the product's terms take
+    private static Terms[] split(Terms[] sums, int[][] levelTerms, int width) {
+        Terms[] next = new Terms[sums.length * PRODUCTS];
+        for (int s = 0; s < sums.length; s++) {
+            for (int k = 0; k < PRODUCTS; k++) {
+                List<int[]> terms = new ArrayList<>();
+                for (int t = 0; t < sums[s].blocks.length; t++) {
+                    for (int q = 0; q < 4; q++) {
+                        if (levelTerms[k][q] != 0) {
+                            terms.add(new int[] { quadrant(sums[s].blocks[t], q, width),
+                                    sums[s].signs[t] * levelTerms[k][q] });
+                        }
+                    }
+                }
+                next[s * PRODUCTS + k] = Terms.of(terms);
+            }
+        }
+        return next;
+    }
+
+    // one more level of the result: every block becomes 4 quadrants, each summing the matching
+    // sub-products of the products the block summed
+    private static Terms[] splitResult(Terms[] blocks, int width) {
+        Terms[] next = new Terms[blocks.length * 4];
+        for (int b = 0; b < blocks.length; b++) {
+            for (int q = 0; q < 4; q++) {
+                List<int[]> terms = new ArrayList<>();
+                for (int t = 0; t < blocks[b].blocks.length; t++) {
+                    for (int k = 0; k < PRODUCTS; k++) {
+                        if (RESULT_TERMS[q][k] != 0) {
+                            terms.add(new int[] { blocks[b].blocks[t] * PRODUCTS + k,
+                                    blocks[b].signs[t] * RESULT_TERMS[q][k] });
+                        }
+                    }
+                }
+                next[quadrant(b, q, width)] = Terms.of(terms);
+            }
+        }
+        return next;
+    }
+
+    // index of quadrant q of block (index / width, index % width) in the grid twice as wide
+    private static int quadrant(int index, int q, int width) {
+        int row = 2 * (index / width) + (q >> 1);
+        int col = 2 * (index % width) + (q & 1);
+        return row * 2 * width + col;
+    }
+
+    // a signed sum: of blocks of an operand, of leaf products for a block of the result, or of
+    // blocks of the result a leaf product adds into
+    private static final class Terms {
+
+        final int[] blocks;
+        final int[] signs;
+
+        Terms(int[] blocks, int[] signs) {
+            this.blocks = blocks;
+            this.signs = signs;
+        }
+
+        static Terms of(List<int[]> terms) {
+            int[] blocks = new int[terms.size()];
+            int[] signs = new int[terms.size()];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = terms.get(i)[0];
+                signs[i] = terms.get(i)[1];
+            }
+            return new Terms(blocks, signs);
+        }
+    }
+}
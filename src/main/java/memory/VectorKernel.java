@@ -0,0 +1,11 @@
+package memory;
+
+/**
+ * An operation on the raw elements of a SharedVector.
+ * The elements live in data[offset .. offset + length - 1]; the kernel runs while the
+ * vector's lock is held, so it must not keep a reference to the array afterwards.
+ */
+@FunctionalInterface
+public interface VectorKernel {
+    void apply(double[] data, int offset, int length);
+}
@@ -0,0 +1,179 @@
+package parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges structurally identical subtrees, so that each distinct subexpression is evaluated once.
+ * Matrix literals with the same content are merged first, single-precision ones included, then
+ * every operation whose type and (already merged) operands match an earlier one is replaced by it. The result is a DAG in which
+ * a node may have several parents; ComputationScheduler resolves such a node once for all of them.
+ * Must run last, after the passes that restructure the tree, since those assume every node has
+ * a single parent.
+ */
+public class CommonSubexpressionElimination {
+
+    private int eliminatedNodes = 0;
+
+    /**
+     * Merges the identical subtrees of the tree and returns how many nodes were replaced
+     * by an equivalent one.
+     */
+    public int eliminate(ComputationNode root) {
+        if (root == null) {
+            throw new IllegalArgumentException("ComputationNode cannot be null");
+        }
+        Map<ComputationNode, ComputationNode> canonical = new IdentityHashMap<>();
+        Map<Key, ComputationNode> seen = new HashMap<>();
+
+        // post-order with an explicit stack: a node is keyed once all its operands are
+        Deque<ComputationNode> stack = new ArrayDeque<>();
+        Deque<Boolean> expanded = new ArrayDeque<>();
+        stack.push(root);
+        expanded.push(false);
+        while (!stack.isEmpty()) {
+            ComputationNode node = stack.pop();
+            boolean operandsDone = expanded.pop();
+            if (canonical.containsKey(node)) {
+                continue;
+            }
+            if (!isComparable(node)) {
+                canonical.put(node, node); // malformed (left for evaluation to report) or kept as is
+                continue;
+            }
+            if (node.getNodeType() != ComputationNodeType.MATRIX && !operandsDone) {
+                stack.push(node);
+                expanded.push(true);
+                for (ComputationNode child : node.getChildren()) {
+                    stack.push(child);
+                    expanded.push(false);
+                }
+                continue;
+            }
+            if (node.getNodeType() != ComputationNodeType.MATRIX) {
+                replaceOperands(node, canonical);
+            }
+            ComputationNode existing = seen.putIfAbsent(new Key(node), node);
+            if (existing == null) {
+                canonical.put(node, node);
+            } else {
+                canonical.put(node, existing);
+                eliminatedNodes++;
+            }
+        }
+        return eliminatedNodes;
+    }
+
+    public int getEliminatedNodes() {
+        return eliminatedNodes;
+    }
+
+    private static boolean isComparable(ComputationNode node) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            if (node.getSparse() != null) {
+                return true;
+            }
+            if (node.getResult() != null) {
+                return true; // e.g. a single-precision literal, compared a row at a time
+            }
+            try {
+                node.getStoredMatrix();
+                return true;
+            } catch (IllegalStateException e) {
+                return false;
+            }
+        }
+        return node.getChildren() != null;
+    }
+
+    private static void replaceOperands(ComputationNode node, Map<ComputationNode, ComputationNode> canonical) {
+        List<ComputationNode> children = node.getChildren();
+        List<ComputationNode> merged = new ArrayList<>(children.size());
+        boolean changed = false;
+        for (ComputationNode child : children) {
+            ComputationNode replacement = canonical.get(child);
+            merged.add(replacement);
+            changed |= replacement != child;
+        }
+        if (changed) {
+            node.setChildren(merged);
+        }
+    }
+
+    /**
+     * Structural identity of a node: the content of a matrix literal (with its pending flags),
+     * or the type of an operation and the identity of its merged operands.
+     */
+    private static final class Key {
+
+        private final ComputationNode node;
+        private final int hash;
+
+        Key(ComputationNode node) {
+            this.node = node;
+            int h = node.getNodeType().hashCode();
+            if (node.getNodeType() == ComputationNodeType.MATRIX) {
+                // a compressed or result-backed literal is compared only with literals of its kind
+                if (node.getSparse() != null) {
+                    h = 31 * h + node.getSparse().hashCode();
+                } else if (node.getResult() != null) {
+                    h = 31 * h + node.getResult().contentHashCode();
+                } else {
+                    h = 31 * h + Arrays.deepHashCode(node.getStoredMatrix());
+                }
+                h = 31 * h + (node.isTransposed() ? 1 : 0);
+                h = 31 * h + (node.isNegated() ? 1 : 0);
+            } else {
+                for (ComputationNode child : node.getChildren()) {
+                    h = 31 * h + System.identityHashCode(child);
+                }
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            ComputationNode other = ((Key) o).node;
+            if (hash != ((Key) o).hash || node.getNodeType() != other.getNodeType()) {
+                return false;
+            }
+            if (node.getNodeType() == ComputationNodeType.MATRIX) {
+                if (node.isTransposed() != other.isTransposed() || node.isNegated() != other.isNegated()) {
+                    return false;
+                }
+                if (node.getSparse() != null || other.getSparse() != null) {
+                    return node.getSparse() != null && node.getSparse().equals(other.getSparse());
+                }
+                if (node.getResult() != null || other.getResult() != null) {
+                    return node.getResult() != null && node.getResult().contentEquals(other.getResult());
+                }
+                return Arrays.deepEquals(node.getStoredMatrix(), other.getStoredMatrix());
+            }
+            List<ComputationNode> a = node.getChildren();
+            List<ComputationNode> b = other.getChildren();
+            if (a.size() != b.size()) {
+                return false;
+            }
+            for (int i = 0; i < a.size(); i++) {
+                if (a.get(i) != b.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,5 +1,12 @@
 package parser;
 
+import memory.SharedMatrix;
+import memory.SparseMatrix;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 
 public class ComputationNode {
@@ -7,6 +14,12 @@ public class ComputationNode {
     private ComputationNodeType nodeType;
     private List<ComputationNode> children = null;
     private double[][] matrix = null; // only used for MATRIX nodes
+    private SharedMatrix result = null; // MATRIX node resolved by the engine, exported only on demand
+    private Path file = null; // MATRIX node backed by a matrix file (see MatrixFile), read on first use
+    private SparseMatrix sparse = null; // MATRIX node kept compressed, expanded on first dense use
+    private boolean transposed = false; // MATRIX node whose value is the transpose of the stored matrix
+    private boolean negated = false; // MATRIX node whose value is the negation of the stored matrix
+    private double[][] value = null; // the stored matrix with the pending flags applied, once asked for
 
     public ComputationNode(String operatorStr, List<ComputationNode> children) throws IllegalArgumentException {
         this.nodeType = mapOperator(operatorStr);
@@ -38,6 +51,42 @@ public class ComputationNode {
         this.matrix = matrix;
     }
 
+    /**
+     * A leaf whose matrix is kept in a binary matrix file. The file is read the first time the
+     * matrix is needed, so out-of-core evaluation can map it instead.
+     */
+    public ComputationNode(Path file) {
+        if (file == null) {
+            throw new IllegalArgumentException("Matrix file cannot be null.");
+        }
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.file = file;
+    }
+
+    /**
+     * A leaf kept in compressed form, for the sparse kernels of the engine. Anything else
+     * expands it the first time it asks for the matrix.
+     */
+    public ComputationNode(SparseMatrix sparse) {
+        if (sparse == null) {
+            throw new IllegalArgumentException("Sparse matrix cannot be null.");
+        }
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.sparse = sparse;
+    }
+
+    /**
+     * A leaf already in the engine's own form, such as a single-precision literal. Like a
+     * computed node, it is exported to double[][] only if someone asks for the matrix.
+     */
+    public ComputationNode(SharedMatrix result) {
+        if (result == null) {
+            throw new IllegalArgumentException("Result matrix cannot be null.");
+        }
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.result = result;
+    }
+
     public ComputationNodeType getNodeType() {
         return nodeType;
     }
@@ -66,18 +115,46 @@ public class ComputationNode {
         return this;
     }
 
+    /**
+     * Replaces the operands of this operation node, for passes that restructure the tree.
+     */
+    public void setChildren(List<ComputationNode> children) {
+        if (nodeType == ComputationNodeType.MATRIX) {
+            throw new IllegalStateException("A MATRIX node has no children.");
+        }
+        if (children == null) {
+            throw new IllegalArgumentException("Children cannot be null.");
+        }
+        this.children = children;
+    }
+
     /**
      * Restructures the tree to ensure that operations with more than two operands
      * are nested in a left-associative manner.
      * For example, A + B + C becomes (A + B) + C.
      * Effectively, this converts n-ary operations (n > 2) into binary operations.
+     * Every node of the tree is visited with an explicit stack, so long operand lists
+     * (which turn into deep chains) cannot overflow the call stack.
      */
     public void associativeNesting() {
-        if (children != null && children.size() > 2) {
-            ComputationNode lastChild = children.remove(children.size() - 1);
-            ComputationNode newNode = new ComputationNode(nodeType, children);
-            children = List.of(newNode, lastChild);
-            newNode.associativeNesting();
+        Deque<ComputationNode> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            ComputationNode node = stack.pop();
+            if (node.children == null) {
+                continue;
+            }
+            if (node.children.size() > 2) {
+                List<ComputationNode> operands = node.children;
+                ComputationNode nested = new ComputationNode(node.nodeType, List.of(operands.get(0), operands.get(1)));
+                for (int i = 2; i < operands.size() - 1; i++) {
+                    nested = new ComputationNode(node.nodeType, List.of(nested, operands.get(i)));
+                }
+                node.children = List.of(nested, operands.get(operands.size() - 1));
+            }
+            for (ComputationNode child : node.children) {
+                stack.push(child);
+            }
         }
     }
 
@@ -85,17 +162,179 @@ public class ComputationNode {
      * Resolves this node by setting its type to MATRIX and storing the computed matrix.
      */
     public void resolve(double[][] matrix) {
+        resolve(matrix, false);
+    }
+
+    /**
+     * Resolves this node to the given matrix, or to its transpose when transposed is true.
+     * The transpose is only a flag: consumers read the stored matrix in the other orientation
+     * and it is materialized only if someone asks for it through getMatrix().
+     */
+    public void resolve(double[][] matrix, boolean transposed) {
+        resolve(matrix, transposed, false);
+    }
+
+    /**
+     * Resolves this node to the given matrix with a pending transpose and/or negation.
+     * Like the transpose, the negation is only a flag, folded into the kernel of the consumer.
+     */
+    public synchronized void resolve(double[][] matrix, boolean transposed, boolean negated) {
         this.nodeType = ComputationNodeType.MATRIX;
         this.children = null;
         this.matrix = matrix;
+        this.result = null;
+        this.file = null;
+        this.sparse = null;
+        this.transposed = transposed;
+        this.negated = negated;
+        this.value = null;
+    }
+
+    /**
+     * Resolves this node to a compressed matrix with a pending transpose and/or negation.
+     */
+    public synchronized void resolve(SparseMatrix sparse, boolean transposed, boolean negated) {
+        if (sparse == null) {
+            throw new IllegalArgumentException("Sparse matrix cannot be null.");
+        }
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.result = null;
+        this.file = null;
+        this.sparse = sparse;
+        this.transposed = transposed;
+        this.negated = negated;
+        this.value = null;
     }
 
-    public double[][] getMatrix() {
+    /**
+     * Resolves this node to a matrix kept in the engine's own form, so that consumers can
+     * read it without a round trip through double[][]. It is exported by getMatrix() only.
+     */
+    public void resolve(SharedMatrix result) {
+        resolve(result, false);
+    }
+
+    public synchronized void resolve(SharedMatrix result, boolean negated) {
+        if (result == null) {
+            throw new IllegalArgumentException("Result matrix cannot be null.");
+        }
+        this.nodeType = ComputationNodeType.MATRIX;
+        this.children = null;
+        this.matrix = null;
+        this.result = result;
+        this.file = null;
+        this.sparse = null;
+        this.transposed = false;
+        this.negated = negated;
+        this.value = null;
+    }
+
+    /**
+     * Returns the matrix this node was resolved to by the engine, or null if it holds a
+     * double[][] (see getStoredMatrix()). A pending negation is not applied.
+     */
+    public synchronized SharedMatrix getResult() {
+        return result;
+    }
+
+    /**
+     * Returns the matrix file this leaf was read from, or null.
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the compressed matrix of this leaf, or null if it isn't (or no longer) kept
+     * compressed. Pending flags are not applied.
+     */
+    public synchronized SparseMatrix getSparse() {
+        return sparse;
+    }
+
+    public synchronized boolean isTransposed() {
+        return transposed;
+    }
+
+    public synchronized boolean isNegated() {
+        return negated;
+    }
+
+    // changes the type and operands of an operation node, for the fusion pass
+    void rewrite(ComputationNodeType nodeType, List<ComputationNode> children) {
+        if (this.nodeType == ComputationNodeType.MATRIX || nodeType == ComputationNodeType.MATRIX) {
+            throw new IllegalStateException("Only operation nodes can be rewritten.");
+        }
+        this.nodeType = nodeType;
+        this.children = children;
+    }
+
+    /**
+     * Returns the matrix as stored, without applying a pending transpose (see isTransposed())
+     * or negation (see isNegated()).
+     */
+    public synchronized double[][] getStoredMatrix() {
+        if (matrix == null && result != null) {
+            // exported once, from then on this node holds a plain matrix
+            matrix = result.readRowMajor();
+            result = null;
+        }
+        if (matrix == null && sparse != null) {
+            matrix = sparse.toDense();
+            sparse = null;
+        }
+        if (matrix == null && file != null) {
+            try {
+                matrix = MatrixFile.read(file);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read the matrix file: " + e.getMessage(), e);
+            }
+        }
         if (matrix == null) {
             throw new IllegalStateException("This node does not contain a matrix.");
         }
         return matrix;
     }
 
+    /**
+     * Returns the value of this node, with the pending transpose and negation applied. The
+     * flagged value is materialized once into a new array, next to the stored matrix, which may
+     * be shared with the operand this node was resolved from and which readers of
+     * getStoredMatrix() may still be using together with the flags.
+     */
+    public synchronized double[][] getMatrix() {
+        double[][] stored = getStoredMatrix();
+        if (!transposed && !negated) {
+            return stored;
+        }
+        if (value == null) {
+            value = materialize(stored, transposed, negated);
+        }
+        return value;
+    }
+
+    private static double[][] materialize(double[][] m, boolean transposed, boolean negated) {
+        if (m.length == 0) {
+            return new double[0][0];
+        }
+        double sign = negated ? -1 : 1;
+        double[][] t = transposed ? new double[m[0].length][m.length] : new double[m.length][];
+        for (int i = 0; i < m.length; i++) {
+            if (!transposed) {
+                t[i] = new double[m[i].length];
+            }
+            for (int j = 0; j < m[i].length; j++) {
+                if (transposed) {
+                    t[j][i] = sign * m[i][j];
+                } else {
+                    t[i][j] = sign * m[i][j];
+                }
+            }
+        }
+        return t;
+    }
+
 
 }
\ No newline at end of file
@@ -9,5 +9,6 @@ public enum ComputationNodeType {
     MULTIPLY,
     NEGATE,
     TRANSPOSE,
+    MULTIPLY_ADD, // fused A * B + C, created by OperatorFusion, never parsed
     MATRIX,
 }
\ No newline at end of file
@@ -0,0 +1,111 @@
+package parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks which nodes of a computation tree are ready to be resolved.
+ * The tree is walked once, iteratively, to count the unresolved operands of every node;
+ * after that, resolving a node only updates its parents, so scheduling the whole tree is
+ * linear in its size and does not depend on its depth.
+ * The tree may share subtrees (see CommonSubexpressionElimination): a shared node is
+ * scheduled once and releases every parent that uses it.
+ */
+public class ComputationScheduler {
+
+    private final Map<ComputationNode, List<ComputationNode>> parents = new IdentityHashMap<>();
+    private final Map<ComputationNode, Integer> pending = new IdentityHashMap<>(); // unresolved operands
+    private final Map<ComputationNode, Integer> consumers = new IdentityHashMap<>(); // uses as an operand
+    private final Deque<ComputationNode> ready = new ArrayDeque<>();
+    private int remaining; // nodes not resolved yet
+
+    public ComputationScheduler(ComputationNode root) {
+        if (root == null) {
+            throw new IllegalArgumentException("ComputationNode cannot be null");
+        }
+        // post-order walk with an explicit stack, so ready nodes come out left to right
+        Deque<ComputationNode> stack = new ArrayDeque<>();
+        Deque<ComputationNode> order = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            ComputationNode node = stack.pop();
+            if (node.getNodeType() == ComputationNodeType.MATRIX || pending.containsKey(node)) {
+                continue;
+            }
+            order.push(node);
+            int count = 0;
+            for (ComputationNode child : node.getChildren()) {
+                if (child.getNodeType() != ComputationNodeType.MATRIX) {
+                    // one entry per use, so an operand used twice is counted twice
+                    parents.computeIfAbsent(child, c -> new ArrayList<>()).add(node);
+                    consumers.merge(child, 1, Integer::sum);
+                    stack.push(child);
+                    count++;
+                }
+            }
+            pending.put(node, count);
+        }
+        remaining = order.size();
+        for (ComputationNode node : order) {
+            if (pending.get(node) == 0) {
+                ready.addLast(node);
+            }
+        }
+    }
+
+    /**
+     * Returns the next node whose operands are all resolved, or null if there is none.
+     * A parent released by resolved() is returned before older ready nodes, so subtrees
+     * are finished one at a time.
+     */
+    public ComputationNode poll() {
+        return ready.pollFirst();
+    }
+
+    /**
+     * Returns and removes every node that is currently ready. None of them depends on
+     * another, so they can all be computed at the same time.
+     */
+    public List<ComputationNode> drainReady() {
+        List<ComputationNode> result = new ArrayList<>(ready);
+        ready.clear();
+        return result;
+    }
+
+    /**
+     * Marks a node returned by poll() or drainReady() as resolved.
+     */
+    public void resolved(ComputationNode node) {
+        Integer count = pending.remove(node);
+        if (count == null) {
+            throw new IllegalArgumentException("Node is not scheduled or already resolved");
+        }
+        remaining--;
+        List<ComputationNode> users = parents.remove(node);
+        if (users != null) {
+            for (ComputationNode parent : users) {
+                int left = pending.get(parent) - 1;
+                pending.put(parent, left);
+                if (left == 0) {
+                    ready.addFirst(parent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns how many operands of scheduled nodes are the given node: 0 for the root,
+     * more than 1 for a node shared by several parents (or used twice by one).
+     */
+    public int consumers(ComputationNode node) {
+        return consumers.getOrDefault(node, 0);
+    }
+
+    public boolean isDone() {
+        return remaining == 0;
+    }
+}
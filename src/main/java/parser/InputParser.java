@@ -1,68 +1,203 @@
 package parser;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.text.ParseException;
 import java.util.*;
 
+import memory.Precision;
+import memory.SharedMatrix;
+import memory.SparseMatrix;
+
+/**
+ * Parses the input JSON straight from Jackson's token stream. Matrix entries are read into
+ * primitive row arrays as they are decoded, so no JsonNode tree is built and a matrix costs
+ * little more than its own doubles in heap. Row widths are checked while reading.
+ * A leaf can also be a binary matrix file, {"file": "m.bin"} (see MatrixFile), whose path is
+ * resolved against the directory of the JSON file.
+ * Literals that are mostly zeros (see SparseMatrix.isSparse()) are kept compressed.
+ * With FLOAT32 precision, literals are kept as float rows instead (see Precision), each row
+ * narrowed as soon as it is read, and never compressed.
+ */
 public class InputParser {
 
-    private final ObjectMapper mapper = new ObjectMapper();
+    private static final int INITIAL_ROW_CAPACITY = 16; // the first row's width is not known in advance
+
+    private final JsonFactory factory = new JsonFactory();
+    private final Precision precision;
+
+    public InputParser() {
+        this(Precision.FLOAT64);
+    }
+
+    public InputParser(Precision precision) {
+        if (precision == null) {
+            throw new IllegalArgumentException("Precision cannot be null.");
+        }
+        this.precision = precision;
+    }
 
     public ComputationNode parse(String inputPath) throws ParseException {
-        try {
-            File inputFile = new File(inputPath);
-            JsonNode rootJsonNode = mapper.readTree(inputFile);
-            ComputationNode root = parseJsonNode(rootJsonNode);
-            return root;
+        File inputFile = new File(inputPath);
+        Path baseDir = inputFile.getAbsoluteFile().toPath().getParent();
+        try (JsonParser parser = factory.createParser(inputFile)) {
+            return parse(parser, baseDir);
         } catch (IOException e) {
             throw new ParseException("Failed to read the input JSON file: " + e.getMessage(), 0);
         }
     }
 
-    private ComputationNode parseJsonNode(JsonNode jsonNode) throws ParseException {
-        if (jsonNode.has("operator") && jsonNode.has("operands")) {
-            String operatorStr = jsonNode.get("operator").asText();
-            ArrayNode operandJsonNodes = (ArrayNode) jsonNode.get("operands");
-            List<ComputationNode> operands = new ArrayList<>();
-            for (int i = 0; i < operandJsonNodes.size(); i++) {
-                operands.add(parseJsonNode(operandJsonNodes.get(i)));
+    // parses the first value of the stream, matrix files are resolved against baseDir
+    ComputationNode parse(JsonParser parser, Path baseDir) throws IOException, ParseException {
+        if (parser.nextToken() == null) {
+            throw new ParseException("Invalid node structure: empty input", 0);
+        }
+        return parseNode(parser, baseDir);
+    }
+
+    // the parser is on the first token of the node, and is left on its last token
+    private ComputationNode parseNode(JsonParser parser, Path baseDir) throws IOException, ParseException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_OBJECT) {
+            return parseObject(parser, baseDir);
+        }
+        if (token == JsonToken.START_ARRAY) {
+            return parseMatrix(parser);
+        }
+        throw new ParseException("Invalid node structure: " + parser.getText(), 0);
+    }
+
+    // an operation, or a reference to a matrix file
+    private ComputationNode parseObject(JsonParser parser, Path baseDir) throws IOException, ParseException {
+        String operatorStr = null;
+        List<ComputationNode> operands = null;
+        String file = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("operator")) {
+                operatorStr = value.isScalarValue() ? parser.getValueAsString() : "";
+                parser.skipChildren();
+            } else if (field.equals("operands")) {
+                if (value != JsonToken.START_ARRAY) {
+                    throw new ParseException("Operands must be an array.", 0);
+                }
+                operands = new ArrayList<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    operands.add(parseNode(parser, baseDir));
+                }
+            } else if (field.equals("file")) {
+                if (value != JsonToken.VALUE_STRING) {
+                    throw new ParseException("Matrix file must be a path.", 0);
+                }
+                file = parser.getText();
+            } else {
+                parser.skipChildren(); // other fields are ignored
+            }
+        }
+        if (file != null && operatorStr == null && operands == null) {
+            return readMatrixFile(baseDir.resolve(file));
+        }
+        if (file != null || operatorStr == null || operands == null) {
+            throw new ParseException("Invalid node structure: an operation needs an operator and operands, "
+                    + "or a leaf needs a matrix or a file.", 0);
+        }
+        return new ComputationNode(operatorStr, operands);
+    }
+
+    // only the header is read here, the entries when the matrix is first needed
+    private static ComputationNode readMatrixFile(Path path) throws ParseException {
+        try {
+            if (MatrixFile.shape(path)[0] == 0) {
+                throw new ParseException("Empty matrix file cannot be parsed as DataNode.", 0);
             }
-            return new ComputationNode(operatorStr, operands);
+            return new ComputationNode(path);
+        } catch (IOException e) {
+            throw new ParseException("Failed to read the matrix file: " + e.getMessage(), 0);
+        }
+    }
+
+    private ComputationNode parseMatrix(JsonParser parser) throws IOException, ParseException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.END_ARRAY) {
+            throw new ParseException("Empty array cannot be parsed as DataNode.", 0);
         }
-        else if (jsonNode.isArray()) {
-            if (jsonNode.size() == 0) {
-                throw new ParseException("Empty array cannot be parsed as DataNode.", 0);
+        // Check if it's a vector (1D array)
+        if (token.isNumeric()) {
+            throw new ParseException("Vectors (1D arrays) are not supported as standalone nodes.", 0);
+        }
+        // Otherwise, it's a matrix (2D array)
+        List<double[]> rows = new ArrayList<>();
+        List<float[]> floatRows = new ArrayList<>();
+        int width = -1;
+        for (; token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            if (token != JsonToken.START_ARRAY) {
+                throw new ParseException("Invalid matrix row: " + parser.getText(), 0);
             }
-            // Check if it's a vector (1D array)
-            if (jsonNode.get(0).isNumber()) {
-                throw new ParseException("Vectors (1D arrays) are not supported as standalone nodes.", 0);
+            double[] row = width < 0 ? parseFirstRow(parser) : parseRow(parser, width);
+            width = row.length;
+            if (precision == Precision.FLOAT32) {
+                floatRows.add(narrow(row));
+            } else {
+                rows.add(row);
             }
-            // Otherwise, it's a matrix (2D array)
-            else {
-                double[][] matrix = new double[jsonNode.size()][];
-                int width = jsonNode.get(0).size();
-                for (int i = 0; i < jsonNode.size(); i++) {
-                    JsonNode rowJsonNode = jsonNode.get(i);
-                    if (rowJsonNode.size() != width) {
-                        throw new ParseException("Inconsistent row sizes in matrix.", 0);
-                    }
-                    if (!rowJsonNode.isArray()) {
-                        throw new ParseException("Invalid matrix row: " + rowJsonNode.toString(), 0);
-                    }
-                    matrix[i] = new double[rowJsonNode.size()];
-                    for (int j = 0; j < rowJsonNode.size(); j++) {
-                        matrix[i][j] = rowJsonNode.get(j).asDouble();
-                    }
-                }
-                return new ComputationNode(matrix);
+        }
+        if (precision == Precision.FLOAT32) {
+            return new ComputationNode(new SharedMatrix(floatRows.toArray(new float[0][])));
+        }
+        double[][] matrix = rows.toArray(new double[0][]);
+        if (SparseMatrix.isSparse(matrix)) {
+            return new ComputationNode(SparseMatrix.fromDense(matrix));
+        }
+        return new ComputationNode(matrix);
+    }
+
+    private static double[] parseFirstRow(JsonParser parser) throws IOException {
+        double[] row = new double[INITIAL_ROW_CAPACITY];
+        int size = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (size == row.length) {
+                row = Arrays.copyOf(row, 2 * size);
+            }
+            row[size++] = entry(parser);
+        }
+        return Arrays.copyOf(row, size);
+    }
+
+    private static double[] parseRow(JsonParser parser, int width) throws IOException, ParseException {
+        double[] row = new double[width];
+        int size = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (size == width) {
+                throw new ParseException("Inconsistent row sizes in matrix.", 0);
             }
+            row[size++] = entry(parser);
+        }
+        if (size != width) {
+            throw new ParseException("Inconsistent row sizes in matrix.", 0);
         }
-        else { throw new ParseException("Invalid node structure: " + jsonNode.toString(), 0); }
+        return row;
     }
 
-}
\ No newline at end of file
+    private static float[] narrow(double[] row) {
+        float[] narrowed = new float[row.length];
+        for (int i = 0; i < row.length; i++) {
+            narrowed[i] = (float) row[i];
+        }
+        return narrowed;
+    }
+
+    // lenient like JsonNode.asDouble(): numeric strings are parsed, anything else reads as 0
+    private static double entry(JsonParser parser) throws IOException {
+        if (parser.currentToken().isStructStart()) {
+            parser.skipChildren();
+            return 0;
+        }
+        return parser.getValueAsDouble();
+    }
+}
@@ -0,0 +1,253 @@
+package parser;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reorders chains of matrix multiplications to the bracketing with the fewest operations.
+ * A chain is a MULTIPLY node together with the MULTIPLY nodes nested directly below it,
+ * e.g. A * B * C or (A * B) * C. Using the operand shapes, the classic dynamic program
+ * picks the cheapest parenthesization, and the chain is rebuilt as a tree of binary nodes.
+ * Must run before associativeNesting(), which would otherwise fix the left-to-right order.
+ */
+public class MatrixChainOptimizer {
+
+    private static final int MAX_CHAIN = 512; // longer chains keep their order (the program is cubic)
+
+    private long originalFlops = 0; // cost of the reordered chains as they were written
+    private long optimizedFlops = 0; // cost of the same chains after reordering
+    private int reorderedChains = 0;
+
+    /**
+     * Reorders every multiplication chain of the tree and returns the number of floating point
+     * operations saved. Chains with operands of unknown or mismatching shapes are left untouched,
+     * so that evaluation reports the error as usual.
+     */
+    public long optimize(ComputationNode root) {
+        if (root == null) {
+            throw new IllegalArgumentException("ComputationNode cannot be null");
+        }
+        Map<ComputationNode, int[]> shapes = shapes(root);
+        Deque<ComputationNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            ComputationNode node = stack.pop();
+            if (node.getNodeType() == ComputationNodeType.MATRIX) {
+                continue;
+            }
+            List<ComputationNode> operands = node.getChildren();
+            if (isChainNode(node)) {
+                List<ComputationNode> chain = new ArrayList<>();
+                long cost = flatten(node, chain, shapes);
+                if (chain.size() > 2 && cost >= 0) {
+                    reorder(node, chain, shapes, cost);
+                }
+                operands = chain;
+            }
+            for (ComputationNode operand : operands) {
+                stack.push(operand);
+            }
+        }
+        return getSavedFlops();
+    }
+
+    public long getOriginalFlops() {
+        return originalFlops;
+    }
+
+    public long getOptimizedFlops() {
+        return optimizedFlops;
+    }
+
+    public long getSavedFlops() {
+        return originalFlops - optimizedFlops;
+    }
+
+    public int getReorderedChains() {
+        return reorderedChains;
+    }
+
+    private static boolean isChainNode(ComputationNode node) {
+        return node.getNodeType() == ComputationNodeType.MULTIPLY && node.getChildren().size() >= 2;
+    }
+
+    /**
+     * Collects the operands of the chain rooted at node, left to right, and returns the cost
+     * of evaluating it as written, or -1 if a shape is unknown.
+     */
+    private static long flatten(ComputationNode node, List<ComputationNode> chain, Map<ComputationNode, int[]> shapes) {
+        long cost = 0;
+        boolean known = true;
+        Deque<ComputationNode> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            ComputationNode current = stack.pop();
+            if (current != node && !isChainNode(current)) {
+                chain.add(current);
+                continue;
+            }
+            // n-ary nodes are evaluated left to right
+            List<ComputationNode> children = current.getChildren();
+            int[] acc = shapes.get(children.get(0));
+            for (int i = 1; i < children.size() && known; i++) {
+                int[] next = shapes.get(children.get(i));
+                if (acc == null || next == null) {
+                    known = false;
+                } else {
+                    cost += flops(acc[0], acc[1], next[1]);
+                    acc = new int[] { acc[0], next[1] };
+                }
+            }
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+            }
+        }
+        return known ? cost : -1;
+    }
+
+    private void reorder(ComputationNode node, List<ComputationNode> chain, Map<ComputationNode, int[]> shapes,
+            long originalCost) {
+        int n = chain.size();
+        if (n > MAX_CHAIN) {
+            return;
+        }
+        // dims[i] x dims[i + 1] is the shape of operand i
+        long[] dims = new long[n + 1];
+        for (int i = 0; i < n; i++) {
+            int[] shape = shapes.get(chain.get(i));
+            if (i > 0 && shape[0] != dims[i]) {
+                return; // mismatching shapes, leave it to evaluation to report
+            }
+            dims[i] = shape[0];
+            dims[i + 1] = shape[1];
+        }
+
+        long[][] cost = new long[n][n];
+        int[][] split = new int[n][n];
+        for (int len = 2; len <= n; len++) {
+            for (int i = 0; i + len - 1 < n; i++) {
+                int j = i + len - 1;
+                cost[i][j] = Long.MAX_VALUE;
+                for (int k = i; k < j; k++) {
+                    long c = cost[i][k] + cost[k + 1][j] + flops(dims[i], dims[k + 1], dims[j + 1]);
+                    if (c < cost[i][j]) {
+                        cost[i][j] = c;
+                        split[i][j] = k;
+                    }
+                }
+            }
+        }
+
+        originalFlops += originalCost;
+        optimizedFlops += cost[0][n - 1];
+        reorderedChains++;
+        int k = split[0][n - 1];
+        node.setChildren(List.of(build(chain, split, 0, k), build(chain, split, k + 1, n - 1)));
+    }
+
+    // recursion depth is bounded by MAX_CHAIN
+    private static ComputationNode build(List<ComputationNode> chain, int[][] split, int i, int j) {
+        if (i == j) {
+            return chain.get(i);
+        }
+        int k = split[i][j];
+        return new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(build(chain, split, i, k), build(chain, split, k + 1, j)));
+    }
+
+    // a (rows x inner) by (inner x cols) product costs one multiply and one add per term
+    private static long flops(long rows, long inner, long cols) {
+        return 2 * rows * inner * cols;
+    }
+
+    /**
+     * Computes the {rows, cols} shape of every node, bottom-up without recursion.
+     * Nodes whose shape can't be determined (invalid operands) are mapped to null.
+     */
+    private static Map<ComputationNode, int[]> shapes(ComputationNode root) {
+        Map<ComputationNode, int[]> shapes = new IdentityHashMap<>();
+        Deque<ComputationNode> stack = new ArrayDeque<>();
+        Deque<ComputationNode> order = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            ComputationNode node = stack.pop();
+            order.push(node);
+            if (node.getNodeType() != ComputationNodeType.MATRIX) {
+                for (ComputationNode child : node.getChildren()) {
+                    stack.push(child);
+                }
+            }
+        }
+        for (ComputationNode node : order) {
+            shapes.put(node, shapeOf(node, shapes));
+        }
+        return shapes;
+    }
+
+    private static int[] shapeOf(ComputationNode node, Map<ComputationNode, int[]> shapes) {
+        if (node.getNodeType() == ComputationNodeType.MATRIX) {
+            int rows;
+            int cols;
+            if (node.getFile() != null) {
+                // a matrix file is not read just for its shape
+                try {
+                    int[] shape = MatrixFile.shape(node.getFile());
+                    rows = shape[0];
+                    cols = shape[1];
+                } catch (IOException e) {
+                    return null;
+                }
+            } else if (node.getSparse() != null) {
+                rows = node.getSparse().rowCount();
+                cols = node.getSparse().columnCount();
+            } else if (node.getResult() != null) {
+                rows = node.getResult().rowCount();
+                cols = node.getResult().columnCount();
+            } else {
+                double[][] m = node.getStoredMatrix();
+                rows = m.length;
+                cols = rows == 0 ? 0 : m[0].length;
+            }
+            return node.isTransposed() ? new int[] { cols, rows } : new int[] { rows, cols };
+        }
+        List<ComputationNode> children = node.getChildren();
+        if (children.isEmpty()) {
+            return null;
+        }
+        int[] first = shapes.get(children.get(0));
+        if (first == null) {
+            return null;
+        }
+        switch (node.getNodeType()) {
+            case NEGATE:
+                return children.size() == 1 ? first : null;
+            case TRANSPOSE:
+                return children.size() == 1 ? new int[] { first[1], first[0] } : null;
+            case ADD:
+                for (ComputationNode child : children) {
+                    int[] shape = shapes.get(child);
+                    if (shape == null || shape[0] != first[0] || shape[1] != first[1]) {
+                        return null;
+                    }
+                }
+                return first;
+            case MULTIPLY:
+                int[] acc = first;
+                for (int i = 1; i < children.size(); i++) {
+                    int[] shape = shapes.get(children.get(i));
+                    if (shape == null || shape[0] != acc[1]) {
+                        return null;
+                    }
+                    acc = new int[] { acc[0], shape[1] };
+                }
+                return acc;
+            default:
+                return null;
+        }
+    }
+}
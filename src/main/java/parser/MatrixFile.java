@@ -0,0 +1,267 @@
+package parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import memory.MappedMatrix;
+import memory.Precision;
+import memory.SharedMatrix;
+
+/**
+ * Binary matrix files, read and written through a FileChannel without any text decoding.
+ * A file is a 16 byte header followed by the entries in row-major order, little-endian:
+ *
+ *   magic "LAEM" | dtype (1 byte) | version (1 byte) | 2 reserved bytes | rows (int) | cols (int)
+ *
+ * The dtype is FLOAT64, or FLOAT32 for the results of a single-precision evaluation, which
+ * are read back widened to double. JSON inputs reference such a file as a leaf operand with
+ * {"file": "path.bin"}, and results are written in this format to outputs ending with ".bin".
+ * FLOAT64 files can also be mapped as a MappedMatrix, for matrices that don't fit in the heap.
+ */
+public class MatrixFile {
+
+    public static final String EXTENSION = ".bin";
+    public static final byte FLOAT64 = 1;
+    public static final byte FLOAT32 = 2;
+
+    static final int MAGIC = 0x4D45414C; // "LAEM" read as a little-endian int
+    static final int HEADER_SIZE = 16;
+    private static final byte VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 20; // bytes moved per channel call
+
+    private MatrixFile() {}
+
+    public static boolean isBinaryPath(String path) {
+        return path.endsWith(EXTENSION);
+    }
+
+    /**
+     * Reads and checks the header only, returns {rows, cols}.
+     */
+    public static int[] shape(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return Arrays.copyOf(readHeader(channel, path), 2);
+        }
+    }
+
+    // maps the entries of an existing file, read-only
+    public static MappedMatrix map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            int[] shape = readHeader(channel, path);
+            if (shape[2] != FLOAT64) {
+                throw new IOException("Only FLOAT64 matrix files can be mapped: " + path);
+            }
+            return MappedMatrix.map(channel, HEADER_SIZE, shape[0], shape[1], false);
+        }
+    }
+
+    /**
+     * Creates (or replaces) the file with the header of a rows x cols matrix and maps its
+     * entries for writing.
+     */
+    public static MappedMatrix create(Path path, int rows, int cols) throws IOException {
+        try (FileChannel channel = create(path, rows, cols, FLOAT64, true)) {
+            return MappedMatrix.map(channel, HEADER_SIZE, rows, cols, true);
+        }
+    }
+
+    public static double[][] read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            int[] shape = readHeader(channel, path);
+            double[][] matrix = new double[shape[0]][shape[1]];
+            boolean floats = shape[2] == FLOAT32;
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            float[] scratch = floats ? new float[BUFFER_SIZE / Float.BYTES] : null;
+            int row = 0;
+            int col = 0;
+            long remaining = (long) shape[0] * shape[1] * entryBytes((byte) shape[2]);
+            while (remaining > 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                readFully(channel, buffer);
+                buffer.flip();
+                remaining -= buffer.remaining();
+                DoubleBuffer doubles = floats ? null : buffer.asDoubleBuffer();
+                FloatBuffer singles = floats ? buffer.asFloatBuffer() : null;
+                while (floats ? singles.hasRemaining() : doubles.hasRemaining()) {
+                    int n = Math.min(floats ? singles.remaining() : doubles.remaining(), shape[1] - col);
+                    if (floats) {
+                        singles.get(scratch, 0, n);
+                        for (int j = 0; j < n; j++) {
+                            matrix[row][col + j] = scratch[j];
+                        }
+                    } else {
+                        doubles.get(matrix[row], col, n);
+                    }
+                    col += n;
+                    if (col == shape[1]) {
+                        row++;
+                        col = 0;
+                    }
+                }
+            }
+            return matrix;
+        }
+    }
+
+    public static void write(double[][] matrix, Path path) throws IOException {
+        int rows = matrix.length;
+        int cols = rows == 0 ? 0 : matrix[0].length;
+        for (double[] row : matrix) {
+            if (row.length != cols) {
+                throw new IllegalArgumentException("Inconsistent row sizes in matrix.");
+            }
+        }
+        try (FileChannel channel = create(path, rows, cols, FLOAT64, false)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            for (double[] row : matrix) {
+                putRow(channel, buffer, row, FLOAT64);
+            }
+            buffer.flip();
+            writeFully(channel, buffer);
+        }
+    }
+
+    /**
+     * Writes the matrix of a resolved node, applying its pending transpose and negation.
+     */
+    public static void write(ComputationNode node, Path path) throws IOException {
+        SharedMatrix result = node.getResult();
+        if (result == null) {
+            write(node.getMatrix(), path);
+            return;
+        }
+        write(node.isTransposed() ? result.transposedView() : result, node.isNegated(), path);
+    }
+
+    /**
+     * Writes the matrix (negated if asked) from its vectors, a block of rows at a time.
+     * A single-precision matrix is written as FLOAT32.
+     */
+    public static void write(SharedMatrix matrix, boolean negated, Path path) throws IOException {
+        int rows = matrix.rowCount();
+        int cols = matrix.columnCount();
+        byte dtype = matrix.getPrecision() == Precision.FLOAT32 ? FLOAT32 : FLOAT64;
+        try (FileChannel channel = create(path, rows, cols, dtype, false)) {
+            if (cols == 0) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            int blockRows = Math.max(1, Math.min(rows, BUFFER_SIZE / Double.BYTES / cols));
+            double[][] block = new double[blockRows][cols];
+            for (int from = 0; from < rows; from += blockRows) {
+                int to = Math.min(from + blockRows, rows);
+                matrix.readRows(from, to, block);
+                for (int r = 0; r < to - from; r++) {
+                    double[] row = block[r];
+                    if (negated) {
+                        for (int j = 0; j < cols; j++) {
+                            row[j] = -row[j];
+                        }
+                    }
+                    putRow(channel, buffer, row, dtype);
+                }
+            }
+            buffer.flip();
+            writeFully(channel, buffer);
+        }
+    }
+
+    // opens the file for writing (and reading, to be mapped) and writes the header
+    private static FileChannel create(Path path, int rows, int cols, byte dtype, boolean readable)
+            throws IOException {
+        FileChannel channel = readable
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)
+                : FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).put(dtype).put(VERSION).putShort((short) 0).putInt(rows).putInt(cols);
+            header.flip();
+            writeFully(channel, header);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // appends the row to the buffer as entries of the dtype, flushing it to the channel whenever it fills up
+    private static void putRow(FileChannel channel, ByteBuffer buffer, double[] row, byte dtype) throws IOException {
+        int bytes = entryBytes(dtype);
+        for (int col = 0; col < row.length; ) {
+            if (buffer.remaining() < bytes) {
+                buffer.flip();
+                writeFully(channel, buffer);
+                buffer.clear();
+            }
+            int n = Math.min(row.length - col, buffer.remaining() / bytes);
+            if (dtype == FLOAT32) {
+                for (int j = 0; j < n; j++) {
+                    buffer.putFloat((float) row[col + j]);
+                }
+            } else {
+                buffer.asDoubleBuffer().put(row, col, n);
+                buffer.position(buffer.position() + n * bytes);
+            }
+            col += n;
+        }
+    }
+
+    private static int entryBytes(byte dtype) {
+        return dtype == FLOAT32 ? Float.BYTES : Double.BYTES;
+    }
+
+    // reads the header from the start of the channel and returns {rows, cols, dtype}
+    private static int[] readHeader(FileChannel channel, Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header);
+        header.flip();
+        return checkHeader(header, channel.size(), path);
+    }
+
+    // returns {rows, cols, dtype}
+    static int[] checkHeader(ByteBuffer header, long fileSize, Path path) throws IOException {
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+            throw new IOException("Not a binary matrix file: " + path);
+        }
+        byte dtype = header.get();
+        if (dtype != FLOAT64 && dtype != FLOAT32) {
+            throw new IOException("Unsupported dtype " + dtype + " in " + path);
+        }
+        header.get(); // version, every version so far has this layout
+        header.getShort();
+        int rows = header.getInt();
+        int cols = header.getInt();
+        if (rows < 0 || cols < 0) {
+            throw new IOException("Invalid matrix shape " + rows + " x " + cols + " in " + path);
+        }
+        if (fileSize != HEADER_SIZE + (long) rows * cols * entryBytes(dtype)) {
+            throw new IOException("File size doesn't match the " + rows + " x " + cols + " shape: " + path);
+        }
+        return new int[] { rows, cols, dtype };
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of file.");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
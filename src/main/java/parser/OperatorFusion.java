@@ -0,0 +1,62 @@
+package parser;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Fuses neighbouring operations of a binary computation tree into single kernels.
+ * An addition with an unresolved product as one operand, A * B + C or C + A * B, becomes
+ * one MULTIPLY_ADD node whose rows are computed and accumulated in a single pass.
+ * Transposes and negations need no rewriting: they resolve to flags on their operand and
+ * are folded into the indexing and the signs of whichever kernel consumes them.
+ * Products of a compressed leaf (see SparseMatrix) are left alone, for the sparse kernels.
+ * Must run after associativeNesting(), on a tree whose operations are binary.
+ */
+public class OperatorFusion {
+
+    private int fusedNodes = 0;
+
+    /**
+     * Fuses every eligible node of the tree and returns how many nodes were fused.
+     */
+    public int fuse(ComputationNode root) {
+        if (root == null) {
+            throw new IllegalArgumentException("ComputationNode cannot be null");
+        }
+        Deque<ComputationNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            ComputationNode node = stack.pop();
+            if (node.getNodeType() == ComputationNodeType.MATRIX) {
+                continue;
+            }
+            if (node.getNodeType() == ComputationNodeType.ADD && node.getChildren().size() == 2) {
+                ComputationNode left = node.getChildren().get(0);
+                ComputationNode right = node.getChildren().get(1);
+                if (isProduct(left)) {
+                    node.rewrite(ComputationNodeType.MULTIPLY_ADD,
+                            List.of(left.getChildren().get(0), left.getChildren().get(1), right));
+                    fusedNodes++;
+                } else if (isProduct(right)) {
+                    node.rewrite(ComputationNodeType.MULTIPLY_ADD,
+                            List.of(right.getChildren().get(0), right.getChildren().get(1), left));
+                    fusedNodes++;
+                }
+            }
+            for (ComputationNode child : node.getChildren()) {
+                stack.push(child);
+            }
+        }
+        return fusedNodes;
+    }
+
+    public int getFusedNodes() {
+        return fusedNodes;
+    }
+
+    private static boolean isProduct(ComputationNode node) {
+        return node.getNodeType() == ComputationNodeType.MULTIPLY && node.getChildren().size() == 2
+                && node.getChildren().get(0).getSparse() == null && node.getChildren().get(1).getSparse() == null;
+    }
+}
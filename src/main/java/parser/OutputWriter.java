@@ -2,33 +2,113 @@ package parser;
 
 import java.io.File;
 import java.io.IOException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import memory.Precision;
+import memory.SharedMatrix;
 
+/**
+ * Writes results with a streaming JsonGenerator, one row at a time and compact by default.
+ * A result the engine still holds as a SharedMatrix is written straight from its vectors,
+ * a block of rows at a time, without building the final double[][]. Entries of a
+ * single-precision matrix are written as floats, with the digits a float needs.
+ */
 public class OutputWriter {
 
-    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private static final JsonFactory factory = new JsonFactory();
+    private static final int ROW_BLOCK = 64; // rows copied out of a SharedMatrix at a time
 
-    public static class ResultMatrix {
-        public double[][] result;
-        public ResultMatrix(double[][] result) { this.result = result; }
+    public OutputWriter() {}
+
+    public static void write(double[][] matrix, String filePath) throws IOException {
+        write(matrix, filePath, false);
     }
 
-    public static class ErrorMessage {
-        public String error;
-        public ErrorMessage(String error) { this.error = error; }
+    public static void write(double[][] matrix, String filePath, boolean pretty) throws IOException {
+        try (JsonGenerator gen = generator(filePath, pretty)) {
+            gen.writeStartObject();
+            gen.writeFieldName("result");
+            gen.writeStartArray();
+            for (double[] row : matrix) {
+                gen.writeArray(row, 0, row.length);
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
     }
 
-    public OutputWriter() {}
+    /**
+     * Writes the matrix of a resolved node, applying its pending transpose and negation.
+     */
+    public static void write(ComputationNode node, String filePath) throws IOException {
+        write(node, filePath, false);
+    }
 
-    public static void write(double[][] matrix, String filePath) throws IOException {
-        File file = new File(filePath);
-        mapper.writerWithDefaultPrettyPrinter().writeValue(file, new ResultMatrix(matrix));
+    public static void write(ComputationNode node, String filePath, boolean pretty) throws IOException {
+        SharedMatrix result = node.getResult();
+        if (result == null) {
+            write(node.getMatrix(), filePath, pretty);
+            return;
+        }
+        write(node.isTransposed() ? result.transposedView() : result, node.isNegated(), filePath, pretty);
+    }
+
+    /**
+     * Writes the matrix (negated if asked) row by row from its vectors.
+     */
+    public static void write(SharedMatrix matrix, boolean negated, String filePath, boolean pretty)
+            throws IOException {
+        int rows = matrix.rowCount();
+        int cols = matrix.columnCount();
+        double[][] block = new double[Math.min(ROW_BLOCK, rows)][cols];
+        boolean floats = matrix.getPrecision() == Precision.FLOAT32;
+        try (JsonGenerator gen = generator(filePath, pretty)) {
+            gen.writeStartObject();
+            gen.writeFieldName("result");
+            gen.writeStartArray();
+            for (int from = 0; from < rows; from += ROW_BLOCK) {
+                int to = Math.min(from + ROW_BLOCK, rows);
+                matrix.readRows(from, to, block);
+                for (int r = 0; r < to - from; r++) {
+                    double[] row = block[r];
+                    if (negated) {
+                        for (int j = 0; j < cols; j++) {
+                            row[j] = -row[j];
+                        }
+                    }
+                    if (floats) {
+                        writeFloats(gen, row);
+                    } else {
+                        gen.writeArray(row, 0, cols);
+                    }
+                }
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
     }
 
     public static void write(String error, String filePath) throws IOException {
-        File file = new File(filePath);
-        mapper.writerWithDefaultPrettyPrinter().writeValue(file, new ErrorMessage(error));
+        try (JsonGenerator gen = generator(filePath, false)) {
+            gen.writeStartObject();
+            gen.writeStringField("error", error);
+            gen.writeEndObject();
+        }
+    }
+
+    // entries narrowed back to float, so they print as "0.1" rather than "0.10000000149011612"
+    private static void writeFloats(JsonGenerator gen, double[] row) throws IOException {
+        gen.writeStartArray(row, row.length);
+        for (double x : row) {
+            gen.writeNumber((float) x);
+        }
+        gen.writeEndArray();
+    }
+
+    private static JsonGenerator generator(String filePath, boolean pretty) throws IOException {
+        JsonGenerator gen = factory.createGenerator(new File(filePath), JsonEncoding.UTF8);
+        return pretty ? gen.useDefaultPrettyPrinter() : gen;
     }
 
 }
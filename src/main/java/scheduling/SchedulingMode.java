@@ -0,0 +1,19 @@
+package scheduling;
+
+/**
+ * How a TiredExecutor hands tasks to its workers.
+ * HANDOFF gives each task to the least tired idle worker, so the submitter waits whenever
+ * every worker is busy. It is the original one-task-per-idle-worker contract, and the default.
+ * WORK_STEALING queues tasks on the workers' own deques without ever blocking the submitter;
+ * a worker that runs out of tasks steals from the others.
+ * SHARED_QUEUE puts tasks on one bounded queue that all workers drain, so the submitter only
+ * waits when the queue is full and task creation overlaps with execution.
+ * VIRTUAL_THREADS runs every task on its own virtual thread, with at most one task per worker
+ * running at a time; no platform thread is started.
+ */
+public enum SchedulingMode {
+    HANDOFF,
+    WORK_STEALING,
+    SHARED_QUEUE,
+    VIRTUAL_THREADS
+}
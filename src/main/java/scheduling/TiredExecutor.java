@@ -1,36 +1,118 @@
 package scheduling;
 
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.PriorityBlockingQueue;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class TiredExecutor {
 
+    public static final int DEFAULT_QUEUE_CAPACITY_PER_WORKER = 64; // shared-queue mode
+
     private final TiredThread[] workers;
     private final PriorityBlockingQueue<TiredThread> idleMinHeap = new PriorityBlockingQueue<>();
     private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final SchedulingMode mode;
+    private final AtomicInteger nextWorker = new AtomicInteger(0); // round robin, work-stealing mode
+    private final BlockingQueue<Runnable> sharedQueue; // shared-queue mode only
 
     public TiredExecutor(int numThreads) {
         // TODO
+        this(numThreads, SchedulingMode.HANDOFF);
+    }
+
+    public TiredExecutor(int numThreads, SchedulingMode mode) {
+        this(numThreads, mode, Math.max(1, numThreads) * DEFAULT_QUEUE_CAPACITY_PER_WORKER);
+    }
+
+    /**
+     * Creates an executor; queueCapacity bounds the shared queue of SHARED_QUEUE mode, where
+     * submit() waits for room once that many tasks are queued.
+     */
+    public TiredExecutor(int numThreads, SchedulingMode mode, int queueCapacity) {
         if (numThreads <= 0) {
             throw new IllegalArgumentException("Number of threads must be positive");
         }
+        if (mode == null) {
+            throw new IllegalArgumentException("Scheduling mode cannot be null");
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        this.mode = mode;
+        sharedQueue = mode == SchedulingMode.SHARED_QUEUE ? new ArrayBlockingQueue<>(queueCapacity) : null;
         workers = new TiredThread[numThreads];
+        Semaphore queued = new Semaphore(0);
         Random rand = new Random();
         for (int i = 0; i < numThreads; i++) {
             double fatigueFactor = rand.nextDouble(0.5, 1.5);
-            workers[i] = new TiredThread(i, fatigueFactor);
-            workers[i].start();
-            idleMinHeap.add(workers[i]);
+            if (mode == SchedulingMode.WORK_STEALING) {
+                workers[i] = new TiredThread(i, fatigueFactor, workers, queued);
+            } else if (mode == SchedulingMode.SHARED_QUEUE) {
+                workers[i] = new TiredThread(i, fatigueFactor, sharedQueue);
+            } else {
+                workers[i] = new TiredThread(i, fatigueFactor);
+            }
         }
+        for (TiredThread worker : workers) {
+            if (mode != SchedulingMode.VIRTUAL_THREADS) {
+                worker.start();
+            }
+            idleMinHeap.add(worker);
+        }
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
     }
 
+    public SchedulingMode getSchedulingMode() {
+        return mode;
+    }
+
+    /**
+     * Hands the task over without waiting for it to run. Throws IllegalStateException, with the
+     * interrupt flag set again, if the caller was interrupted while waiting and the task was dropped.
+     */
     public void submit(Runnable task) {
         if (task == null) {
             throw new IllegalArgumentException("Task cannot be null");
         }
+        if (!dispatch(task)) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted before the task was submitted");
+        }
+    }
+
+    // hands the task over according to the mode; returns false if the submitting thread was
+    // interrupted while waiting and the task was dropped
+    private boolean dispatch(Runnable task) {
+        if (mode == SchedulingMode.WORK_STEALING) {
+            enqueue(task);
+            return true;
+        }
+        if (mode == SchedulingMode.VIRTUAL_THREADS) {
+            startVirtual(task);
+            return true;
+        }
+        if (mode == SchedulingMode.SHARED_QUEUE) {
+            inFlight.incrementAndGet();
+            try {
+                // waits only while the queue is full (backpressure)
+                sharedQueue.put(tracked(task));
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    inFlight.decrementAndGet();
+                    notifyAll();
+                }
+                return false;
+            }
+            return true;
+        }
 
         TiredThread worker;
 
@@ -40,7 +122,7 @@ public class TiredExecutor {
         } catch (InterruptedException e) {
             // interruption is treated as a signal to stop the worker thread;
             // worker termination is coordinated by the executor via its shutdown mechanism
-            return;
+            return false;
         }
 
         inFlight.incrementAndGet();
@@ -65,6 +147,7 @@ public class TiredExecutor {
             };
             // assign the wrapped task to the worker
             worker.newTask(wrapped);
+            return true;
 
         } catch (IllegalStateException e) {
             // if the worker rejected the task, decrement in-flight count and return the
@@ -78,21 +161,131 @@ public class TiredExecutor {
         }
     }
 
+    /**
+     * Queues the task on the next worker in turn, without waiting for one to be idle.
+     * Workers that run dry steal from the others, and fatigue is still accounted for
+     * by whichever worker actually runs the task.
+     */
+    private void enqueue(Runnable task) {
+        inFlight.incrementAndGet();
+        TiredThread worker = workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)];
+        try {
+            worker.newTask(tracked(task));
+        } catch (IllegalStateException e) {
+            synchronized (this) {
+                inFlight.decrementAndGet();
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a virtual thread for the task, which never blocks the submitter. The workers are
+     * not started in this mode and only serve as lanes: the virtual thread takes the least tired
+     * idle one, runs the task with its accounting, and gives it back. So at most one task per
+     * worker runs at a time, whatever the parallelism of the carrier threads, and the worker
+     * report reads the same as with platform threads.
+     */
+    private void startVirtual(Runnable task) {
+        inFlight.incrementAndGet();
+        Runnable wrapped = tracked(task);
+        Thread.ofVirtual().name("tired-virtual").start(() -> {
+            // the task is counted in, so it must run: an interrupt waits for the lane too
+            TiredThread lane = null;
+            boolean interrupted = false;
+            while (lane == null) {
+                try {
+                    lane = idleMinHeap.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                lane.runTask(wrapped);
+            } finally {
+                idleMinHeap.add(lane);
+            }
+        });
+    }
+
+    // counts the task out of inFlight once it has run; it must already be counted in
+    private Runnable tracked(Runnable task) {
+        return () -> {
+            try {
+                task.run();
+            } finally {
+                // only the last task needs the monitor, to wake up submitAll and shutdown
+                if (inFlight.decrementAndGet() == 0) {
+                    synchronized (TiredExecutor.this) {
+                        TiredExecutor.this.notifyAll();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Submits the tasks and waits until all of them are done. Only the tasks of this call are
+     * waited for, so several threads can share the executor without waiting for each other.
+     * If any task throws, the first exception is rethrown once all of them are done.
+     */
     public void submitAll(Iterable<Runnable> tasks) {
         // TODO: submit tasks one by one and wait until all finish
+        AtomicInteger remaining = new AtomicInteger(1); // held at 1 until every task is submitted
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
         for (Runnable task : tasks) {
-            submit(task);
-        }
-        synchronized (this) {
-            // wait until all tasks are done
-            while (inFlight.get() > 0) {
-                // we wait that all tasks are finished, and then we notify
+            if (task == null) {
+                throw new IllegalArgumentException("Task cannot be null");
+            }
+            remaining.incrementAndGet();
+            boolean submitted = dispatch(() -> {
                 try {
-                    this.wait();
-                } catch (InterruptedException e) {
-                    // not used in this system
-                    return;
+                    task.run();
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        done.countDown();
+                    }
                 }
+            });
+            if (!submitted) {
+                // interrupted: submit nothing more, but the tasks already out still use their
+                // operands, so wait for them before giving up
+                if (remaining.addAndGet(-2) == 0) { // the dropped task and the hold
+                    done.countDown();
+                }
+                awaitUninterruptibly(done);
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted before all tasks were submitted");
+            }
+        }
+        if (remaining.decrementAndGet() == 0) {
+            done.countDown();
+        }
+        // every task is out, so an interrupt only gets remembered
+        if (awaitUninterruptibly(done)) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    // waits for the latch whatever interrupts come, and tells if there was one
+    private static boolean awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                return interrupted;
+            } catch (InterruptedException e) {
+                interrupted = true;
             }
         }
     }
@@ -108,8 +301,12 @@ public class TiredExecutor {
                 }
             }
         }
+        // stop every worker before waiting for any: an idle work-stealing worker may be woken
+        // by the shutdown of a peer and only exits once it is stopped itself
         for (TiredThread worker : workers) {
             worker.shutdown();
+        }
+        for (TiredThread worker : workers) {
             worker.join();
         }
     }
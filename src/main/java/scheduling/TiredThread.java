@@ -1,7 +1,10 @@
 package scheduling;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -9,14 +12,24 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
 
     private static final Runnable POISON_PILL = () -> {
     }; // Special task to signal shutdown
+    private static final long IDLE_WAIT_MILLIS = 1; // work-stealing mode, between looks for a task
 
     private final int id; // Worker index assigned by the executor
     private final double fatigueFactor; // Multiplier for fatigue calculation
 
     private final AtomicBoolean alive = new AtomicBoolean(true); // Indicates if the worker should keep running
 
-    // Single-slot handoff queue; executor will put tasks here
-    private final BlockingQueue<Runnable> handoff = new ArrayBlockingQueue<>(1);
+    // Tasks queued on this worker: unbounded in work-stealing mode, otherwise a single-slot
+    // handoff the executor only fills for idle workers
+    private final BlockingDeque<Runnable> tasks;
+
+    // Work-stealing mode only (null otherwise): the workers of the executor, and one permit
+    // per task queued on any of them
+    private final TiredThread[] peers;
+    private final Semaphore queued;
+
+    // Shared-queue mode only (null otherwise): the bounded queue all workers of the executor drain
+    private final BlockingQueue<Runnable> shared;
 
     private final AtomicBoolean busy = new AtomicBoolean(false); // Indicates if the worker is currently executing a
                                                                  // task
@@ -26,8 +39,27 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
     private final AtomicLong idleStartTime = new AtomicLong(0); // Timestamp when the worker became idle
 
     public TiredThread(int id, double fatigueFactor) {
+        this(id, fatigueFactor, null, null, null);
+    }
+
+    // worker of a work-stealing executor, peers is filled by the executor before the worker starts
+    TiredThread(int id, double fatigueFactor, TiredThread[] peers, Semaphore queued) {
+        this(id, fatigueFactor, peers, queued, null);
+    }
+
+    // worker of a shared-queue executor
+    TiredThread(int id, double fatigueFactor, BlockingQueue<Runnable> shared) {
+        this(id, fatigueFactor, null, null, shared);
+    }
+
+    private TiredThread(int id, double fatigueFactor, TiredThread[] peers, Semaphore queued,
+            BlockingQueue<Runnable> shared) {
         this.id = id;
         this.fatigueFactor = fatigueFactor;
+        this.peers = peers;
+        this.queued = queued;
+        this.shared = shared;
+        this.tasks = peers != null ? new LinkedBlockingDeque<>() : new LinkedBlockingDeque<>(1);
         this.idleStartTime.set(System.nanoTime());
         setName(String.format("FF=%.2f", fatigueFactor));
     }
@@ -54,8 +86,10 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
 
     /**
      * Assign a task to this worker.
-     * This method is non-blocking: if the worker is not ready to accept a task,
-     * it throws IllegalStateException.
+     * This method is non-blocking: if the worker is shutting down, or is not ready to accept a
+     * task, it throws IllegalStateException. A plain worker holds one task besides the one it
+     * runs; in work-stealing mode the task is queued behind the ones already assigned, and in
+     * shared-queue mode it goes to the shared queue unless that is full.
      */
     public void newTask(Runnable task) {
         // TODO
@@ -65,23 +99,39 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
         if (!alive.get()) {
             throw new IllegalStateException("Worker is shutting down");
         }
-        if (!handoff.offer(task)) {
+        if (!(shared != null ? shared.offer(task) : tasks.offerLast(task))) {
             throw new IllegalStateException("Worker is not ready to accept a new task");
         }
+        if (queued != null) {
+            queued.release();
+        }
     }
 
     /**
-     * Request this worker to stop after finishing current task.
+     * Request this worker to stop after finishing the tasks already assigned to it.
      * Inserts a poison pill so the worker wakes up and exits.
+     * In work-stealing mode the pill would be stolen like any task, so the worker is woken
+     * with a spare permit instead, and exits once it finds nothing left to run.
+     * In shared-queue mode the pill goes to the shared queue and stops whichever worker takes
+     * it; the executor shuts every worker down, so each of them gets one.
      */
     public void shutdown() {
         // TODO
         if (alive.getAndSet(false)) {
-            try {
-                handoff.put(POISON_PILL);
-            } catch (InterruptedException e) {
-                // interruption is not part of the shutdown protocol;
-                // termination is handled via POISON_PILL
+            if (queued != null) {
+                queued.release();
+            } else if (shared != null) {
+                try {
+                    shared.put(POISON_PILL); // the workers keep draining, so a full queue frees up
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                try {
+                    tasks.putLast(POISON_PILL); // the worker frees the slot by taking its last task
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
             }
         }
     }
@@ -90,29 +140,69 @@ public class TiredThread extends Thread implements Comparable<TiredThread> {
     public void run() {
         // TODO
         try {
-            while (alive.get()) {
-                Runnable task = handoff.take();
-                if (task == POISON_PILL) {
+            // runs until the poison pill, which comes after every task assigned before shutdown()
+            while (true) {
+                Runnable task = queued != null ? nextTask() : shared != null ? shared.take() : tasks.takeFirst();
+                if (task == null || task == POISON_PILL) {
                     break;
                 }
-                long idleEndTime = System.nanoTime();
-                timeIdle.addAndGet(idleEndTime - idleStartTime.get());
-                busy.set(true);
-                long startTime = System.nanoTime();
-                try {
-                    task.run();
-                } finally {
-                    long endTime = System.nanoTime();
-                    timeUsed.addAndGet(endTime - startTime);
-                    busy.set(false);
-                }
-                idleStartTime.set(System.nanoTime());
+                runTask(task);
             }
         } catch (InterruptedException e) {
             return;
         }
     }
 
+    /**
+     * Runs the task in the calling thread, accounting its time (and the idle time before it)
+     * to this worker. The executor's virtual-thread mode uses workers that are never started
+     * as accounting lanes, calling this from the virtual thread that runs the task.
+     */
+    void runTask(Runnable task) {
+        long idleEndTime = System.nanoTime();
+        timeIdle.addAndGet(idleEndTime - idleStartTime.get());
+        busy.set(true);
+        long startTime = System.nanoTime();
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            // a failing task must not take the worker down with it
+            getUncaughtExceptionHandler().uncaughtException(this, e);
+        } finally {
+            long endTime = System.nanoTime();
+            timeUsed.addAndGet(endTime - startTime);
+            busy.set(false);
+        }
+        idleStartTime.set(System.nanoTime());
+    }
+
+    /**
+     * Waits for a task queued on any worker: first this worker's own, oldest first, then one
+     * stolen from the back of another worker's deque. Returns null once shut down and idle.
+     */
+    private Runnable nextTask() throws InterruptedException {
+        queued.acquire();
+        // the permit guarantees a task exists somewhere, unless it was released by shutdown()
+        while (true) {
+            Runnable task = tasks.pollFirst();
+            for (int i = 1; task == null && i < peers.length; i++) {
+                task = peers[(id + i) % peers.length].tasks.pollLast();
+            }
+            if (task != null) {
+                return task;
+            }
+            if (!alive.get()) {
+                return null;
+            }
+            // the task was taken by a peer holding a permit of its own, or the permit came from
+            // the shutdown of a peer: keep the permit and look again once another task is queued,
+            // passing that one's permit on, or after a short wait
+            if (queued.tryAcquire(IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                queued.release();
+            }
+        }
+    }
+
     @Override
     public int compareTo(TiredThread o) {
         // TODO
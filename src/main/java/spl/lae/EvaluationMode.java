@@ -0,0 +1,13 @@
+package spl.lae;
+
+/**
+ * How the engine walks the computation tree.
+ * SEQUENTIAL resolves one node at a time, using the executor only for the rows of that node.
+ * PARALLEL starts every node as soon as its operands are resolved, without waiting for the
+ * other running nodes, with each node owning its own operand matrices and the row tasks of all
+ * of them sharing the executor.
+ */
+public enum EvaluationMode {
+    SEQUENTIAL,
+    PARALLEL
+}
@@ -4,145 +4,790 @@ import parser.*;
 import memory.*;
 import scheduling.*;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class LinearAlgebraEngine {
+/**
+ * Evaluates computation trees on a pool of TiredThreads that lives as long as the engine:
+ * run() can be called any number of times, from any number of client threads at once,
+ * and close() stops the pool once the runs in progress return. All the state of an evaluation
+ * is local to its run() call.
+ */
+public class LinearAlgebraEngine implements AutoCloseable {
 
-    private SharedMatrix leftMatrix = new SharedMatrix();
-    private SharedMatrix rightMatrix = new SharedMatrix();
-    private TiredExecutor executor;
+    // products with at least this many multiply-adds go through the cache-blocked kernel
+    private static final long BLOCKED_MULTIPLY_THRESHOLD = 64L * 64 * 64;
+    // chunked mode: ranges per worker, so a slow worker doesn't hold up the whole node
+    private static final int CHUNKS_PER_WORKER = 4;
+    public static final long DEFAULT_MINIMUM_GRAIN = 16_384; // element operations per chunked task
+    public static final int DEFAULT_STRASSEN_CUTOFF = 512; // square products from twice this size use Strassen
+
+    private final StorageMode storage;
+    private final TiredExecutor executor;
+    private volatile boolean closed = false;
+    // held for reading by every computation, for writing by close() while it marks the engine closed
+    private final ReadWriteLock runs = new ReentrantReadWriteLock();
+    private volatile EvaluationMode evaluationMode = EvaluationMode.SEQUENTIAL;
+    private volatile TaskGranularity taskGranularity = TaskGranularity.PER_ROW;
+    private volatile long minimumGrain = DEFAULT_MINIMUM_GRAIN;
+    private volatile Precision precision = Precision.FLOAT64;
+    private volatile int strassenCutoff = DEFAULT_STRASSEN_CUTOFF;
+    // operands of the last loadAndCompute() call, the left one holding its result, for the
+    // no-argument task factories
+    private volatile SharedMatrix leftMatrix = new SharedMatrix();
+    private volatile SharedMatrix rightMatrix = new SharedMatrix();
+    // of the last run made by each calling thread
+    private final ThreadLocal<String> optimizationReport = ThreadLocal.withInitial(() -> optimizationReport(
+            new MatrixChainOptimizer(), new OperatorFusion(), new CommonSubexpressionElimination()));
 
     public LinearAlgebraEngine(int numThreads) {
         // TODO: create executor with given thread count
-        executor = new TiredExecutor(numThreads);
+        this(numThreads, StorageMode.PER_VECTOR);
+    }
+
+    public LinearAlgebraEngine(int numThreads, StorageMode storage) {
+        this(numThreads, storage, SchedulingMode.HANDOFF);
+    }
+
+    public LinearAlgebraEngine(int numThreads, StorageMode storage, SchedulingMode scheduling) {
+        if (storage == null) {
+            throw new IllegalArgumentException("Storage mode cannot be null");
+        }
+        this.storage = storage;
+        executor = new TiredExecutor(numThreads, scheduling);
+    }
+
+    public EvaluationMode getEvaluationMode() {
+        return evaluationMode;
+    }
+
+    public void setEvaluationMode(EvaluationMode evaluationMode) {
+        if (evaluationMode == null) {
+            throw new IllegalArgumentException("Evaluation mode cannot be null");
+        }
+        this.evaluationMode = evaluationMode;
+    }
+
+    public TaskGranularity getTaskGranularity() {
+        return taskGranularity;
+    }
+
+    public void setTaskGranularity(TaskGranularity taskGranularity) {
+        if (taskGranularity == null) {
+            throw new IllegalArgumentException("Task granularity cannot be null");
+        }
+        this.taskGranularity = taskGranularity;
+    }
+
+    public long getMinimumGrain() {
+        return minimumGrain;
+    }
+
+    /**
+     * Sets the least work, in element operations, that a chunked task is given, whatever the
+     * number of workers (only used with TaskGranularity.CHUNKED).
+     */
+    public void setMinimumGrain(long minimumGrain) {
+        if (minimumGrain <= 0) {
+            throw new IllegalArgumentException("Minimum grain must be positive");
+        }
+        this.minimumGrain = minimumGrain;
     }
 
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Sets the precision the computed matrices are stored in, from the next run() on. With
+     * FLOAT32, operands are loaded as floats and every node is computed into floats; compressed
+     * operands (see SparseMatrix) are still multiplied in double. Not available with OFF_HEAP storage.
+     */
+    public void setPrecision(Precision precision) {
+        if (precision == null) {
+            throw new IllegalArgumentException("Precision cannot be null");
+        }
+        if (precision == Precision.FLOAT32 && storage == StorageMode.OFF_HEAP) {
+            throw new IllegalArgumentException("Single precision is not supported with off-heap storage");
+        }
+        this.precision = precision;
+    }
+
+    public int getStrassenCutoff() {
+        return strassenCutoff;
+    }
+
+    /**
+     * Sets the size below which products are left to the classical kernels: square products
+     * of at least twice this size go through StrassenMultiply, which recurses until its blocks
+     * would be narrower than the cutoff. Integer.MAX_VALUE turns Strassen off.
+     */
+    public void setStrassenCutoff(int strassenCutoff) {
+        if (strassenCutoff <= 0) {
+            throw new IllegalArgumentException("Strassen cutoff must be positive");
+        }
+        this.strassenCutoff = strassenCutoff;
+    }
+
+    /**
+     * Evaluates the tree and returns its root, resolved. The executor stays up for the next
+     * call; several calls may run at the same time, each one waiting only for its own tasks.
+     * With OFF_HEAP storage, every call allocates from an arena of its own: an operand copied
+     * for a node is given back once the node is computed, a result once every node reading it
+     * is resolved, and the rest when the call returns, after the root has been exported to the heap.
+     */
     public ComputationNode run(ComputationNode computationRoot) {
+        runs.readLock().lock();
+        try {
+            ensureOpen();
+            return evaluate(computationRoot);
+        } finally {
+            runs.readLock().unlock();
+        }
+    }
+
+    private ComputationNode evaluate(ComputationNode computationRoot) {
+        if (computationRoot == null) {
+            throw new IllegalArgumentException("ComputationNode cannot be null");
+        }
+        MatrixChainOptimizer chainOptimizer = new MatrixChainOptimizer();
+        chainOptimizer.optimize(computationRoot);
+        computationRoot.associativeNesting();
+        OperatorFusion operatorFusion = new OperatorFusion();
+        operatorFusion.fuse(computationRoot);
+        // last, shared nodes make the tree a DAG
+        CommonSubexpressionElimination subexpressions = new CommonSubexpressionElimination();
+        subexpressions.eliminate(computationRoot);
+        optimizationReport.set(optimizationReport(chainOptimizer, operatorFusion, subexpressions));
+
+        ComputationScheduler scheduler = new ComputationScheduler(computationRoot);
+        // computed nodes whose result has a single consumer, which may take it over instead of copying it
+        Set<ComputationNode> owned = Collections.newSetFromMap(new IdentityHashMap<>());
+        // off-heap matrices of this run live in its own arena, given back as a whole at the end
+        OffHeapArena arena = storage == StorageMode.OFF_HEAP ? new OffHeapArena() : null;
+        ResultRelease release = arena != null ? new ResultRelease(scheduler, computationRoot) : null;
+        Precision precision = this.precision;
         try {
-            if (computationRoot == null) {
-                throw new IllegalArgumentException("ComputationNode cannot be null");
+            if (evaluationMode == EvaluationMode.PARALLEL) {
+                runParallel(scheduler, owned, precision, arena, release);
+            } else {
+                ComputationNode toCompute = scheduler.poll();
+                while (toCompute != null) {
+                    List<ComputationNode> operands = toCompute.getChildren();
+                    boolean flag = resolveAsFlag(toCompute);
+                    if (!flag) {
+                        SparseOperation sparse = SparseOperation.plan(toCompute);
+                        if (sparse != null) {
+                            executor.submitAll(sparse.tasks(this));
+                            sparse.resolve();
+                        } else {
+                            // a fresh pair per node, the left one becomes the node's result
+                            SharedMatrix left = new SharedMatrix(storage, precision, arena);
+                            SharedMatrix right = new SharedMatrix(storage, precision, arena);
+                            List<SharedMatrix> copies = new ArrayList<>();
+                            executor.submitAll(loadTasks(toCompute, left, right, owned, copies));
+                            copies.forEach(SharedMatrix::release);
+                            resolveComputed(toCompute, left, scheduler, owned);
+                        }
+                    }
+                    if (release != null) {
+                        release.resolved(toCompute, operands, flag);
+                    }
+                    scheduler.resolved(toCompute);
+                    toCompute = scheduler.poll();
+                }
+            }
+            if (arena != null) {
+                computationRoot.getStoredMatrix(); // the result must outlive the arena
             }
+        } finally {
+            if (arena != null) {
+                arena.close();
+            }
+        }
+        return computationRoot;
+    }
+
+    /**
+     * Evaluates the tree out of core, into the binary matrix file output (see MatrixFile):
+     * operands and intermediates are memory-mapped files rather than heap arrays, so they may be
+     * larger than the heap. Leaves given as matrix files are mapped in place, intermediates are
+     * kept in temporary files next to the output, which may be one of the leaf files and is only
+     * replaced once the whole tree is computed. Chains of products are reordered first; the
+     * other passes of run() are skipped, so the optimization report only covers the chains.
+     */
+    public void runOutOfCore(ComputationNode computationRoot, Path output) throws IOException {
+        runs.readLock().lock();
+        try {
+            ensureOpen();
+            if (computationRoot == null || output == null) {
+                throw new IllegalArgumentException("ComputationNode and output cannot be null");
+            }
+            MatrixChainOptimizer chainOptimizer = new MatrixChainOptimizer();
+            chainOptimizer.optimize(computationRoot);
             computationRoot.associativeNesting();
+            optimizationReport.set(chainReport(chainOptimizer));
+            Path workDir = output.toAbsolutePath().getParent();
+            new OutOfCoreEvaluator(executor, workDir).evaluate(computationRoot, output);
+        } finally {
+            runs.readLock().unlock();
+        }
+    }
 
-            ComputationNode toCompute = computationRoot.findResolvable();
-            while (toCompute != null) {
-                loadAndCompute(toCompute);
-                toCompute.resolve(leftMatrix.readRowMajor());
-                toCompute = computationRoot.findResolvable();
+    /**
+     * Waits for the computations in progress (run(), runOutOfCore(), loadAndCompute()) to
+     * return, then stops the executor; calls made from then on throw IllegalStateException.
+     * Closing it again has no effect. Must not be called from inside a computation of this
+     * engine, which it would wait for forever.
+     */
+    @Override
+    public void close() {
+        runs.writeLock().lock();
+        try {
+            if (closed) {
+                return;
             }
-            return computationRoot;
+            closed = true;
         } finally {
+            runs.writeLock().unlock();
+        }
+        try {
+            executor.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Resolves the tree as a DAG: a node is started as soon as its last operand is resolved,
+     * whatever else is running. Its operands are loaded into its own pair of matrices and its
+     * tasks go to the executor without waiting; once the last of them is done, the node is
+     * resolved on this thread, which may make its parent ready in turn. After a failure no node
+     * is started any more, and the first failure is rethrown once the running ones are done.
+     */
+    private void runParallel(ComputationScheduler scheduler, Set<ComputationNode> owned, Precision precision,
+            OffHeapArena arena, ResultRelease release) {
+        // resolution steps of the nodes whose tasks are all done, run on this thread
+        BlockingQueue<Runnable> finished = new LinkedBlockingQueue<>();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Deque<ComputationNode> ready = new ArrayDeque<>(scheduler.drainReady());
+        int running = 0;
+        boolean interrupted = false;
+        while (true) {
+            while (!ready.isEmpty() && failure.get() == null) {
+                ComputationNode node = ready.poll();
+                List<ComputationNode> operands = node.getChildren(); // resolving drops them
+                try {
+                    if (resolveAsFlag(node)) {
+                        if (release != null) {
+                            release.resolved(node, operands, true);
+                        }
+                        scheduler.resolved(node);
+                        ready.addAll(scheduler.drainReady());
+                        continue;
+                    }
+                    List<Runnable> tasks;
+                    Runnable resolve;
+                    SparseOperation operation = SparseOperation.plan(node);
+                    if (operation != null) {
+                        tasks = operation.tasks(this);
+                        resolve = operation::resolve;
+                    } else {
+                        SharedMatrix left = new SharedMatrix(storage, precision, arena);
+                        SharedMatrix right = new SharedMatrix(storage, precision, arena);
+                        List<SharedMatrix> copies = new ArrayList<>();
+                        tasks = loadTasks(node, left, right, owned, copies);
+                        resolve = () -> {
+                            copies.forEach(SharedMatrix::release);
+                            resolveComputed(node, left, scheduler, owned);
+                        };
+                    }
+                    running++;
+                    start(tasks, () -> {
+                        resolve.run();
+                        if (release != null) {
+                            release.resolved(node, operands, false);
+                        }
+                        scheduler.resolved(node);
+                    }, finished, failure);
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+            if (running == 0) {
+                break;
+            }
+            Runnable resolution;
             try {
-                executor.shutdown();
+                resolution = finished.take();
             } catch (InterruptedException e) {
-                // interruption during shutdown is ignored
+                interrupted = true; // the running nodes still use their operands
+                continue;
+            }
+            running--;
+            if (failure.get() == null) {
+                try {
+                    resolution.run();
+                    ready.addAll(scheduler.drainReady());
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    // submits the tasks of a node without waiting for them; once the last one is done, failed
+    // or not, the node's resolution step is queued on finished. The first failure is recorded
+    private void start(List<Runnable> tasks, Runnable resolution, BlockingQueue<Runnable> finished,
+            AtomicReference<RuntimeException> failure) {
+        AtomicInteger remaining = new AtomicInteger(1); // held at 1 until every task is submitted
+        try {
+            for (Runnable task : tasks) {
+                remaining.incrementAndGet();
+                try {
+                    executor.submit(() -> {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            if (remaining.decrementAndGet() == 0) {
+                                finished.add(resolution);
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    remaining.decrementAndGet(); // the task that was not submitted
+                    failure.compareAndSet(null, e);
+                    return;
+                }
+            }
+        } finally {
+            if (remaining.decrementAndGet() == 0) {
+                finished.add(resolution);
             }
         }
     }
 
+    // the result stays in engine form; a single consumer may take it over without copying
+    private static void resolveComputed(ComputationNode node, SharedMatrix result, ComputationScheduler scheduler,
+            Set<ComputationNode> owned) {
+        node.resolve(result);
+        if (scheduler.consumers(node) == 1) {
+            owned.add(node);
+        }
+    }
+
+    /**
+     * Resolves a TRANSPOSE node without computing anything: the node takes over its operand's
+     * matrix with the transpose flag flipped, and its consumers load it in the other orientation.
+     * A matrix computed by the engine is not flagged but viewed in the other orientation.
+     */
+    public void resolveTranspose(ComputationNode node) {
+        if (node == null) {
+            throw new IllegalArgumentException("ComputationNode cannot be null");
+        }
+        if (node.getChildren().size() != 1) {
+            throw new IllegalArgumentException("TRANSPOSE node must have exactly 1 child");
+        }
+        ComputationNode child = node.getChildren().get(0);
+        if (child.getResult() != null) {
+            node.resolve(child.getResult().transposedView(), child.isNegated());
+            return;
+        }
+        if (child.getSparse() != null) {
+            node.resolve(child.getSparse(), !child.isTransposed(), child.isNegated());
+            return;
+        }
+        node.resolve(child.getStoredMatrix(), !child.isTransposed(), child.isNegated());
+    }
+
+    /**
+     * Resolves a NEGATE node without computing anything, like resolveTranspose(): the sign is
+     * folded into the kernel of the consumer (an addition, a product, or the final output).
+     */
+    public void resolveNegate(ComputationNode node) {
+        if (node == null) {
+            throw new IllegalArgumentException("ComputationNode cannot be null");
+        }
+        if (node.getChildren().size() != 1) {
+            throw new IllegalArgumentException("NEGATE node must have exactly 1 child");
+        }
+        ComputationNode child = node.getChildren().get(0);
+        if (child.getResult() != null) {
+            node.resolve(child.getResult(), !child.isNegated());
+            return;
+        }
+        if (child.getSparse() != null) {
+            node.resolve(child.getSparse(), child.isTransposed(), !child.isNegated());
+            return;
+        }
+        node.resolve(child.getStoredMatrix(), child.isTransposed(), !child.isNegated());
+    }
+
+    // TRANSPOSE and NEGATE nodes only flip a flag on their operand's matrix
+    private boolean resolveAsFlag(ComputationNode node) {
+        if (node.getNodeType() == ComputationNodeType.TRANSPOSE) {
+            resolveTranspose(node);
+            return true;
+        }
+        if (node.getNodeType() == ComputationNodeType.NEGATE) {
+            resolveNegate(node);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Computes a single operation node whose operands are all resolved. As before, the operands
+     * are loaded into the engine's left and right matrices, which the no-argument task
+     * factories work on, and the result is left in the left one; the node is now also resolved
+     * with it. Its operands are copied, never taken over. run() does not go through here, so
+     * concurrent runs don't share these matrices, but concurrent calls of this method do.
+     */
     public void loadAndCompute(ComputationNode node) {
-        // TODO: load operand matrices
-        // TODO: create compute tasks & submit tasks to executor
+        runs.readLock().lock();
+        try {
+            ensureOpen();
+            SharedMatrix left = new SharedMatrix(storage, precision, null);
+            SharedMatrix right = new SharedMatrix(storage, precision, null);
+            List<Runnable> tasks = loadTasks(node, left, right, Collections.emptySet(), new ArrayList<>());
+            leftMatrix = left;
+            rightMatrix = right;
+            executor.submitAll(tasks);
+            node.resolve(left);
+        } finally {
+            runs.readLock().unlock();
+        }
+    }
+
+    // loads the operands of the node into left/right and returns the tasks leaving the result in left;
+    // the matrices only read by the tasks are added to copies, for the caller to release once they ran
+    private List<Runnable> loadTasks(ComputationNode node, SharedMatrix left, SharedMatrix right,
+            Set<ComputationNode> owned, List<SharedMatrix> copies) {
         if (node == null) {
             throw new IllegalArgumentException("ComputationNode cannot be null");
         }
         List<ComputationNode> children = node.getChildren();
         List<Runnable> tasks = new ArrayList<>();
+        copies.add(right);
         if (node.getNodeType() == ComputationNodeType.ADD) {
             if (children.size() != 2) {
                 throw new IllegalArgumentException("ADD node must have exactly 2 children");
             }
-            leftMatrix.loadRowMajor(children.get(0).getMatrix());
-            rightMatrix.loadRowMajor(children.get(1).getMatrix());
-            tasks = createAddTasks();
+            loadRowMajor(left, children.get(0), true, owned);
+            loadRowMajor(right, children.get(1), false, owned);
+            tasks = createAddTasks(left, right, sign(children.get(0)), sign(children.get(1)));
         } else if (node.getNodeType() == ComputationNodeType.MULTIPLY) {
             if (children.size() != 2) {
                 throw new IllegalArgumentException("MULTIPLY node must have exactly 2 children");
             }
-            leftMatrix.loadRowMajor(children.get(0).getMatrix());
-            rightMatrix.loadColumnMajor(children.get(1).getMatrix());
-            tasks = createMultiplyTasks();
+            loadRowMajor(left, children.get(0), true, owned);
+            loadColumnMajor(right, children.get(1));
+            tasks = createMultiplyTasks(left, right, sign(children.get(0)) * sign(children.get(1)), null, 0);
+        } else if (node.getNodeType() == ComputationNodeType.MULTIPLY_ADD) {
+            if (children.size() != 3) {
+                throw new IllegalArgumentException("MULTIPLY_ADD node must have exactly 3 children");
+            }
+            SharedMatrix addend = new SharedMatrix(left.getStorageMode(), left.getPrecision(), left.getArena());
+            copies.add(addend);
+            loadRowMajor(left, children.get(0), true, owned);
+            loadColumnMajor(right, children.get(1));
+            loadRowMajor(addend, children.get(2), false, owned);
+            tasks = createMultiplyTasks(left, right, sign(children.get(0)) * sign(children.get(1)),
+                    addend, sign(children.get(2)));
         } else if (node.getNodeType() == ComputationNodeType.NEGATE) {
+            // this branch and the next one only serve loadAndCompute(): run() resolves these as flags
             if (children.size() != 1) {
                 throw new IllegalArgumentException("NEGATE node must have exactly 1 child");
             }
-            leftMatrix.loadRowMajor(children.get(0).getMatrix());
-            tasks = createNegateTasks();
+            loadRowMajor(left, children.get(0), true, owned);
+            // negating a pending negation leaves nothing to do
+            tasks = children.get(0).isNegated() ? new ArrayList<>() : createNegateTasks(left);
         } else if (node.getNodeType() == ComputationNodeType.TRANSPOSE) {
             if (children.size() != 1) {
                 throw new IllegalArgumentException("TRANSPOSE node must have exactly 1 child");
             }
-            leftMatrix.loadRowMajor(children.get(0).getMatrix());
-            tasks = createTransposeTasks();
+            loadRowMajor(left, children.get(0), true, owned);
+            tasks = createTransposeTasks(left);
+            if (children.get(0).isNegated()) {
+                tasks.addAll(createNegateTasks(left));
+            }
         } else {
             throw new IllegalArgumentException("Unsupported operation: " + node.getNodeType());
         }
-        executor.submitAll(tasks);
+        return tasks;
+    }
+
+    // operands may carry a pending transpose, which is applied while loading;
+    // a pending negation is left to the kernel, see sign().
+    // An operand computed by the engine is used as is when it already has the right layout and
+    // target is only read, or when target is written to but is the operand's only consumer;
+    // otherwise it is copied once, straight from its vectors
+    private static void loadRowMajor(SharedMatrix target, ComputationNode operand, boolean written,
+            Set<ComputationNode> owned) {
+        SharedMatrix result = operand.getResult();
+        if (result == null) {
+            target.loadRowMajor(operand.getStoredMatrix(), operand.isTransposed());
+        } else if (hasLayout(result, VectorOrientation.ROW_MAJOR) && !written) {
+            target.share(result);
+        } else if (hasLayout(result, VectorOrientation.ROW_MAJOR) && owned.remove(operand)) {
+            target.takeOver(result);
+        } else {
+            target.loadRowMajor(result);
+        }
+    }
+
+    // the right operand of a product is only read
+    private static void loadColumnMajor(SharedMatrix target, ComputationNode operand) {
+        SharedMatrix result = operand.getResult();
+        if (result == null) {
+            target.loadColumnMajor(operand.getStoredMatrix(), operand.isTransposed());
+        } else if (hasLayout(result, VectorOrientation.COLUMN_MAJOR)) {
+            target.share(result);
+        } else {
+            target.loadColumnMajor(result);
+        }
+    }
+
+    private static boolean hasLayout(SharedMatrix matrix, VectorOrientation orientation) {
+        return matrix.length() > 0 && matrix.getOrientation() == orientation;
+    }
+
+    // factor a kernel has to apply to an operand with a pending negation
+    private static double sign(ComputationNode operand) {
+        return operand.isNegated() ? -1 : 1;
     }
 
+    // tasks on the operands of the last loadAndCompute() call
     public List<Runnable> createAddTasks() {
-        // TODO: return tasks that perform row-wise addition
-        if (leftMatrix.length() == 0 || rightMatrix.length() == 0) {
+        return createAddTasks(leftMatrix, rightMatrix);
+    }
+
+    public List<Runnable> createAddTasks(SharedMatrix left, SharedMatrix right) {
+        return createAddTasks(left, right, 1, 1);
+    }
+
+    /**
+     * Returns tasks that replace every row of left with leftScale * left + rightScale * right,
+     * so negated operands are added in the same pass.
+     */
+    public List<Runnable> createAddTasks(SharedMatrix left, SharedMatrix right, double leftScale,
+            double rightScale) {
+        if (left.length() == 0 || right.length() == 0) {
             throw new IllegalArgumentException("Matrices must not be empty for addition");
         }
-        if (leftMatrix.length() != rightMatrix.length()) {
+        if (left.length() != right.length()) {
             throw new IllegalArgumentException("Matrices must have the same number of rows for addition");
         }
 
-        List<Runnable> addTasks = new ArrayList<>();
-        for (int i = 0; i < leftMatrix.length(); i++) {
-            SharedVector leftVector = leftMatrix.get(i);
-            SharedVector rightVector = rightMatrix.get(i);
-            Runnable task = () -> {
-                leftVector.add(rightVector);
-            };
-            addTasks.add(task);
-        }
-        return addTasks;
+        boolean plain = leftScale == 1 && rightScale == 1;
+        return rowTasks(left.length(), left.get(0).length(), 1, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                if (plain) {
+                    left.get(i).add(right.get(i));
+                } else {
+                    left.get(i).combine(leftScale, right.get(i), rightScale);
+                }
+            }
+        });
     }
 
     public List<Runnable> createMultiplyTasks() {
-        // TODO: return tasks that perform row × matrix multiplication
-        if (leftMatrix.length() == 0 || rightMatrix.length() == 0) {
+        return createMultiplyTasks(leftMatrix, rightMatrix);
+    }
+
+    public List<Runnable> createMultiplyTasks(SharedMatrix left, SharedMatrix right) {
+        return createMultiplyTasks(left, right, 1, null, 0);
+    }
+
+    /**
+     * Returns tasks that replace every row of left with scale * (left × right), plus
+     * addendScale times the matching row of addend when it is not null (fused A * B + C).
+     */
+    public List<Runnable> createMultiplyTasks(SharedMatrix left, SharedMatrix right, double scale,
+            SharedMatrix addend, double addendScale) {
+        if (left.length() == 0 || right.length() == 0) {
             throw new IllegalArgumentException("Matrices must not be empty for multiplication");
         }
+        if (addend != null && addend.length() != left.length()) {
+            throw new IllegalArgumentException("Matrices must have the same number of rows for addition");
+        }
+        int inner = right.get(0).length();
+        int n = left.length();
+        if (n == inner && n == right.length() && n == left.get(0).length() && n >= 2L * strassenCutoff) {
+            return createStrassenMultiplyTasks(left, right, scale, addend, addendScale);
+        }
+        long work = (long) left.length() * inner * right.length();
+        if (work >= BLOCKED_MULTIPLY_THRESHOLD && (long) inner * right.length() <= Integer.MAX_VALUE) {
+            return createBlockedMultiplyTasks(left, right, scale, addend, addendScale);
+        }
+
+        return rowTasks(left.length(), (long) inner * right.length(), 1, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                SharedVector leftVector = left.get(i);
+                leftVector.vecMatMul(right);
+                if (addend != null) {
+                    leftVector.combine(scale, addend.get(i), addendScale);
+                } else if (scale != 1) {
+                    leftVector.apply(scaled(scale));
+                }
+            }
+        });
+    }
+
+    public List<Runnable> createBlockedMultiplyTasks(SharedMatrix left, SharedMatrix right) {
+        return createBlockedMultiplyTasks(left, right, 1, null, 0);
+    }
+
+    public List<Runnable> createBlockedMultiplyTasks(SharedMatrix left, SharedMatrix right, double scale,
+            SharedMatrix addend, double addendScale) {
+        // pack the (scaled) right operand once, then every task multiplies a block of rows
+        BlockedMultiply kernel = new BlockedMultiply(right, scale);
+        long rowCost = (long) kernel.innerLength() * kernel.columnCount();
+        return rowTasks(left.length(), rowCost, BlockedMultiply.ROW_BLOCK, (from, to) -> {
+            // the kernel's row blocks keep their size inside larger chunks
+            for (int i = from; i < to; i += BlockedMultiply.ROW_BLOCK) {
+                kernel.multiplyRows(left, i, Math.min(i + BlockedMultiply.ROW_BLOCK, to), addend, addendScale);
+            }
+        });
+    }
 
-        List<Runnable> multiplyTasks = new ArrayList<>();
-        for (int i = 0; i < leftMatrix.length(); i++) {
-            SharedVector leftVector = leftMatrix.get(i);
-            Runnable task = () -> {
-                leftVector.vecMatMul(rightMatrix);
-            };
-            multiplyTasks.add(task);
+    /**
+     * Returns the tasks of a Strassen multiplication: every leaf product split by rows, all
+     * independent of each other. Each task adds its rows into the result, and writes into left
+     * the rows of the result it completes. A failing task fails the whole multiplication.
+     */
+    public List<Runnable> createStrassenMultiplyTasks(SharedMatrix left, SharedMatrix right, double scale,
+            SharedMatrix addend, double addendScale) {
+        StrassenMultiply kernel = new StrassenMultiply(left, right, scale, addend, addendScale, strassenCutoff);
+        int size = kernel.blockSize();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int product = 0; product < kernel.productCount(); product++) {
+            int p = product;
+            tasks.addAll(rowTasks(size, (long) size * size, BlockedMultiply.ROW_BLOCK, (from, to) -> {
+                for (int i = from; i < to; i += BlockedMultiply.ROW_BLOCK) {
+                    kernel.multiplyRows(p, i, Math.min(i + BlockedMultiply.ROW_BLOCK, to));
+                }
+            }));
         }
-        return multiplyTasks;
+        return tasks;
+    }
+
+    private static VectorKernel scaled(double scale) {
+        return (data, from, length) -> {
+            for (int i = from; i < from + length; i++) {
+                data[i] *= scale;
+            }
+        };
     }
 
     public List<Runnable> createNegateTasks() {
-        // TODO: return tasks that negate rows
-        List<Runnable> negateTasks = new ArrayList<>();
-        for (int i = 0; i < leftMatrix.length(); i++) {
-            SharedVector leftVector = leftMatrix.get(i);
-            Runnable task = () -> {
-                leftVector.negate();
-            };
-            negateTasks.add(task);
-        }
-        return negateTasks;
+        return createNegateTasks(leftMatrix);
+    }
+
+    public List<Runnable> createNegateTasks(SharedMatrix left) {
+        long rowCost = left.length() == 0 ? 1 : left.get(0).length();
+        return rowTasks(left.length(), rowCost, 1, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                left.get(i).negate();
+            }
+        });
     }
 
     public List<Runnable> createTransposeTasks() {
-        // TODO: return tasks that transpose rows
-        List<Runnable> transposeTasks = new ArrayList<>();
-        for (int i = 0; i < leftMatrix.length(); i++) {
-            SharedVector leftVector = leftMatrix.get(i);
-            Runnable task = () -> {
-                leftVector.transpose();
-            };
-            transposeTasks.add(task);
-        }
-        return transposeTasks;
+        return createTransposeTasks(leftMatrix);
+    }
+
+    public List<Runnable> createTransposeTasks(SharedMatrix left) {
+        // flipping the orientation of a row costs the same whatever its length
+        return rowTasks(left.length(), 1, 1, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                left.get(i).transpose();
+            }
+        });
+    }
+
+    // body of a task working on rows [from, to)
+    @FunctionalInterface
+    interface RowRange {
+        void run(int from, int to);
+    }
+
+    /**
+     * Splits rows [0, rows) into tasks of `align` rows (PER_ROW), or into ranges of consecutive
+     * rows (CHUNKED): about CHUNKS_PER_WORKER ranges per worker, but each with at least
+     * minimumGrain element operations given rowCost operations per row. Ranges are rounded
+     * up to a multiple of align.
+     */
+    List<Runnable> rowTasks(int rows, long rowCost, int align, RowRange body) {
+        long chunk = align;
+        if (taskGranularity == TaskGranularity.CHUNKED) {
+            long ranges = (long) CHUNKS_PER_WORKER * executor.getWorkerCount();
+            long balanced = (rows + ranges - 1) / ranges;
+            long grain = (minimumGrain + Math.max(1, rowCost) - 1) / Math.max(1, rowCost);
+            chunk = Math.max(balanced, grain);
+            chunk = Math.min((chunk + align - 1) / align * align, Math.max(rows, 1));
+        }
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < rows; i += (int) chunk) {
+            int from = i;
+            int to = (int) Math.min((long) i + chunk, rows);
+            tasks.add(() -> body.run(from, to));
+        }
+        return tasks;
+    }
+
+    /**
+     * Returns what the optimization passes did in the last run() or runOutOfCore() made by the
+     * calling thread, so concurrent clients each see their own.
+     */
+    public String getOptimizationReport() {
+        return optimizationReport.get();
+    }
+
+    // under the read lock, so close() can't come in between
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Engine is closed");
+        }
+    }
+
+    private static String optimizationReport(MatrixChainOptimizer chainOptimizer, OperatorFusion operatorFusion,
+            CommonSubexpressionElimination subexpressions) {
+        return chainReport(chainOptimizer)
+                + "\nOperator fusion: " + operatorFusion.getFusedNodes() + " fused nodes"
+                + "\nCommon subexpressions: " + subexpressions.getEliminatedNodes() + " nodes shared";
+    }
+
+    // the only pass of the out-of-core path
+    private static String chainReport(MatrixChainOptimizer chainOptimizer) {
+        if (chainOptimizer.getReorderedChains() == 0) {
+            return "Matrix chains: nothing to reorder";
+        }
+        return "Matrix chains: reordered " + chainOptimizer.getReorderedChains()
+                + " | FLOPs: " + chainOptimizer.getOptimizedFlops()
+                + " instead of " + chainOptimizer.getOriginalFlops()
+                + " | Saved: " + chainOptimizer.getSavedFlops();
     }
 
     public String getWorkerReport() {
@@ -1,14 +1,49 @@
 package spl.lae;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import memory.Precision;
 import parser.*;
 
 public class Main {
 
     public static void main(String[] args) throws IOException {
 
+        Precision precision = Precision.FLOAT64;
+        boolean pretty = false;
+        // options after <numThreads>, in any order
+        while (args.length > 1 && (args[1].equals("--float32") || args[1].equals("--pretty"))) {
+            if (args[1].equals("--float32")) {
+                precision = Precision.FLOAT32;
+            } else {
+                pretty = true;
+            }
+            String[] rest = new String[args.length - 1];
+            rest[0] = args[0];
+            System.arraycopy(args, 2, rest, 1, args.length - 2);
+            args = rest;
+        }
+
         if (args.length < 3) {
-            System.err.println("Usage: java Main <numThreads> <input.json> <output.json>");
+            System.err.println("Usage: java Main <numThreads> <input.json> <output.json | output.bin>");
+            System.err.println("       java Main <numThreads> --batch <inputDir> <outputDir>");
+            System.err.println("       java Main <numThreads> --batch <manifest | -> "
+                    + "(one '<input.json> <output.json>' pair per line, - reads stdin)");
+            System.err.println("       java Main <numThreads> --out-of-core <input.json> <output.bin>");
+            System.err.println("With --float32 after <numThreads>, matrices are stored and computed in single precision.");
+            System.err.println("With --pretty after <numThreads>, JSON results are written indented, one entry per line.");
+            System.err.println("Errors go to a JSON output; a " + MatrixFile.EXTENSION
+                    + " output is left untouched and the error is only reported.");
             return;
         }
 
@@ -24,23 +59,200 @@ public class Main {
             return;
         }
 
+        if (args[1].equals("--batch")) {
+            runBatch(numThreads, precision, pretty, args);
+            return;
+        }
+        if (args[1].equals("--out-of-core")) {
+            if (precision == Precision.FLOAT32) {
+                System.err.println("Error: out-of-core mode computes in double precision only.");
+                return;
+            }
+            runOutOfCore(numThreads, args);
+            return;
+        }
+
         String inputPath = args[1];
         String outputPath = args[2];
 
-        LinearAlgebraEngine lae = new LinearAlgebraEngine(numThreads);
-        InputParser inputParser = new InputParser();
+        InputParser inputParser = new InputParser(precision);
 
-        try {
-            ComputationNode root = inputParser.parse(inputPath);
-            ComputationNode res = lae.run(root);
-            OutputWriter.write(res.getMatrix(), outputPath);
-            System.out.println("Computation completed successfully!");
-        } catch (Exception e) {
-            System.err.println("Computation failed: " + e.getMessage());
-            OutputWriter.write("Error: " + e.getMessage(), outputPath);
-        } finally {
+        try (LinearAlgebraEngine lae = new LinearAlgebraEngine(numThreads)) {
+            lae.setPrecision(precision);
+            try {
+                ComputationNode root = inputParser.parse(inputPath);
+                ComputationNode res = lae.run(root);
+                writeResult(res, outputPath, pretty);
+                System.out.println("Computation completed successfully!");
+                System.out.println(lae.getOptimizationReport());
+            } catch (Exception e) {
+                System.err.println("Computation failed: " + e.getMessage());
+                writeError(e.getMessage(), outputPath);
+            } finally {
+                System.out.println("\n=== Worker Report ===");
+                System.out.println(lae.getWorkerReport());
+            }
+        }
+    }
+
+    /**
+     * Batch mode: runs many jobs on one engine, so JVM startup, Jackson initialization and JIT
+     * warm-up are paid once. Jobs come from a directory of .json files, or from a manifest
+     * (or stdin) with one input/output pair per line, read as they arrive.
+     */
+    private static void runBatch(int numThreads, Precision precision, boolean pretty, String[] args)
+            throws IOException {
+        String source = args[2];
+        File sourceFile = new File(source);
+        try (LinearAlgebraEngine lae = new LinearAlgebraEngine(numThreads)) {
+            lae.setPrecision(precision);
+            int[] counts;
+            if (sourceFile.isDirectory()) {
+                if (args.length < 4) {
+                    System.err.println("Error: an output directory is required with an input directory.");
+                    return;
+                }
+                Path outputDir = Paths.get(args[3]);
+                if (Files.exists(outputDir) && Files.isSameFile(outputDir, sourceFile.toPath())) {
+                    System.err.println("Error: the output directory must differ from the input directory.");
+                    return;
+                }
+                Files.createDirectories(outputDir);
+                counts = runDirectory(lae, sourceFile.toPath(), outputDir, System.out, pretty);
+            } else if (source.equals("-")) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+                counts = runManifest(lae, in, System.out, pretty);
+            } else {
+                try (BufferedReader in = Files.newBufferedReader(sourceFile.toPath(), StandardCharsets.UTF_8)) {
+                    counts = runManifest(lae, in, System.out, pretty);
+                }
+            }
+            System.out.println("Batch completed: " + counts[0] + " succeeded, " + counts[1] + " failed.");
             System.out.println("\n=== Worker Report ===");
             System.out.println(lae.getWorkerReport());
         }
     }
+
+    /**
+     * Out-of-core mode: the operands, given as matrix files, and the intermediates are mapped
+     * from disk instead of being loaded, so they may be larger than the heap. A failure is
+     * reported on stderr, and the output file is not touched.
+     */
+    private static void runOutOfCore(int numThreads, String[] args) throws IOException {
+        if (args.length < 4 || !MatrixFile.isBinaryPath(args[3])) {
+            System.err.println("Error: out-of-core mode needs an input and a " + MatrixFile.EXTENSION + " output.");
+            return;
+        }
+        String inputPath = args[2];
+        String outputPath = args[3];
+        try (LinearAlgebraEngine lae = new LinearAlgebraEngine(numThreads)) {
+            try {
+                lae.runOutOfCore(new InputParser().parse(inputPath), Paths.get(outputPath));
+                System.out.println("Computation completed successfully!");
+                System.out.println(lae.getOptimizationReport());
+            } catch (Exception e) {
+                // reported here only: the output may be one of the operand files, left as it was
+                System.err.println("Computation failed: " + e.getMessage());
+            } finally {
+                System.out.println("\n=== Worker Report ===");
+                System.out.println(lae.getWorkerReport());
+            }
+        }
+    }
+
+    /**
+     * Runs every .json file of inputDir, in name order, writing each result under the same name
+     * in outputDir. Inputs are parsed in the precision of the engine. Returns {succeeded, failed}.
+     */
+    static int[] runDirectory(LinearAlgebraEngine lae, Path inputDir, Path outputDir, PrintStream log)
+            throws IOException {
+        return runDirectory(lae, inputDir, outputDir, log, false);
+    }
+
+    static int[] runDirectory(LinearAlgebraEngine lae, Path inputDir, Path outputDir, PrintStream log,
+            boolean pretty) throws IOException {
+        List<Path> inputs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(inputDir)) {
+            files.filter(p -> Files.isRegularFile(p) && p.getFileName().toString().endsWith(".json"))
+                    .sorted()
+                    .forEach(inputs::add);
+        }
+        InputParser inputParser = new InputParser(lae.getPrecision());
+        int[] counts = new int[2];
+        for (Path input : inputs) {
+            boolean ok = runJob(lae, inputParser, input.toString(),
+                    outputDir.resolve(input.getFileName()).toString(), log, pretty);
+            counts[ok ? 0 : 1]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Runs the jobs of a manifest, one "input output" pair per line, as each line is read.
+     * Blank lines and lines starting with '#' are skipped. Inputs are parsed in the precision
+     * of the engine. Returns {succeeded, failed}.
+     */
+    static int[] runManifest(LinearAlgebraEngine lae, BufferedReader manifest, PrintStream log) throws IOException {
+        return runManifest(lae, manifest, log, false);
+    }
+
+    static int[] runManifest(LinearAlgebraEngine lae, BufferedReader manifest, PrintStream log, boolean pretty)
+            throws IOException {
+        InputParser inputParser = new InputParser(lae.getPrecision());
+        int[] counts = new int[2];
+        String line;
+        while ((line = manifest.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] paths = line.split("\\s+");
+            if (paths.length != 2) {
+                log.println("Skipping invalid line, expected '<input.json> <output.json>': " + line);
+                counts[1]++;
+                continue;
+            }
+            boolean ok = runJob(lae, inputParser, paths[0], paths[1], log, pretty);
+            counts[ok ? 0 : 1]++;
+        }
+        return counts;
+    }
+
+    // outputs ending with .bin get the binary format, others JSON, indented if pretty
+    private static void writeResult(ComputationNode res, String outputPath, boolean pretty) throws IOException {
+        if (MatrixFile.isBinaryPath(outputPath)) {
+            MatrixFile.write(res, Paths.get(outputPath));
+        } else {
+            OutputWriter.write(res, outputPath, pretty);
+        }
+    }
+
+    // a JSON output gets the error in place of the result; a binary one only ever holds a matrix,
+    // so it is left as it was and the error is only reported
+    private static void writeError(String message, String outputPath) throws IOException {
+        if (!MatrixFile.isBinaryPath(outputPath)) {
+            OutputWriter.write("Error: " + message, outputPath);
+        }
+    }
+
+    // errors are written to the job's JSON output file, as in single-file mode
+    private static boolean runJob(LinearAlgebraEngine lae, InputParser inputParser, String inputPath,
+            String outputPath, PrintStream log, boolean pretty) {
+        long start = System.nanoTime();
+        try {
+            ComputationNode res = lae.run(inputParser.parse(inputPath));
+            writeResult(res, outputPath, pretty);
+            log.printf("%s -> %s: ok (%.1f ms)%n", inputPath, outputPath, (System.nanoTime() - start) / 1e6);
+            return true;
+        } catch (Exception e) {
+            log.println(inputPath + " -> " + outputPath + ": failed: " + e.getMessage());
+            try {
+                writeError(e.getMessage(), outputPath);
+            } catch (IOException writeError) {
+                // an unwritable output must not stop the rest of the batch
+                log.println("Could not write " + outputPath + ": " + writeError.getMessage());
+            }
+            return false;
+        }
+    }
 }
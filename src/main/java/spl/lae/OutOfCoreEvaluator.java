@@ -0,0 +1,328 @@
+package spl.lae;
+
+import memory.MappedMatrix;
+import parser.*;
+import scheduling.TiredExecutor;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates a computation tree without holding its matrices in the heap. Every operand is a
+ * MappedMatrix: leaves that reference a matrix file are mapped as they are, inline leaves and
+ * intermediate results go to temporary matrix files, and the root is computed into a temporary
+ * file that replaces the output once it is complete. Each node is split into tasks over bands
+ * of output rows that stream over the mapped regions, so the heap only holds the tiles of the
+ * running tasks.
+ */
+class OutOfCoreEvaluator {
+
+    private static final int CHUNKS_PER_WORKER = 4;
+    private static final int ELEMENTWISE_TILE = 1 << 16; // columns of a row handled at a time
+    private static final int ELEMENTWISE_BAND = 1 << 20; // elements per elementwise task
+    private static final int MULTIPLY_COLS = 2048; // output columns per multiply tile
+    private static final int MULTIPLY_INNER = 256; // inner dimension per multiply tile
+    private static final int MULTIPLY_ACCUMULATOR = 1 << 22; // output elements a multiply task accumulates
+    private static final int TRANSPOSE_TILE = 512; // rows and columns per transpose tile
+
+    private final TiredExecutor executor;
+    private final Path workDir;
+    private final Map<ComputationNode, MappedMatrix> values = new IdentityHashMap<>();
+    private final Map<ComputationNode, Path> temporaries = new IdentityHashMap<>();
+
+    OutOfCoreEvaluator(TiredExecutor executor, Path workDir) {
+        this.executor = executor;
+        this.workDir = workDir;
+    }
+
+    /**
+     * Evaluates the tree, whose n-ary operations must already be nested, into the output file.
+     * The output is only replaced once the whole tree is computed: a failing run leaves it as it
+     * was, which matters when it is one of the leaf files.
+     */
+    void evaluate(ComputationNode root, Path output) throws IOException {
+        // the root goes to a temporary file next to the output (creating a file truncates it, and
+        // the leaves stay mapped until the end), which replaces the output on success
+        Path target = Files.createTempFile(workDir, "lae-", MatrixFile.EXTENSION);
+        try {
+            evaluateInto(root, target);
+            Files.move(target, output, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(target);
+        }
+    }
+
+    private void evaluateInto(ComputationNode root, Path output) throws IOException {
+        try {
+            if (root.getNodeType() == ComputationNodeType.MATRIX) {
+                copy(leaf(root), output);
+                return;
+            }
+            // post-order, so every node comes after its operands
+            Deque<ComputationNode> stack = new ArrayDeque<>();
+            Deque<ComputationNode> order = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                ComputationNode node = stack.pop();
+                if (node.getNodeType() == ComputationNodeType.MATRIX) {
+                    continue;
+                }
+                order.push(node);
+                for (ComputationNode child : node.getChildren()) {
+                    stack.push(child);
+                }
+            }
+            for (ComputationNode node : order) {
+                compute(node, node == root ? output : null);
+                for (ComputationNode child : node.getChildren()) {
+                    release(child);
+                }
+            }
+            values.get(root).force();
+        } finally {
+            for (Path temporary : temporaries.values()) {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+
+    private void compute(ComputationNode node, Path output) throws IOException {
+        List<ComputationNode> children = node.getChildren();
+        List<MappedMatrix> operands = new ArrayList<>();
+        for (ComputationNode child : children) {
+            operands.add(child.getNodeType() == ComputationNodeType.MATRIX ? leaf(child) : values.get(child));
+        }
+        switch (node.getNodeType()) {
+            case ADD: {
+                if (children.size() != 2) {
+                    throw new IllegalArgumentException("ADD node must have exactly 2 children");
+                }
+                MappedMatrix a = operands.get(0);
+                MappedMatrix b = operands.get(1);
+                if (a.rowCount() != b.rowCount() || a.columnCount() != b.columnCount()) {
+                    throw new IllegalArgumentException("Matrices must have the same dimensions for addition");
+                }
+                MappedMatrix out = create(node, output, a.rowCount(), a.columnCount());
+                executor.submitAll(elementwiseTasks(a, b, out));
+                break;
+            }
+            case NEGATE: {
+                if (children.size() != 1) {
+                    throw new IllegalArgumentException("NEGATE node must have exactly 1 child");
+                }
+                MappedMatrix a = operands.get(0);
+                MappedMatrix out = create(node, output, a.rowCount(), a.columnCount());
+                executor.submitAll(elementwiseTasks(a, null, out));
+                break;
+            }
+            case TRANSPOSE: {
+                if (children.size() != 1) {
+                    throw new IllegalArgumentException("TRANSPOSE node must have exactly 1 child");
+                }
+                MappedMatrix a = operands.get(0);
+                MappedMatrix out = create(node, output, a.columnCount(), a.rowCount());
+                executor.submitAll(transposeTasks(a, out));
+                break;
+            }
+            case MULTIPLY: {
+                if (children.size() != 2) {
+                    throw new IllegalArgumentException("MULTIPLY node must have exactly 2 children");
+                }
+                MappedMatrix a = operands.get(0);
+                MappedMatrix b = operands.get(1);
+                if (a.columnCount() != b.rowCount()) {
+                    throw new IllegalArgumentException(
+                            "Vector length must equal to matrix row count for vector-matrix multiplication.");
+                }
+                MappedMatrix out = create(node, output, a.rowCount(), b.columnCount());
+                executor.submitAll(multiplyTasks(a, b, out));
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported operation: " + node.getNodeType());
+        }
+    }
+
+    // a file leaf is mapped as is, an inline one is written to a temporary file first
+    private MappedMatrix leaf(ComputationNode node) throws IOException {
+        MappedMatrix value = values.get(node);
+        if (value != null) {
+            return value;
+        }
+        if (node.getFile() != null && !node.isTransposed() && !node.isNegated()) {
+            value = MatrixFile.map(node.getFile());
+        } else {
+            Path file = temporary(node);
+            MatrixFile.write(node.getMatrix(), file);
+            value = MatrixFile.map(file);
+        }
+        values.put(node, value);
+        return value;
+    }
+
+    private MappedMatrix create(ComputationNode node, Path output, int rows, int cols) throws IOException {
+        MappedMatrix value = MatrixFile.create(output != null ? output : temporary(node), rows, cols);
+        values.put(node, value);
+        return value;
+    }
+
+    private Path temporary(ComputationNode node) throws IOException {
+        Path file = Files.createTempFile(workDir, "lae-", MatrixFile.EXTENSION);
+        temporaries.put(node, file);
+        return file;
+    }
+
+    // an operand is consumed once, its temporary file can go
+    private void release(ComputationNode node) throws IOException {
+        values.remove(node);
+        Path temporary = temporaries.remove(node);
+        if (temporary != null) {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private void copy(MappedMatrix source, Path output) throws IOException {
+        MappedMatrix out = MatrixFile.create(output, source.rowCount(), source.columnCount());
+        executor.submitAll(elementwiseTasks(source, null, out, false));
+        out.force();
+    }
+
+    private List<Runnable> elementwiseTasks(MappedMatrix a, MappedMatrix b, MappedMatrix out) {
+        return elementwiseTasks(a, b, out, b == null);
+    }
+
+    /**
+     * Tasks writing a + b (or -a, or a) into out, row band by row band, a tile of each row at a time.
+     */
+    private List<Runnable> elementwiseTasks(MappedMatrix a, MappedMatrix b, MappedMatrix out, boolean negate) {
+        int rows = a.rowCount();
+        int cols = a.columnCount();
+        int band = bandRows(rows, Math.max(1, ELEMENTWISE_BAND / Math.max(cols, 1)));
+        List<Runnable> tasks = new ArrayList<>();
+        for (int from = 0; from < rows; from += band) {
+            int r0 = from;
+            int r1 = Math.min(from + band, rows);
+            tasks.add(() -> {
+                double[] x = new double[Math.min(cols, ELEMENTWISE_TILE)];
+                double[] y = b == null ? null : new double[x.length];
+                for (int i = r0; i < r1; i++) {
+                    for (int j0 = 0; j0 < cols; j0 += ELEMENTWISE_TILE) {
+                        int width = Math.min(ELEMENTWISE_TILE, cols - j0);
+                        a.read(i, j0, j0 + width, x, 0);
+                        if (b != null) {
+                            b.read(i, j0, j0 + width, y, 0);
+                            for (int j = 0; j < width; j++) {
+                                x[j] += y[j];
+                            }
+                        } else if (negate) {
+                            for (int j = 0; j < width; j++) {
+                                x[j] = -x[j];
+                            }
+                        }
+                        out.write(i, j0, x, 0, width);
+                    }
+                }
+            });
+        }
+        return tasks;
+    }
+
+    /**
+     * Tasks computing bands of rows of out = a x b. A task accumulates a band of output rows over
+     * a tile of columns, walking the inner dimension in tiles: a tile of a's rows is read once and
+     * every row of b in the tile is streamed once, to be used by all the rows of the band.
+     */
+    private List<Runnable> multiplyTasks(MappedMatrix a, MappedMatrix b, MappedMatrix out) {
+        int rows = a.rowCount();
+        int cols = b.columnCount();
+        int tileCols = Math.max(1, Math.min(cols, MULTIPLY_COLS));
+        int band = bandRows(rows, Math.max(1, MULTIPLY_ACCUMULATOR / tileCols));
+        List<Runnable> tasks = new ArrayList<>();
+        for (int from = 0; from < rows; from += band) {
+            int r0 = from;
+            int r1 = Math.min(from + band, rows);
+            for (int c = 0; c < cols; c += tileCols) {
+                int c0 = c;
+                int c1 = Math.min(c + tileCols, cols);
+                tasks.add(() -> multiplyTile(a, b, out, r0, r1, c0, c1));
+            }
+        }
+        return tasks;
+    }
+
+    private static void multiplyTile(MappedMatrix a, MappedMatrix b, MappedMatrix out, int r0, int r1, int c0,
+            int c1) {
+        int inner = a.columnCount();
+        int width = c1 - c0;
+        double[][] acc = new double[r1 - r0][width];
+        double[][] aTile = new double[r1 - r0][Math.min(inner, MULTIPLY_INNER)];
+        double[] bRow = new double[width];
+        for (int k0 = 0; k0 < inner; k0 += MULTIPLY_INNER) {
+            int k1 = Math.min(k0 + MULTIPLY_INNER, inner);
+            for (int r = r0; r < r1; r++) {
+                a.read(r, k0, k1, aTile[r - r0], 0);
+            }
+            for (int k = k0; k < k1; k++) {
+                b.read(k, c0, c1, bRow, 0);
+                for (int r = 0; r < acc.length; r++) {
+                    double ark = aTile[r][k - k0];
+                    double[] accRow = acc[r];
+                    for (int j = 0; j < width; j++) {
+                        accRow[j] += ark * bRow[j];
+                    }
+                }
+            }
+        }
+        for (int r = r0; r < r1; r++) {
+            out.write(r, c0, acc[r - r0], 0, width);
+        }
+    }
+
+    /**
+     * Tasks writing the transpose of a into out, a band of out's rows (a's columns) each,
+     * going through a's rows a tile at a time.
+     */
+    private List<Runnable> transposeTasks(MappedMatrix a, MappedMatrix out) {
+        int rows = a.rowCount();
+        int cols = a.columnCount();
+        List<Runnable> tasks = new ArrayList<>();
+        int band = bandRows(cols, TRANSPOSE_TILE);
+        for (int from = 0; from < cols; from += band) {
+            int j0 = from;
+            int j1 = Math.min(from + band, cols);
+            tasks.add(() -> {
+                int width = j1 - j0;
+                double[] row = new double[width];
+                double[][] tile = new double[width][Math.min(rows, TRANSPOSE_TILE)];
+                for (int i0 = 0; i0 < rows; i0 += TRANSPOSE_TILE) {
+                    int height = Math.min(TRANSPOSE_TILE, rows - i0);
+                    for (int i = 0; i < height; i++) {
+                        a.read(i0 + i, j0, j1, row, 0);
+                        for (int j = 0; j < width; j++) {
+                            tile[j][i] = row[j];
+                        }
+                    }
+                    for (int j = 0; j < width; j++) {
+                        out.write(j0 + j, i0, tile[j], 0, height);
+                    }
+                }
+            });
+        }
+        return tasks;
+    }
+
+    // rows per task: enough tasks for every worker, but never more than maxRows
+    private int bandRows(int rows, int maxRows) {
+        int ranges = CHUNKS_PER_WORKER * executor.getWorkerCount();
+        int balanced = Math.max(1, (rows + ranges - 1) / ranges);
+        return Math.max(1, Math.min(balanced, maxRows));
+    }
+}
@@ -0,0 +1,50 @@
+package spl.lae;
+
+import memory.SharedMatrix;
+import parser.ComputationNode;
+import parser.ComputationScheduler;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gives the off-heap storage of the results computed in a run back to the run's arena as soon as
+ * every node reading them is resolved, instead of when the run ends. A TRANSPOSE or NEGATE node
+ * resolved as a flag reads the storage of its operand, so that storage also waits for the nodes
+ * reading the flagged one. The root's storage stays until the run exports it.
+ */
+final class ResultRelease {
+
+    private final ComputationScheduler scheduler;
+    private final ComputationNode root;
+    private final Map<ComputationNode, SharedMatrix> storage = new IdentityHashMap<>(); // result whose storage a node reads
+    private final Map<SharedMatrix, Integer> readers = new IdentityHashMap<>(); // nodes still to be resolved
+
+    ResultRelease(ComputationScheduler scheduler, ComputationNode root) {
+        this.scheduler = scheduler;
+        this.root = root;
+    }
+
+    /**
+     * Called once the node is resolved, with the operands it had (resolving drops them) and
+     * whether it was resolved as a flag on its operand. The tasks of the node must be done.
+     */
+    void resolved(ComputationNode node, List<ComputationNode> operands, boolean flag) {
+        SharedMatrix owner = null;
+        if (node.getResult() != null) {
+            owner = flag ? storage.get(operands.get(0)) : node.getResult();
+        }
+        if (owner != null) {
+            storage.put(node, owner);
+            readers.merge(owner, node == root ? 1 : scheduler.consumers(node), Integer::sum);
+        }
+        for (ComputationNode operand : operands) {
+            SharedMatrix used = storage.get(operand);
+            if (used != null && readers.merge(used, -1, Integer::sum) == 0) {
+                readers.remove(used);
+                used.release();
+            }
+        }
+    }
+}
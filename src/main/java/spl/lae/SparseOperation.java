@@ -0,0 +1,181 @@
+package spl.lae;
+
+import memory.SparseMatrix;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.List;
+
+/**
+ * Computes a MULTIPLY or ADD node with compressed operands (see SparseMatrix) without
+ * expanding them: sparse x dense (CSR left), dense x sparse (CSC right) and sparse x sparse
+ * give a dense or a compressed product, sparse + sparse a compressed sum. The work is split in
+ * ranges of output rows, like the dense kernels. Compressed results that came out too dense to
+ * be worth it are expanded.
+ * A kernel skips the zeros of a compressed operand, which the dense kernels would multiply:
+ * that only gives the same result when the operands hold no infinity or NaN, so such nodes are
+ * left to the dense kernels.
+ */
+final class SparseOperation {
+
+    private final ComputationNode node;
+    private final SparseMatrix leftSparse; // null when the operand is dense
+    private final SparseMatrix rightSparse;
+    private final double[][] leftDense;
+    private final double[][] rightDense;
+    private final double leftScale;
+    private final double rightScale;
+    private final int rows;
+    private final int cols;
+    private double[][] dense; // a dense result
+    private int[][] indices; // or the compressed rows of a compressed one
+    private double[][] values;
+
+    private SparseOperation(ComputationNode node, SparseMatrix leftSparse, double[][] leftDense,
+            SparseMatrix rightSparse, double[][] rightDense, double leftScale, double rightScale, int rows,
+            int cols) {
+        this.node = node;
+        this.leftSparse = leftSparse;
+        this.leftDense = leftDense;
+        this.rightSparse = rightSparse;
+        this.rightDense = rightDense;
+        this.leftScale = leftScale;
+        this.rightScale = rightScale;
+        this.rows = rows;
+        this.cols = cols;
+    }
+
+    /**
+     * Returns the sparse computation of the node, or null if it is for the dense kernels:
+     * not a product with a compressed operand nor a sum of two, or with non-finite operands.
+     */
+    static SparseOperation plan(ComputationNode node) {
+        List<ComputationNode> children = node.getChildren();
+        if (children.size() != 2) {
+            return null;
+        }
+        ComputationNode left = children.get(0);
+        ComputationNode right = children.get(1);
+        boolean product = node.getNodeType() == ComputationNodeType.MULTIPLY;
+        if (product ? left.getSparse() == null && right.getSparse() == null
+                : node.getNodeType() != ComputationNodeType.ADD || left.getSparse() == null
+                        || right.getSparse() == null) {
+            return null;
+        }
+        SparseMatrix leftSparse = sparseOf(left);
+        SparseMatrix rightSparse = sparseOf(right);
+        if ((leftSparse != null && !leftSparse.isFinite()) || (rightSparse != null && !rightSparse.isFinite())) {
+            return null;
+        }
+        double[][] leftDense = leftSparse == null ? denseOf(left) : null;
+        double[][] rightDense = rightSparse == null ? denseOf(right) : null;
+        if ((leftDense != null && !isFinite(leftDense)) || (rightDense != null && !isFinite(rightDense))) {
+            return null;
+        }
+        int[] leftShape = shapeOf(leftSparse, leftDense);
+        int[] rightShape = shapeOf(rightSparse, rightDense);
+        if (product && leftShape[1] != rightShape[0]) {
+            throw new IllegalArgumentException(
+                    "Vector length must equal to matrix row count for vector-matrix multiplication.");
+        }
+        if (!product && (leftShape[0] != rightShape[0] || leftShape[1] != rightShape[1])) {
+            throw new IllegalArgumentException("Matrices must have the same dimensions for addition");
+        }
+        double leftScale = left.isNegated() ? -1 : 1;
+        double rightScale = right.isNegated() ? -1 : 1;
+        if (product) {
+            // each kernel wants its compression, leftScale carries the sign of the product
+            return new SparseOperation(node, leftSparse == null ? null : leftSparse.toRowMajor(), leftDense,
+                    rightSparse == null ? null
+                            : leftSparse == null ? rightSparse.toColumnMajor() : rightSparse.toRowMajor(),
+                    rightDense, leftScale * rightScale, 1, leftShape[0], rightShape[1]);
+        }
+        return new SparseOperation(node, leftSparse.toRowMajor(), null, rightSparse.toRowMajor(), null,
+                leftScale, rightScale, leftShape[0], leftShape[1]);
+    }
+
+    /**
+     * The tasks computing the result, split by the engine's row splitting.
+     */
+    List<Runnable> tasks(LinearAlgebraEngine engine) {
+        if (leftSparse != null && rightDense != null) {
+            dense = new double[rows][];
+            long rowCost = (long) Math.max(1, leftSparse.nonZeros() / Math.max(1, rows)) * cols;
+            return engine.rowTasks(rows, rowCost, 1,
+                    (from, to) -> leftSparse.multiplyRows(from, to, rightDense, leftScale, dense));
+        }
+        if (leftDense != null) {
+            dense = new double[rows][];
+            long rowCost = Math.max(1, rightSparse.nonZeros()) + cols;
+            return engine.rowTasks(rows, rowCost, 1,
+                    (from, to) -> SparseMatrix.multiplyRows(leftDense, from, to, rightSparse, leftScale, dense));
+        }
+        indices = new int[rows][];
+        values = new double[rows][];
+        if (node.getNodeType() == ComputationNodeType.MULTIPLY) {
+            long rowCost = (long) Math.max(1, leftSparse.nonZeros() / Math.max(1, rows))
+                    * Math.max(1, rightSparse.nonZeros() / Math.max(1, rightSparse.rowCount()));
+            return engine.rowTasks(rows, rowCost, 1,
+                    (from, to) -> leftSparse.multiplyRows(from, to, rightSparse, leftScale, indices, values));
+        }
+        long rowCost = Math.max(1, (leftSparse.nonZeros() + rightSparse.nonZeros()) / Math.max(1, rows));
+        return engine.rowTasks(rows, rowCost, 1, (from, to) -> leftSparse.addRows(from, to, leftScale,
+                rightSparse, rightScale, indices, values));
+    }
+
+    // once the tasks are done
+    void resolve() {
+        if (dense != null) {
+            node.resolve(dense);
+            return;
+        }
+        SparseMatrix result = SparseMatrix.fromRows(cols, indices, values);
+        if (result.density() <= SparseMatrix.MAX_DENSITY) {
+            node.resolve(result, false, false);
+        } else {
+            node.resolve(result.toDense());
+        }
+    }
+
+    // the compressed value of the operand, with its pending transpose
+    private static SparseMatrix sparseOf(ComputationNode operand) {
+        SparseMatrix sparse = operand.getSparse();
+        if (sparse == null) {
+            return null;
+        }
+        return operand.isTransposed() ? sparse.transpose() : sparse;
+    }
+
+    // the rows of a dense operand, with its pending transpose; the node itself is left as is
+    private static double[][] denseOf(ComputationNode operand) {
+        double[][] m = operand.getStoredMatrix();
+        if (!operand.isTransposed() || m.length == 0) {
+            return m;
+        }
+        double[][] t = new double[m[0].length][m.length];
+        for (int i = 0; i < m.length; i++) {
+            for (int j = 0; j < m[i].length; j++) {
+                t[j][i] = m[i][j];
+            }
+        }
+        return t;
+    }
+
+    private static boolean isFinite(double[][] matrix) {
+        for (double[] row : matrix) {
+            for (double x : row) {
+                if (!Double.isFinite(x)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int[] shapeOf(SparseMatrix sparse, double[][] dense) {
+        if (sparse != null) {
+            return new int[] { sparse.rowCount(), sparse.columnCount() };
+        }
+        return new int[] { dense.length, dense.length == 0 ? 0 : dense[0].length };
+    }
+}
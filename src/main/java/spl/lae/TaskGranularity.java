@@ -0,0 +1,13 @@
+package spl.lae;
+
+/**
+ * How the engine splits the rows of a node into executor tasks.
+ * PER_ROW submits one task per row (one per block of rows for the blocked product).
+ * CHUNKED submits ranges of consecutive rows, sized from the cost of a row and the number
+ * of workers. Which one pays off depends on the machine and on the node; TaskGranularityBenchmark
+ * compares them.
+ */
+public enum TaskGranularity {
+    PER_ROW,
+    CHUNKED
+}
@@ -0,0 +1,68 @@
+package memory;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+class BlockedMultiplyTest {
+
+    private static final double DELTA = 1e-9;
+
+    private static double[][] randomMatrix(Random rand, int rows, int cols) {
+        double[][] m = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                m[i][j] = rand.nextInt(21) - 10;
+            }
+        }
+        return m;
+    }
+
+    @Test
+    // Test blocked kernel against the per-row vecMatMul path, with sizes that cross tile borders
+    void testMatchesVecMatMul() {
+        Random rand = new Random(7);
+        double[][] a = randomMatrix(rand, 70, 150);
+        double[][] b = randomMatrix(rand, 150, 300);
+
+        SharedMatrix right = new SharedMatrix();
+        right.loadColumnMajor(b);
+        SharedMatrix expected = new SharedMatrix(a);
+        for (int i = 0; i < expected.length(); i++) {
+            expected.get(i).vecMatMul(right);
+        }
+
+        SharedMatrix left = new SharedMatrix(a);
+        BlockedMultiply kernel = new BlockedMultiply(right);
+        assertEquals(150, kernel.innerLength());
+        assertEquals(300, kernel.columnCount());
+        for (int i = 0; i < left.length(); i += BlockedMultiply.ROW_BLOCK) {
+            kernel.multiplyRows(left, i, Math.min(i + BlockedMultiply.ROW_BLOCK, left.length()));
+        }
+
+        double[][] want = expected.readRowMajor();
+        double[][] got = left.readRowMajor();
+        assertEquals(want.length, got.length);
+        for (int i = 0; i < want.length; i++) {
+            assertArrayEquals(want[i], got[i], DELTA);
+        }
+        assertEquals(VectorOrientation.ROW_MAJOR, left.getOrientation());
+    }
+
+    @Test
+    // Test invalid operands
+    void testInvalidOperands() {
+        assertThrows(IllegalArgumentException.class, () -> new BlockedMultiply(null));
+        assertThrows(IllegalArgumentException.class, () -> new BlockedMultiply(new SharedMatrix()));
+        SharedMatrix rowMajor = new SharedMatrix(new double[][] { { 1, 2 }, { 3, 4 } });
+        assertThrows(IllegalArgumentException.class, () -> new BlockedMultiply(rowMajor));
+
+        SharedMatrix right = new SharedMatrix();
+        right.loadColumnMajor(new double[][] { { 1, 2 }, { 3, 4 } });
+        BlockedMultiply kernel = new BlockedMultiply(right);
+        SharedMatrix wrongWidth = new SharedMatrix(new double[][] { { 1, 2, 3 } });
+        assertThrows(IllegalArgumentException.class, () -> kernel.multiplyRows(wrongWidth, 0, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> kernel.multiplyRows(wrongWidth, 0, 2));
+    }
+}
@@ -0,0 +1,66 @@
+package memory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedMatrixTest {
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @Test
+    // Test rows spread over several mappings, written and read back through another mapping
+    void testRowsAcrossBands(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("m.bin");
+        MappedMatrix written;
+        try (FileChannel channel = open(file)) {
+            // 3 rows of 5 doubles per mapping
+            written = MappedMatrix.map(channel, 16, 10, 5, true, 3 * 5 * Double.BYTES + 7);
+        }
+        for (int i = 0; i < 10; i++) {
+            double[] row = { i, i + 0.5, -i, 2 * i, 3 * i };
+            written.write(i, 0, row, 0, 5);
+        }
+        written.write(9, 3, new double[] { 42, 43 }, 0, 2);
+        written.force();
+
+        MappedMatrix read;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertEquals(16 + 10 * 5 * Double.BYTES, channel.size());
+            read = MappedMatrix.map(channel, 16, 10, 5, false);
+        }
+        assertEquals(10, read.rowCount());
+        assertEquals(5, read.columnCount());
+        double[] part = new double[3];
+        read.read(4, 1, 4, part, 0);
+        assertArrayEquals(new double[] { 4.5, -4, 8 }, part);
+
+        double[][] rows = new double[2][5];
+        read.readRows(8, 10, rows);
+        assertArrayEquals(new double[] { 8, 8.5, -8, 16, 24 }, rows[0]);
+        assertArrayEquals(new double[] { 9, 9.5, -9, 42, 43 }, rows[1]);
+
+        assertThrows(ReadOnlyBufferException.class, () -> read.write(0, 0, part, 0, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> read.read(10, 0, 1, part, 0));
+        assertThrows(IndexOutOfBoundsException.class, () -> read.read(0, 3, 6, part, 0));
+    }
+
+    @Test
+    // Test invalid shapes
+    void testInvalidShapes(@TempDir Path dir) throws IOException {
+        try (FileChannel channel = open(dir.resolve("m.bin"))) {
+            assertThrows(IllegalArgumentException.class, () -> MappedMatrix.map(channel, 0, -1, 2, true));
+            assertThrows(IllegalArgumentException.class, () -> MappedMatrix.map(channel, 0, 2, 100, true, 64));
+            assertEquals(0, MappedMatrix.map(channel, 0, 0, 0, true).rowCount());
+        }
+    }
+}
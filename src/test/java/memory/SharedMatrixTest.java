@@ -90,4 +90,221 @@ public class SharedMatrixTest {
         SharedMatrix matrix = new SharedMatrix(data);
         assertEquals(2, matrix.length());
     }
+
+    @Test
+        // Test contiguous storage loads, reads back and keeps rows independent
+    void testContiguousStorage() {
+        double[][] data = {
+                {1.0, 2.0, 3.0},
+                {4.0, 5.0, 6.0}
+        };
+        SharedMatrix matrix = new SharedMatrix(data, StorageMode.CONTIGUOUS);
+        assertEquals(StorageMode.CONTIGUOUS, matrix.getStorageMode());
+        assertArrayEquals(data, matrix.readRowMajor());
+        assertEquals(3, matrix.get(1).length());
+
+        matrix.get(0).negate();
+        matrix.get(1).add(new SharedVector(new double[]{1.0, 1.0, 1.0}, VectorOrientation.ROW_MAJOR));
+        assertArrayEquals(new double[][]{{-1.0, -2.0, -3.0}, {5.0, 6.0, 7.0}}, matrix.readRowMajor());
+        assertThrows(IndexOutOfBoundsException.class, () -> matrix.get(0).get(3));
+
+        SharedMatrix columns = new SharedMatrix(StorageMode.CONTIGUOUS);
+        columns.loadColumnMajor(data);
+        assertEquals(3, columns.length());
+        assertEquals(VectorOrientation.COLUMN_MAJOR, columns.getOrientation());
+        assertEquals(2.0, columns.get(1).get(0));
+        assertEquals(5.0, columns.get(1).get(1));
+        assertArrayEquals(data, columns.readRowMajor());
+        assertEquals(15.0, new SharedVector(new double[]{1.0, 2.0}, VectorOrientation.ROW_MAJOR)
+                .dot(columns.get(2)));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new SharedMatrix(new double[][]{{1.0}, {2.0, 3.0}}, StorageMode.CONTIGUOUS));
+    }
+
+    @Test
+        // Test loading the transpose of a matrix in both orientations
+    void testTransposedLoading() {
+        double[][] data = {
+                {1.0, 2.0, 3.0},
+                {4.0, 5.0, 6.0}
+        };
+        double[][] transposed = {
+                {1.0, 4.0},
+                {2.0, 5.0},
+                {3.0, 6.0}
+        };
+        for (StorageMode storage : StorageMode.values()) {
+            SharedMatrix rows = new SharedMatrix(storage);
+            rows.loadRowMajor(data, true);
+            assertEquals(VectorOrientation.ROW_MAJOR, rows.getOrientation());
+            assertArrayEquals(transposed, rows.readRowMajor());
+
+            SharedMatrix columns = new SharedMatrix(storage);
+            columns.loadColumnMajor(data, true);
+            assertEquals(VectorOrientation.COLUMN_MAJOR, columns.getOrientation());
+            assertEquals(2, columns.length());
+            assertArrayEquals(transposed, columns.readRowMajor());
+        }
+    }
+
+    @Test
+    // Test copying, sharing and viewing another SharedMatrix without going through double[][]
+    void testLoadingFromSharedMatrix() {
+        double[][] data = {
+                {1.0, 2.0, 3.0},
+                {4.0, 5.0, 6.0}
+        };
+        double[][] transposed = {{1.0, 4.0}, {2.0, 5.0}, {3.0, 6.0}};
+        for (StorageMode storage : StorageMode.values()) {
+            SharedMatrix source = new SharedMatrix(data, storage);
+
+            SharedMatrix rows = new SharedMatrix(storage);
+            rows.loadRowMajor(source);
+            assertEquals(VectorOrientation.ROW_MAJOR, rows.getOrientation());
+            assertArrayEquals(data, rows.readRowMajor());
+            SharedMatrix columns = new SharedMatrix(storage);
+            columns.loadColumnMajor(source);
+            assertEquals(VectorOrientation.COLUMN_MAJOR, columns.getOrientation());
+            assertEquals(3, columns.length());
+            assertArrayEquals(data, columns.readRowMajor());
+            SharedMatrix back = new SharedMatrix(storage);
+            back.loadRowMajor(columns);
+            assertArrayEquals(data, back.readRowMajor());
+
+            SharedMatrix view = source.transposedView();
+            assertEquals(VectorOrientation.COLUMN_MAJOR, view.getOrientation());
+            assertArrayEquals(transposed, view.readRowMajor());
+
+            // copies are independent, shared vectors are not
+            rows.get(0).negate();
+            assertArrayEquals(data, source.readRowMajor());
+            SharedMatrix shared = new SharedMatrix(storage);
+            shared.share(source);
+            shared.get(1).negate();
+            assertEquals(-4.0, source.get(1).get(0));
+            assertEquals(-4.0, view.get(1).get(0));
+        }
+        SharedMatrix empty = new SharedMatrix();
+        empty.loadRowMajor(new SharedMatrix());
+        assertEquals(0, empty.length());
+        assertThrows(IllegalArgumentException.class, () -> empty.loadColumnMajor((SharedMatrix) null));
+    }
+
+    @Test
+    // Test reading blocks of rows from both orientations
+    void testReadRows() {
+        double[][] data = {
+                { 1, 2, 3 },
+                { 4, 5, 6 },
+                { 7, 8, 9 },
+                { 10, 11, 12 }
+        };
+        SharedMatrix rowMajor = new SharedMatrix(data);
+        SharedMatrix columnMajor = new SharedMatrix();
+        columnMajor.loadColumnMajor(data);
+        for (SharedMatrix m : new SharedMatrix[] { rowMajor, columnMajor }) {
+            assertEquals(4, m.rowCount());
+            assertEquals(3, m.columnCount());
+            double[][] block = new double[2][3];
+            m.readRows(1, 3, block);
+            assertArrayEquals(data[1], block[0]);
+            assertArrayEquals(data[2], block[1]);
+            assertThrows(IndexOutOfBoundsException.class, () -> m.readRows(3, 5, block));
+        }
+        assertEquals(0, new SharedMatrix().rowCount());
+    }
+
+    @Test
+    // Test that off-heap storage is given back to the arena and reused
+    void testOffHeapRelease() {
+        int n = 2048; // large enough for blocks of its own
+        double[][] data = new double[n][n];
+        data[n - 1][n - 1] = 5.0;
+        try (OffHeapArena arena = new OffHeapArena()) {
+            SharedMatrix matrix = new SharedMatrix(data, StorageMode.OFF_HEAP);
+            assertNull(matrix.getArena());
+            assertEquals(5.0, matrix.get(n - 1).get(n - 1));
+
+            SharedMatrix pooled = new SharedMatrix(StorageMode.OFF_HEAP, arena);
+            pooled.loadColumnMajor(matrix);
+            assertEquals(5.0, pooled.get(n - 1).get(n - 1));
+
+            SharedMatrix shared = new SharedMatrix(StorageMode.OFF_HEAP, arena);
+            shared.share(pooled);
+            shared.release(); // shared vectors are left alone
+            assertEquals(5.0, pooled.get(n - 1).get(n - 1));
+
+            pooled.release();
+            assertEquals(0, pooled.length());
+            SharedMatrix again = new SharedMatrix(StorageMode.OFF_HEAP, arena);
+            again.loadRowMajor(new double[n][n]); // recycled storage is zeroed
+            assertEquals(0.0, again.get(n - 1).get(n - 1));
+        }
+        OffHeapArena closed = new OffHeapArena();
+        closed.close();
+        assertThrows(IllegalStateException.class, () -> closed.allocate(1));
+    }
+
+    @Test
+    // Test that small off-heap matrices give their shared block back once all of them are released
+    void testOffHeapReleaseOfSharedBlocks() {
+        double[][] data = { { 1.0, 2.0 }, { 3.0, 4.0 } };
+        try (OffHeapArena arena = new OffHeapArena()) {
+            SharedMatrix first = new SharedMatrix(StorageMode.OFF_HEAP, arena);
+            first.loadRowMajor(data);
+            SharedMatrix second = new SharedMatrix(StorageMode.OFF_HEAP, arena);
+            second.loadColumnMajor(data);
+            SharedMatrix large = new SharedMatrix(StorageMode.OFF_HEAP, arena);
+            large.loadRowMajor(new double[1100][1024]); // over half a block: one of its own
+            assertEquals(2, arena.blockCount());
+
+            first.release();
+            assertEquals(3.0, second.get(0).get(1)); // still cut from the same block
+            second.release();
+            large.release();
+            assertEquals(1, arena.blockCount()); // the current block is cut again from the start
+            SharedMatrix again = new SharedMatrix(StorageMode.OFF_HEAP, arena);
+            again.loadRowMajor(new double[2][2]);
+            assertEquals(0.0, again.get(1).get(1));
+            assertEquals(1, arena.blockCount());
+
+            SharedMatrix owner = new SharedMatrix(StorageMode.OFF_HEAP, arena);
+            owner.loadRowMajor(data);
+            SharedMatrix taker = new SharedMatrix(StorageMode.OFF_HEAP, arena);
+            taker.takeOver(owner);
+            owner.release(); // the storage went with takeOver()
+            assertEquals(4.0, taker.get(1).get(1));
+        }
+    }
+
+    @Test
+    // Test single-precision matrices in both storage modes
+    void testFloatMatrix() {
+        double[][] data = { { 0.1, 0.2, 0.3 }, { 0.4, 0.5, 0.6 } };
+        for (StorageMode storage : new StorageMode[] { StorageMode.PER_VECTOR, StorageMode.CONTIGUOUS }) {
+            SharedMatrix matrix = new SharedMatrix(storage, Precision.FLOAT32, null);
+            matrix.loadColumnMajor(data);
+            assertEquals(Precision.FLOAT32, matrix.get(0).getPrecision());
+            assertEquals((double) 0.4f, matrix.get(0).get(1));
+
+            SharedMatrix rows = new SharedMatrix(storage, Precision.FLOAT32, null);
+            rows.loadRowMajor(matrix);
+            double[][] read = rows.readRowMajor();
+            assertEquals((double) 0.6f, read[1][2]);
+            assertEquals(Precision.FLOAT32, rows.transposedView().getPrecision());
+        }
+
+        float[][] floats = { { 1.5f, 2.5f }, { 3.5f, 4.5f } };
+        SharedMatrix wrapped = new SharedMatrix(floats);
+        assertEquals(Precision.FLOAT32, wrapped.getPrecision());
+        wrapped.get(0).negate();
+        assertEquals(1.5f, floats[0][0]); // the rows are copied, the caller's are left alone
+        assertEquals(-1.5, wrapped.get(0).get(0));
+        floats[1][1] = 0f;
+        assertEquals(4.5, wrapped.get(1).get(1));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new SharedMatrix(StorageMode.OFF_HEAP, Precision.FLOAT32, null));
+    }
 }
@@ -2,6 +2,7 @@ package memory;
 
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
+import memory.Precision;
 import memory.SharedVector;
 import memory.VectorOrientation;
 
@@ -143,4 +144,96 @@ class SharedVectorTest {
             emptyVector.vecMatMul(emptyMatrix);
         });
     }
-}
\ No newline at end of file
+
+    @Test
+    // Test bulk copy, range read and kernel application
+    void testBulkAccess() {
+        double[] data = { 1.0, 2.0, 3.0, 4.0 };
+        SharedVector vector = new SharedVector(data, VectorOrientation.ROW_MAJOR);
+
+        double[] copy = new double[6];
+        vector.copyTo(copy, 1);
+        assertArrayEquals(new double[] { 0.0, 1.0, 2.0, 3.0, 4.0, 0.0 }, copy);
+
+        double[] range = new double[2];
+        vector.read(1, 3, range, 0);
+        assertArrayEquals(new double[] { 2.0, 3.0 }, range);
+        assertThrows(IndexOutOfBoundsException.class, () -> vector.read(2, 5, range, 0));
+
+        vector.apply((raw, offset, length) -> {
+            for (int i = offset; i < offset + length; i++) {
+                raw[i] *= 10;
+            }
+        });
+        assertEquals(40.0, vector.get(3));
+        assertThrows(IllegalArgumentException.class, () -> vector.apply(null));
+
+        // a view only exposes its own range of the backing array
+        double[] backing = { 9.0, 1.0, 2.0, 9.0 };
+        SharedVector view = new SharedVector(backing, 1, 2, VectorOrientation.ROW_MAJOR,
+                new java.util.concurrent.locks.ReentrantReadWriteLock());
+        view.negate();
+        double[] out = new double[2];
+        view.copyTo(out, 0);
+        assertArrayEquals(new double[] { -1.0, -2.0 }, out);
+        assertEquals(9.0, backing[0]);
+        assertEquals(9.0, backing[3]);
+    }
+
+    @Test
+    // Test the operations on vectors kept off-heap, next to a heap vector
+    void testOffHeapVector() {
+        try (OffHeapArena arena = new OffHeapArena()) {
+            java.nio.DoubleBuffer buffer = arena.allocate(5);
+            buffer.put(0, new double[] { 9.0, 1.0, 2.0, 3.0, 9.0 });
+            SharedVector row = new SharedVector(buffer, 1, 3, VectorOrientation.ROW_MAJOR,
+                    new java.util.concurrent.locks.ReentrantReadWriteLock(), arena);
+            assertEquals(2.0, row.get(1));
+            assertEquals(3, row.length());
+
+            row.add(new SharedVector(new double[] { 1.0, 1.0, 1.0 }, VectorOrientation.ROW_MAJOR));
+            row.negate();
+            double[] out = new double[3];
+            row.copyTo(out, 0);
+            assertArrayEquals(new double[] { -2.0, -3.0, -4.0 }, out);
+            assertEquals(9.0, buffer.get(0));
+            assertEquals(9.0, buffer.get(4));
+
+            SharedVector column = row.view(VectorOrientation.COLUMN_MAJOR);
+            assertEquals(29.0, row.dot(column));
+            row.combine(2.0, row.view(VectorOrientation.ROW_MAJOR), 1.0);
+            assertEquals(-6.0, row.get(0));
+
+            SharedMatrix matrix = new SharedMatrix(StorageMode.OFF_HEAP, arena);
+            matrix.loadColumnMajor(new double[][] { { 1.0, 0.0 }, { 0.0, 1.0 }, { 1.0, 1.0 } });
+            row.vecMatMul(matrix);
+            assertArrayEquals(new double[] { -18.0, -21.0 }, new double[] { row.get(0), row.get(1) });
+            assertEquals(2, row.length());
+            assertEquals(-6.0, buffer.get(1)); // the result went to storage of its own
+        }
+    }
+
+    @Test
+    // Test that a float vector computes in double and rounds what it stores
+    void testFloatVector() {
+        float[] data = { 0.1f, 0.2f, 0.3f };
+        SharedVector row = new SharedVector(data, VectorOrientation.ROW_MAJOR);
+        assertEquals(Precision.FLOAT32, row.getPrecision());
+        assertEquals((double) 0.2f, row.get(1));
+
+        row.add(new SharedVector(new double[] { 1.0, 1.0, 1.0 }, VectorOrientation.ROW_MAJOR));
+        assertEquals(1.1f, data[0]); // the sum is rounded to float in place
+        row.negate();
+        assertEquals(-1.2f, data[1]);
+
+        SharedVector column = new SharedVector(new float[] { 1.0f, 2.0f, 4.0f }, VectorOrientation.COLUMN_MAJOR);
+        assertEquals((double) -1.1f + 2.0 * -1.2f + 4.0 * -1.3f, row.dot(column), 1e-12);
+
+        SharedMatrix matrix = new SharedMatrix(StorageMode.CONTIGUOUS, Precision.FLOAT32, null);
+        matrix.loadColumnMajor(new double[][] { { 1.0, 0.0 }, { 0.0, 1.0 }, { 1.0, 1.0 } });
+        row.vecMatMul(matrix);
+        assertEquals(Precision.FLOAT32, row.getPrecision());
+        assertEquals(2, row.length());
+        assertEquals((double) (float) (-1.1f + -1.3f), row.get(0), 1e-6);
+    }
+}
@@ -0,0 +1,121 @@
+package memory;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Compares the throughput of the scalar loops of SharedVector (dot, add, negate) with Vector API
+ * versions. Skipped by default, run with:
+ * mvn test -Dtest=SimdKernelsBenchmark -Dlae.benchmark=true
+ * One thread, JDK 21, a Xeon with AVX-512 (8 lanes), speedup of the Vector API version for
+ * n = 256, 4096 and 1M over two runs: dot 5.8-6.8x, 4.5-5.9x, 1.9-2.0x; add 0.7-0.9x, 0.9-1.0x,
+ * 1.0x; negate 0.9-1.1x, 0.7-1.2x, 1.0x. C2 vectorizes the add and negate loops itself, so only
+ * the dot product has a kernel in SimdKernels; the add and negate versions stay here.
+ */
+@EnabledIfSystemProperty(named = "lae.benchmark", matches = "true")
+class SimdKernelsBenchmark {
+
+    private static final int ROUNDS = 7;
+    private static final long ELEMENTS_PER_ROUND = 1L << 27;
+
+    private static volatile double sink;
+
+    // best of ROUNDS, in elements per nanosecond; body runs one pass over n elements
+    private static double throughput(int n, IntToDoubleFunction body) {
+        int passes = (int) Math.max(1, ELEMENTS_PER_ROUND / n);
+        double best = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            double acc = 0;
+            long start = System.nanoTime();
+            for (int p = 0; p < passes; p++) {
+                acc += body.applyAsDouble(p);
+            }
+            best = Math.max(best, (double) passes * n / (System.nanoTime() - start));
+            sink = acc;
+        }
+        return best;
+    }
+
+    private static void compare(String name, int n, IntToDoubleFunction scalar, IntToDoubleFunction simd) {
+        double s = throughput(n, scalar);
+        double v = throughput(n, simd);
+        System.out.printf("%-8s n=%-8d scalar %6.2f elem/ns | simd %6.2f elem/ns | speedup %.1fx%n",
+                name, n, s, v, v / s);
+    }
+
+    @Test
+    void scalarAgainstSimdDot() {
+        for (int n : new int[] { 256, 4096, 1 << 20 }) {
+            double[] a = new double[n];
+            double[] b = new double[n];
+            for (int i = 0; i < n; i++) {
+                a[i] = (i % 13) - 6;
+                b[i] = (i % 7) - 3;
+            }
+            compare("dot", n, p -> {
+                double sum = 0;
+                for (int i = 0; i < n; i++) {
+                    sum += a[i] * b[i];
+                }
+                return sum;
+            }, p -> SimdKernels.dot(a, 0, b, 0, n));
+        }
+    }
+
+    @Test
+    void scalarAgainstSimdAddAndNegate() {
+        for (int n : new int[] { 256, 4096, 1 << 20 }) {
+            double[] a = new double[n];
+            double[] b = new double[n];
+            for (int i = 0; i < n; i++) {
+                a[i] = (i % 13) - 6;
+                b[i] = (i % 7) - 3;
+            }
+            // a changes from pass to pass, the work does not
+            compare("add", n, p -> {
+                for (int i = 0; i < n; i++) {
+                    a[i] += b[i];
+                }
+                return a[p % n];
+            }, p -> {
+                add(a, b, n);
+                return a[p % n];
+            });
+            compare("negate", n, p -> {
+                for (int i = 0; i < n; i++) {
+                    a[i] = -a[i];
+                }
+                return a[p % n];
+            }, p -> {
+                negate(a, n);
+                return a[p % n];
+            });
+        }
+    }
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private static void add(double[] a, double[] b, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).add(DoubleVector.fromArray(SPECIES, b, i)).intoArray(a, i);
+        }
+        for (; i < n; i++) {
+            a[i] += b[i];
+        }
+    }
+
+    private static void negate(double[] a, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, a, i).neg().intoArray(a, i);
+        }
+        for (; i < n; i++) {
+            a[i] = -a[i];
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package memory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimdKernelsTest {
+
+    private static double[] random(Random random, int n) {
+        double[] a = new double[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = random.nextDouble() * 20 - 10;
+        }
+        return a;
+    }
+
+    @Test
+    // Test the dot product against the scalar loop, on lengths around the vector width and with offsets
+    void testDotMatchesScalarLoop() {
+        Random random = new Random(42);
+        for (int n = 0; n < 70; n++) {
+            double[] a = random(random, n + 3);
+            double[] b = random(random, n + 5);
+
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += a[3 + i] * b[5 + i];
+            }
+            assertEquals(sum, SimdKernels.dot(a, 3, b, 5, n), 1e-9);
+        }
+    }
+
+    @Test
+    // Test the single-precision dot product against the scalar loop on widened elements
+    void testFloatDotMatchesScalarLoop() {
+        Random random = new Random(7);
+        for (int n = 0; n < 70; n++) {
+            float[] a = new float[n + 3];
+            float[] b = new float[n + 5];
+            for (int i = 0; i < a.length; i++) {
+                a[i] = random.nextFloat() * 20 - 10;
+            }
+            for (int i = 0; i < b.length; i++) {
+                b[i] = random.nextFloat() * 20 - 10;
+            }
+
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += (double) a[3 + i] * b[5 + i];
+            }
+            assertEquals(sum, SimdKernels.dot(a, 3, b, 5, n), 1e-9);
+        }
+    }
+
+    @Test
+    // Test the engine's vector operations with the kernels switched on give what the scalar loops give
+    void testSharedVectorsMatchWithKernelsSwitchedOn() {
+        assertTrue(SharedVector.SIMD_AVAILABLE, "the tests run with jdk.incubator.vector");
+        Random random = new Random(11);
+        double[][] left = new double[9][37];
+        double[][] right = new double[37][23];
+        for (double[] row : left) {
+            System.arraycopy(random(random, 37), 0, row, 0, 37);
+        }
+        for (double[] row : right) {
+            System.arraycopy(random(random, 23), 0, row, 0, 23);
+        }
+        boolean previous = SharedVector.simd;
+        try {
+            for (Precision precision : Precision.values()) {
+                SharedVector.simd = false;
+                double[][] scalar = compute(left, right, precision);
+                SharedVector.simd = true;
+                double[][] vector = compute(left, right, precision);
+                for (int i = 0; i < scalar.length; i++) {
+                    assertArrayEquals(scalar[i], vector[i], 1e-3); // floats may round one ulp apart
+                }
+            }
+        } finally {
+            SharedVector.simd = previous;
+        }
+    }
+
+    // -(L + L) x R, row by row, on contiguous storage so the vectors are views with offsets
+    private static double[][] compute(double[][] left, double[][] right, Precision precision) {
+        SharedMatrix rows = new SharedMatrix(StorageMode.CONTIGUOUS, precision, null);
+        rows.loadRowMajor(left);
+        SharedMatrix again = new SharedMatrix(StorageMode.CONTIGUOUS, precision, null);
+        again.loadRowMajor(left);
+        SharedMatrix columns = new SharedMatrix(StorageMode.CONTIGUOUS, precision, null);
+        columns.loadColumnMajor(right);
+        for (int i = 0; i < rows.length(); i++) {
+            rows.get(i).add(again.get(i));
+            rows.get(i).negate();
+            rows.get(i).vecMatMul(columns);
+        }
+        return rows.readRowMajor();
+    }
+}
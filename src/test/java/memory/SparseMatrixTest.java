@@ -0,0 +1,95 @@
+package memory;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SparseMatrixTest {
+
+    private static final double[][] A = {
+            { 0, 2, 0, 0 },
+            { 0, 0, 0, 0 },
+            { 1, 0, 0, -3 }
+    };
+    private static final double[][] B = {
+            { 0, 0, 5 },
+            { 4, 0, 0 },
+            { 0, 0, 0 },
+            { 0, 1, 0 }
+    };
+
+    private static double[][] multiply(double[][] a, double[][] b) {
+        double[][] c = new double[a.length][b[0].length];
+        for (int i = 0; i < a.length; i++) {
+            for (int k = 0; k < b.length; k++) {
+                for (int j = 0; j < b[0].length; j++) {
+                    c[i][j] += a[i][k] * b[k][j];
+                }
+            }
+        }
+        return c;
+    }
+
+    @Test
+    // Test compressing, expanding, transposing and converting between CSR and CSC
+    void testLayouts() {
+        SparseMatrix a = SparseMatrix.fromDense(A);
+        assertTrue(a.isRowMajor());
+        assertEquals(3, a.rowCount());
+        assertEquals(4, a.columnCount());
+        assertEquals(3, a.nonZeros());
+        assertEquals(0.25, a.density());
+        assertArrayEquals(A, a.toDense());
+
+        SparseMatrix columns = a.toColumnMajor();
+        assertFalse(columns.isRowMajor());
+        assertArrayEquals(A, columns.toDense());
+        assertArrayEquals(A, columns.toRowMajor().toDense());
+        assertEquals(a, columns.toRowMajor());
+
+        SparseMatrix t = a.transpose();
+        assertEquals(4, t.rowCount());
+        assertFalse(t.isRowMajor());
+        assertEquals(2.0, t.toDense()[1][0]);
+        assertEquals(-3.0, t.toRowMajor().toDense()[3][2]);
+
+        assertTrue(SparseMatrix.isSparse(new double[10][10]));
+        assertFalse(SparseMatrix.isSparse(A));
+        assertFalse(SparseMatrix.fromDense(new double[][] { { Double.NaN } }).isFinite());
+        assertThrows(IllegalArgumentException.class, () -> SparseMatrix.fromDense(new double[][] { { 1 }, { 2, 3 } }));
+    }
+
+    @Test
+    // Test the kernels against dense products and sums
+    void testKernels() {
+        SparseMatrix a = SparseMatrix.fromDense(A);
+        SparseMatrix b = SparseMatrix.fromDense(B);
+        double[][] expected = multiply(A, B);
+
+        double[][] out = new double[3][];
+        a.multiplyRows(0, 2, B, 1, out);
+        a.multiplyRows(2, 3, B, 1, out);
+        assertArrayEquals(expected, out);
+
+        out = new double[3][];
+        SparseMatrix.multiplyRows(A, 0, 3, b.toColumnMajor(), -1, out);
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                assertEquals(-expected[i][j], out[i][j]);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> SparseMatrix.multiplyRows(A, 0, 3, b, 1, new double[3][]));
+
+        int[][] indices = new int[3][];
+        double[][] values = new double[3][];
+        a.multiplyRows(0, 3, b, 1, indices, values);
+        SparseMatrix product = SparseMatrix.fromRows(3, indices, values);
+        assertArrayEquals(expected, product.toDense());
+        assertEquals(0, indices[1].length);
+
+        a.addRows(0, 3, 2, a, -1, indices, values);
+        assertArrayEquals(A, SparseMatrix.fromRows(4, indices, values).toDense());
+        a.addRows(0, 3, 1, a, -1, indices, values);
+        assertEquals(0, SparseMatrix.fromRows(4, indices, values).nonZeros()); // cancelled elements are dropped
+    }
+}
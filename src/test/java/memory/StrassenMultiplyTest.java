@@ -0,0 +1,136 @@
+package memory;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+class StrassenMultiplyTest {
+
+    private static final double DELTA = 1e-9;
+
+    private static double[][] randomMatrix(Random rand, int rows, int cols) {
+        double[][] m = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                m[i][j] = rand.nextInt(21) - 10;
+            }
+        }
+        return m;
+    }
+
+    // runs every row of every leaf product, in the order given by the step
+    private static void runAll(StrassenMultiply kernel, int step) {
+        for (int p = kernel.productCount() - 1; p >= 0; p--) {
+            for (int i = 0; i < kernel.blockSize(); i += step) {
+                kernel.multiplyRows(p, i, Math.min(i + step, kernel.blockSize()));
+            }
+        }
+    }
+
+    @Test
+    // Test Strassen against the blocked kernel, on odd sizes that need padding at every level
+    void testMatchesBlockedMultiply() {
+        Random rand = new Random(11);
+        for (int n : new int[] { 37, 64, 101 }) {
+            double[][] a = randomMatrix(rand, n, n);
+            double[][] b = randomMatrix(rand, n, n);
+            double[][] c = randomMatrix(rand, n, n);
+            SharedMatrix right = new SharedMatrix();
+            right.loadColumnMajor(b);
+
+            SharedMatrix expected = new SharedMatrix(a);
+            new BlockedMultiply(right, -2).multiplyRows(expected, 0, n, new SharedMatrix(c), 3);
+
+            SharedMatrix left = new SharedMatrix(a);
+            StrassenMultiply kernel = new StrassenMultiply(left, right, -2, new SharedMatrix(c), 3, 8);
+            assertTrue(kernel.productCount() >= 49); // at least two levels
+            assertTrue(kernel.blockSize() >= 8 && kernel.blockSize() < 16);
+            runAll(kernel, 5);
+
+            double[][] want = expected.readRowMajor();
+            double[][] got = left.readRowMajor();
+            for (int i = 0; i < n; i++) {
+                assertArrayEquals(want[i], got[i], DELTA);
+            }
+        }
+    }
+
+    @Test
+    // Test sizes that are odd or not a power of two, down to a single level on a 3 x 3 matrix
+    void testOddAndUnevenSizes() {
+        Random rand = new Random(5);
+        for (int n : new int[] { 3, 5, 12, 50, 63 }) {
+            double[][] a = randomMatrix(rand, n, n);
+            double[][] b = randomMatrix(rand, n, n);
+            SharedMatrix right = new SharedMatrix();
+            right.loadColumnMajor(b);
+
+            SharedMatrix expected = new SharedMatrix(a);
+            new BlockedMultiply(right).multiplyRows(expected, 0, n);
+
+            SharedMatrix left = new SharedMatrix(a);
+            StrassenMultiply kernel = new StrassenMultiply(left, right, 1, null, 0, 2);
+            runAll(kernel, 3);
+
+            double[][] want = expected.readRowMajor();
+            double[][] got = left.readRowMajor();
+            for (int i = 0; i < n; i++) {
+                assertArrayEquals(want[i], got[i], DELTA);
+            }
+        }
+    }
+
+    @Test
+    // Test that a failing product fails the multiplication instead of leaving the left operand behind
+    void testFailedProductFailsTheMultiplication() {
+        double[][] a = { { 1, 2, 3, 4 }, { 5, 6, 7, 8 }, { 9, 10, 11, 12 }, { 13, 14, 15, 16 } };
+        SharedMatrix right = new SharedMatrix();
+        right.loadColumnMajor(a);
+        SharedMatrix left = new SharedMatrix(a);
+        StrassenMultiply kernel = new StrassenMultiply(left, right, 1, null, 0, 2);
+        assertEquals(7, kernel.productCount());
+        kernel.multiplyRows(0, 0, 2);
+
+        right.get(0).replace(new double[] { 1 }); // product 1 reads the first column of B11
+        assertThrows(IndexOutOfBoundsException.class, () -> kernel.multiplyRows(1, 0, 2));
+        assertThrows(IllegalStateException.class, () -> kernel.multiplyRows(2, 0, 2));
+        assertArrayEquals(a, left.readRowMajor());
+    }
+
+    @Test
+    // Test that the left operand is only replaced once the last rows are computed
+    void testResultWrittenByLastCall() {
+        double[][] a = { { 1, 2 }, { 3, 4 } };
+        SharedMatrix right = new SharedMatrix();
+        right.loadColumnMajor(new double[][] { { 5, 6 }, { 7, 8 } });
+        SharedMatrix left = new SharedMatrix(a);
+        StrassenMultiply kernel = new StrassenMultiply(left, right, 1, null, 0, 1);
+        assertEquals(7, kernel.productCount());
+        assertEquals(1, kernel.blockSize());
+        for (int p = 0; p < 6; p++) {
+            kernel.multiplyRows(p, 0, 1);
+        }
+        assertArrayEquals(a, left.readRowMajor());
+        kernel.multiplyRows(6, 0, 1);
+        assertArrayEquals(new double[][] { { 19, 22 }, { 43, 50 } }, left.readRowMajor());
+    }
+
+    @Test
+    // Test invalid operands
+    void testInvalidOperands() {
+        SharedMatrix square = new SharedMatrix(new double[][] { { 1, 2 }, { 3, 4 } });
+        SharedMatrix columns = new SharedMatrix();
+        columns.loadColumnMajor(new double[][] { { 1, 2 }, { 3, 4 } });
+        SharedMatrix wide = new SharedMatrix();
+        wide.loadColumnMajor(new double[][] { { 1, 2, 3 }, { 4, 5, 6 } });
+        assertThrows(IllegalArgumentException.class, () -> new StrassenMultiply(null, columns, 1, null, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new StrassenMultiply(square, square, 1, null, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new StrassenMultiply(square, wide, 1, null, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new StrassenMultiply(square, columns, 1, null, 0, 0));
+
+        StrassenMultiply kernel = new StrassenMultiply(square, columns, 1, null, 0, 1);
+        assertThrows(IndexOutOfBoundsException.class, () -> kernel.multiplyRows(7, 0, 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> kernel.multiplyRows(0, 0, 2));
+    }
+}
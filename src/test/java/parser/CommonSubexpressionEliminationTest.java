@@ -0,0 +1,75 @@
+package parser;
+
+import memory.SharedMatrix;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommonSubexpressionEliminationTest {
+
+    private static ComputationNode x() {
+        return new ComputationNode(new double[][]{{1, 2}, {3, 4}});
+    }
+
+    @Test
+    void nullRootThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new CommonSubexpressionElimination().eliminate(null));
+    }
+
+    @Test
+    void identicalLiteralsAreMerged() {
+        // T(X) * X with X inlined twice
+        ComputationNode transpose = new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(x()));
+        ComputationNode root = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(transpose, x()));
+
+        assertEquals(1, new CommonSubexpressionElimination().eliminate(root));
+        assertSame(transpose.getChildren().get(0), root.getChildren().get(1));
+    }
+
+    @Test
+    void identicalSubtreesAreMerged() {
+        ComputationNode first = new ComputationNode(ComputationNodeType.NEGATE, List.of(x()));
+        ComputationNode second = new ComputationNode(ComputationNodeType.NEGATE, List.of(x()));
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(first, second));
+
+        CommonSubexpressionElimination cse = new CommonSubexpressionElimination();
+        assertEquals(2, cse.eliminate(root)); // the literal and the negation
+        assertEquals(2, cse.getEliminatedNodes());
+        assertSame(root.getChildren().get(0), root.getChildren().get(1));
+    }
+
+    @Test
+    void differentSubtreesAreKept() {
+        ComputationNode a = x();
+        ComputationNode b = new ComputationNode(new double[][]{{1, 2}, {3, 5}});
+        ComputationNode ab = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(a, b));
+        ComputationNode ba = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(b, a));
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(ab, ba));
+
+        assertEquals(0, new CommonSubexpressionElimination().eliminate(root));
+        assertNotSame(root.getChildren().get(0), root.getChildren().get(1));
+    }
+
+    @Test
+    void singlePrecisionLiteralsAreMerged() {
+        ComputationNode a = new ComputationNode(new SharedMatrix(new float[][]{{1, 2}, {3, 4}}));
+        ComputationNode b = new ComputationNode(new SharedMatrix(new float[][]{{1, 2}, {3, 4}}));
+        ComputationNode c = new ComputationNode(new SharedMatrix(new float[][]{{1, 2}, {3, 5}}));
+        ComputationNode sum = new ComputationNode(ComputationNodeType.ADD, List.of(a, b));
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(sum, c));
+
+        assertEquals(1, new CommonSubexpressionElimination().eliminate(root));
+        assertSame(sum.getChildren().get(0), sum.getChildren().get(1));
+        assertNotSame(sum.getChildren().get(0), root.getChildren().get(1));
+    }
+
+    @Test
+    void singlePrecisionLiteralsAreNotMergedWithDoubleOnes() {
+        ComputationNode single = new ComputationNode(new SharedMatrix(new float[][]{{1, 2}, {3, 4}}));
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(single, x()));
+
+        assertEquals(0, new CommonSubexpressionElimination().eliminate(root));
+    }
+}
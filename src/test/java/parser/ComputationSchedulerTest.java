@@ -0,0 +1,89 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComputationSchedulerTest {
+
+    private static ComputationNode leaf() {
+        return new ComputationNode(new double[][]{{1}});
+    }
+
+    @Test
+    void nullRootThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new ComputationScheduler(null));
+    }
+
+    @Test
+    void matrixRootHasNothingToSchedule() {
+        ComputationScheduler scheduler = new ComputationScheduler(leaf());
+        assertNull(scheduler.poll());
+        assertTrue(scheduler.isDone());
+    }
+
+    @Test
+    void parentBecomesReadyAfterAllOperands() {
+        ComputationNode negate = new ComputationNode(ComputationNodeType.NEGATE, List.of(leaf()));
+        ComputationNode transpose = new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(leaf()));
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(negate, transpose));
+        ComputationScheduler scheduler = new ComputationScheduler(root);
+
+        assertEquals(List.of(negate, transpose), scheduler.drainReady());
+        assertNull(scheduler.poll());
+
+        scheduler.resolved(negate);
+        assertNull(scheduler.poll());
+        scheduler.resolved(transpose);
+        assertSame(root, scheduler.poll());
+        assertFalse(scheduler.isDone());
+        scheduler.resolved(root);
+        assertTrue(scheduler.isDone());
+        assertThrows(IllegalArgumentException.class, () -> scheduler.resolved(root));
+    }
+
+    @Test
+    void deepChainIsScheduledWithoutRecursion() {
+        List<ComputationNode> operands = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            operands.add(leaf());
+        }
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, operands);
+        root.associativeNesting();
+
+        ComputationScheduler scheduler = new ComputationScheduler(root);
+        int count = 0;
+        ComputationNode node = scheduler.poll();
+        while (node != null) {
+            assertEquals(2, node.getChildren().size());
+            scheduler.resolved(node);
+            count++;
+            node = scheduler.poll();
+        }
+        assertEquals(99_999, count);
+        assertTrue(scheduler.isDone());
+    }
+
+    @Test
+    void sharedNodeIsScheduledOnceForAllParents() {
+        ComputationNode shared = new ComputationNode(ComputationNodeType.NEGATE, List.of(leaf()));
+        ComputationNode left = new ComputationNode(ComputationNodeType.ADD, List.of(shared, shared));
+        ComputationNode right = new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(shared));
+        ComputationNode root = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(left, right));
+        ComputationScheduler scheduler = new ComputationScheduler(root);
+
+        assertEquals(List.of(shared), scheduler.drainReady());
+        scheduler.resolved(shared);
+        List<ComputationNode> next = scheduler.drainReady();
+        assertEquals(2, next.size());
+        assertTrue(next.contains(left) && next.contains(right));
+        scheduler.resolved(left);
+        scheduler.resolved(right);
+        assertSame(root, scheduler.poll());
+        scheduler.resolved(root);
+        assertTrue(scheduler.isDone());
+    }
+}
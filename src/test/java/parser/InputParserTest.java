@@ -0,0 +1,126 @@
+package parser;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import memory.Precision;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InputParserTest {
+
+    private static final JsonFactory factory = new JsonFactory();
+
+    private static ComputationNode parse(String json) throws IOException, ParseException {
+        return new InputParser().parse(factory.createParser(json), Path.of(""));
+    }
+
+    @Test
+    void parsesOperationTree() throws Exception {
+        ComputationNode root = parse("{\"comment\": {\"x\": [1]}, \"operands\": [[[1, 2]], "
+                + "{\"operator\": \"T\", \"operands\": [[[3], [4]]]}], \"operator\": \"+\"}");
+        assertEquals(ComputationNodeType.ADD, root.getNodeType());
+        assertEquals(2, root.getChildren().size());
+        assertArrayEquals(new double[][]{{1, 2}}, root.getChildren().get(0).getMatrix());
+        ComputationNode transpose = root.getChildren().get(1);
+        assertEquals(ComputationNodeType.TRANSPOSE, transpose.getNodeType());
+        assertArrayEquals(new double[][]{{3}, {4}}, transpose.getChildren().get(0).getMatrix());
+    }
+
+    @Test
+    void entriesAreReadLikeAsDouble() throws Exception {
+        ComputationNode node = parse("[[1, -2.5, 1e3], [\"4.5\", true, null]]");
+        assertArrayEquals(new double[][]{{1, -2.5, 1000}, {4.5, 1, 0}}, node.getMatrix());
+    }
+
+    @Test
+    void mostlyZeroLiteralsAreCompressed() throws Exception {
+        ComputationNode identity = parse("[[1, 0, 0, 0], [0, 1, 0, 0], [0, 0, 1, 0], [0, 0, 0, 1],"
+                + " [0, 0, 0, 0], [0, 0, 0, 0], [0, 0, 0, 0], [0, 0, 0, 0], [0, 0, 0, 0], [0, 0, 0, 0]]");
+        assertNotNull(identity.getSparse());
+        assertEquals(4, identity.getSparse().nonZeros());
+        assertEquals(1.0, identity.getMatrix()[3][3]);
+        assertNull(identity.getSparse()); // expanded for good once asked for
+
+        assertNull(parse("[[1, 2], [0, 0]]").getSparse());
+    }
+
+    @Test
+    void wideRowsGrowPastInitialCapacity() throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 3; i++) {
+            json.append(i == 0 ? "[" : ",[");
+            for (int j = 0; j < 100; j++) {
+                json.append(j == 0 ? "" : ",").append(i * 100 + j);
+            }
+            json.append("]");
+        }
+        double[][] m = parse(json.append("]").toString()).getMatrix();
+        assertEquals(3, m.length);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(100, m[i].length);
+            assertEquals(i * 100 + 99, m[i][99]);
+        }
+    }
+
+    @Test
+    void invalidStructuresThrow() {
+        assertThrows(ParseException.class, () -> parse(""));
+        assertThrows(ParseException.class, () -> parse("42"));
+        assertThrows(ParseException.class, () -> parse("[]"));
+        assertThrows(ParseException.class, () -> parse("[1, 2]"));
+        assertThrows(ParseException.class, () -> parse("[[1, 2], [3]]"));
+        assertThrows(ParseException.class, () -> parse("[[1], [2, 3]]"));
+        assertThrows(ParseException.class, () -> parse("[[1], 2]"));
+        assertThrows(ParseException.class, () -> parse("{\"operands\": [[[1]]]}"));
+        assertThrows(ParseException.class, () -> parse("{\"operator\": \"-\", \"operands\": [[1]]}"));
+        assertThrows(ParseException.class, () -> parse("{\"operator\": \"-\", \"operands\": 1}"));
+        assertThrows(IllegalArgumentException.class, () -> parse("{\"operator\": \"/\", \"operands\": []}"));
+    }
+
+    @Test
+    void parsesFilesAndReportsReadErrors(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("in.json");
+        Files.writeString(file, "{\"operator\": \"-\", \"operands\": [[[1, 2], [3, 4]]]}");
+        ComputationNode root = new InputParser().parse(file.toString());
+        assertEquals(ComputationNodeType.NEGATE, root.getNodeType());
+
+        assertThrows(ParseException.class, () -> new InputParser().parse(dir.resolve("missing.json").toString()));
+        Files.writeString(file, "[[1, 2], [3,");
+        assertThrows(ParseException.class, () -> new InputParser().parse(file.toString()));
+    }
+
+    @Test
+    void fileLeavesAreResolvedAgainstTheInputDirectory(@TempDir Path dir) throws Exception {
+        Files.createDirectories(dir.resolve("data"));
+        MatrixFile.write(new double[][]{{1, 2}, {3, 4}}, dir.resolve("data/a.bin"));
+        Path input = dir.resolve("in.json");
+        Files.writeString(input, "{\"operator\": \"+\", \"operands\": [{\"file\": \"data/a.bin\"}, [[1, 1], [1, 1]]]}");
+
+        ComputationNode root = new InputParser().parse(input.toString());
+        assertArrayEquals(new double[][]{{1, 2}, {3, 4}}, root.getChildren().get(0).getMatrix());
+
+        Files.writeString(input, "{\"file\": \"data/missing.bin\"}");
+        assertThrows(ParseException.class, () -> new InputParser().parse(input.toString()));
+        assertThrows(ParseException.class, () -> parse("{\"file\": 3}"));
+        assertThrows(ParseException.class, () -> parse("{\"file\": \"a.bin\", \"operator\": \"-\", \"operands\": []}"));
+        ParseException neither = assertThrows(ParseException.class, () -> parse("{\"op\": \"*\", \"args\": []}"));
+        assertEquals("Invalid node structure: an operation needs an operator and operands, "
+                + "or a leaf needs a matrix or a file.", neither.getMessage());
+    }
+
+    @Test
+    void singlePrecisionLiteralsAreKeptAsFloats() throws Exception {
+        ComputationNode node = new InputParser(Precision.FLOAT32)
+                .parse(factory.createParser("[[0.1, 0], [0, 0], [0, 0], [0, 0]]"), Path.of(""));
+        assertNull(node.getSparse());
+        assertNotNull(node.getResult());
+        assertEquals(Precision.FLOAT32, node.getResult().getPrecision());
+        assertEquals((double) 0.1f, node.getMatrix()[0][0]);
+    }
+}
@@ -0,0 +1,69 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MatrixChainOptimizerTest {
+
+    private static ComputationNode matrix(int rows, int cols) {
+        return new ComputationNode(new double[rows][cols]);
+    }
+
+    @Test
+    void nullRootThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new MatrixChainOptimizer().optimize(null));
+    }
+
+    @Test
+    void chainIsRebracketedToCheapestOrder() {
+        ComputationNode a = matrix(10, 2);
+        ComputationNode b = matrix(2, 10);
+        ComputationNode c = matrix(10, 2);
+        ComputationNode root = new ComputationNode(ComputationNodeType.MULTIPLY, new ArrayList<>(List.of(a, b, c)));
+
+        MatrixChainOptimizer optimizer = new MatrixChainOptimizer();
+        long saved = optimizer.optimize(root);
+
+        // (A * B) * C costs 2 * (10*2*10 + 10*10*2), A * (B * C) costs 2 * (2*10*2 + 10*2*2)
+        assertEquals(800, optimizer.getOriginalFlops());
+        assertEquals(160, optimizer.getOptimizedFlops());
+        assertEquals(640, saved);
+        assertEquals(1, optimizer.getReorderedChains());
+
+        List<ComputationNode> children = root.getChildren();
+        assertEquals(2, children.size());
+        assertSame(a, children.get(0));
+        assertEquals(ComputationNodeType.MULTIPLY, children.get(1).getNodeType());
+        assertEquals(List.of(b, c), children.get(1).getChildren());
+    }
+
+    @Test
+    void explicitNestingAndTransposesAreUnderstood() {
+        // (T(A) * B) * C with A 2x10, so T(A) is 10x2
+        ComputationNode transposed = new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(matrix(2, 10)));
+        ComputationNode inner = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(transposed, matrix(2, 10)));
+        ComputationNode root = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(inner, matrix(10, 2)));
+
+        MatrixChainOptimizer optimizer = new MatrixChainOptimizer();
+        assertEquals(640, optimizer.optimize(root));
+        assertSame(transposed, root.getChildren().get(0));
+    }
+
+    @Test
+    void mismatchingShapesAreLeftAlone() {
+        ComputationNode a = matrix(3, 2);
+        ComputationNode b = matrix(3, 2);
+        ComputationNode c = matrix(2, 2);
+        List<ComputationNode> operands = new ArrayList<>(List.of(a, b, c));
+        ComputationNode root = new ComputationNode(ComputationNodeType.MULTIPLY, operands);
+
+        MatrixChainOptimizer optimizer = new MatrixChainOptimizer();
+        assertEquals(0, optimizer.optimize(root));
+        assertEquals(0, optimizer.getReorderedChains());
+        assertEquals(List.of(a, b, c), root.getChildren());
+    }
+}
@@ -0,0 +1,95 @@
+package parser;
+
+import memory.SharedMatrix;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MatrixFileTest {
+
+    @Test
+    void roundTripsWithLittleEndianLayout(@TempDir Path dir) throws IOException {
+        double[][] data = {{1, -2.5, 3}, {4, 5, Double.MAX_VALUE}};
+        Path file = dir.resolve("m.bin");
+        MatrixFile.write(data, file);
+
+        byte[] bytes = Files.readAllBytes(file);
+        assertEquals(MatrixFile.HEADER_SIZE + 6 * Double.BYTES, bytes.length);
+        assertEquals("LAEM", new String(bytes, 0, 4, StandardCharsets.US_ASCII));
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(MatrixFile.FLOAT64, buffer.get(4));
+        assertEquals(2, buffer.getInt(8));
+        assertEquals(3, buffer.getInt(12));
+        assertEquals(-2.5, buffer.getDouble(MatrixFile.HEADER_SIZE + Double.BYTES));
+
+        assertArrayEquals(data, MatrixFile.read(file));
+        assertTrue(MatrixFile.isBinaryPath(file.toString()));
+    }
+
+    @Test
+    void rowsWiderThanTheBufferAreSplit(@TempDir Path dir) throws IOException {
+        double[][] data = new double[2][200_000];
+        for (int j = 0; j < data[0].length; j++) {
+            data[0][j] = j;
+            data[1][j] = -j;
+        }
+        Path file = dir.resolve("wide.bin");
+        MatrixFile.write(data, file);
+        assertArrayEquals(data, MatrixFile.read(file));
+    }
+
+    @Test
+    void writesResolvedNodesFromStorage(@TempDir Path dir) throws IOException {
+        double[][] data = {{1, 2}, {3, 4}, {5, 6}};
+        SharedMatrix columnMajor = new SharedMatrix();
+        columnMajor.loadColumnMajor(data);
+        ComputationNode node = new ComputationNode(ComputationNodeType.ADD, null);
+        node.resolve(columnMajor, true);
+
+        Path file = dir.resolve("node.bin");
+        MatrixFile.write(node, file);
+        assertArrayEquals(new double[][]{{-1, -2}, {-3, -4}, {-5, -6}}, MatrixFile.read(file));
+    }
+
+    @Test
+    void invalidFilesAreRejected(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("bad.bin");
+        Files.write(file, new byte[] {1, 2, 3});
+        assertThrows(IOException.class, () -> MatrixFile.read(file));
+
+        Files.writeString(file, "{\"result\": [[1.0, 2.0]]}");
+        assertThrows(IOException.class, () -> MatrixFile.read(file));
+
+        MatrixFile.write(new double[][]{{1, 2}}, file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IOException.class, () -> MatrixFile.read(file));
+
+        bytes[4] = 9; // unknown dtype
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> MatrixFile.read(file));
+
+        assertThrows(IllegalArgumentException.class, () -> MatrixFile.write(new double[][]{{1}, {2, 3}}, file));
+    }
+
+    @Test
+    void singlePrecisionResultsAreWrittenAsFloat32(@TempDir Path dir) throws IOException {
+        ComputationNode node = new ComputationNode(new SharedMatrix(new float[][]{{0.1f, 2}, {3, 4}, {5, 6}}));
+        Path file = dir.resolve("floats.bin");
+        MatrixFile.write(node, file);
+        assertEquals(MatrixFile.HEADER_SIZE + 6 * Float.BYTES, Files.size(file));
+        assertEquals(MatrixFile.FLOAT32, Files.readAllBytes(file)[4]);
+        assertArrayEquals(new int[]{3, 2}, MatrixFile.shape(file));
+        assertArrayEquals(new double[][]{{0.1f, 2}, {3, 4}, {5, 6}}, MatrixFile.read(file));
+        assertThrows(IOException.class, () -> MatrixFile.map(file));
+    }
+}
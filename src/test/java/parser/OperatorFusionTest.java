@@ -0,0 +1,61 @@
+package parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OperatorFusionTest {
+
+    private static ComputationNode leaf(double value) {
+        return new ComputationNode(new double[][]{{value}});
+    }
+
+    @Test
+    void nullRootThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new OperatorFusion().fuse(null));
+    }
+
+    @Test
+    void productOnEitherSideIsFused() {
+        ComputationNode a = leaf(1), b = leaf(2), c = leaf(3);
+        ComputationNode left = new ComputationNode(ComputationNodeType.ADD,
+                List.of(new ComputationNode(ComputationNodeType.MULTIPLY, List.of(a, b)), c));
+        assertEquals(1, new OperatorFusion().fuse(left));
+        assertEquals(ComputationNodeType.MULTIPLY_ADD, left.getNodeType());
+        assertEquals(List.of(a, b, c), left.getChildren());
+
+        ComputationNode right = new ComputationNode(ComputationNodeType.ADD,
+                List.of(c, new ComputationNode(ComputationNodeType.MULTIPLY, List.of(a, b))));
+        assertEquals(1, new OperatorFusion().fuse(right));
+        assertEquals(List.of(a, b, c), right.getChildren());
+    }
+
+    @Test
+    void nestedAdditionsAreFusedOnce() {
+        // (A * B + C) + D * E: the outer addition takes the product, the inner one stays an operand
+        ComputationNode inner = new ComputationNode(ComputationNodeType.ADD,
+                List.of(new ComputationNode(ComputationNodeType.MULTIPLY, List.of(leaf(1), leaf(2))), leaf(3)));
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD,
+                List.of(inner, new ComputationNode(ComputationNodeType.MULTIPLY, List.of(leaf(4), leaf(5)))));
+
+        OperatorFusion fusion = new OperatorFusion();
+        assertEquals(2, fusion.fuse(root));
+        assertEquals(2, fusion.getFusedNodes());
+        assertEquals(ComputationNodeType.MULTIPLY_ADD, root.getNodeType());
+        assertSame(inner, root.getChildren().get(2));
+        assertEquals(ComputationNodeType.MULTIPLY_ADD, inner.getNodeType());
+    }
+
+    @Test
+    void otherNodesAreLeftAlone() {
+        ComputationNode add = new ComputationNode(ComputationNodeType.ADD, List.of(leaf(1), leaf(2)));
+        ComputationNode root = new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(add, new ComputationNode(ComputationNodeType.NEGATE, List.of(leaf(3)))));
+
+        assertEquals(0, new OperatorFusion().fuse(root));
+        assertEquals(ComputationNodeType.MULTIPLY, root.getNodeType());
+        assertEquals(ComputationNodeType.ADD, add.getNodeType());
+    }
+}
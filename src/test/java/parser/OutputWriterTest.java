@@ -0,0 +1,79 @@
+package parser;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import memory.SharedMatrix;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutputWriterTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static double[][] readResult(Path file) throws Exception {
+        return mapper.treeToValue(mapper.readTree(file.toFile()).get("result"), double[][].class);
+    }
+
+    @Test
+    void writesCompactByDefault(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("out.json");
+        OutputWriter.write(new double[][]{{1, -2.5}, {0, 4}}, file.toString());
+        assertEquals("{\"result\":[[1.0,-2.5],[0.0,4.0]]}", Files.readString(file));
+
+        OutputWriter.write(new double[][]{{1, -2.5}, {0, 4}}, file.toString(), true);
+        assertTrue(Files.readString(file).contains("\n"));
+        assertArrayEquals(new double[][]{{1, -2.5}, {0, 4}}, readResult(file));
+    }
+
+    @Test
+    void writesErrors(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("out.json");
+        OutputWriter.write("Error: \"bad\" input", file.toString());
+        JsonNode node = mapper.readTree(file.toFile());
+        assertEquals("Error: \"bad\" input", node.get("error").asText());
+    }
+
+    @Test
+    void streamsResolvedNodesFromStorage(@TempDir Path dir) throws Exception {
+        double[][] data = new double[150][3];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = new double[]{i, -i, 2 * i};
+        }
+        Path file = dir.resolve("out.json");
+
+        ComputationNode plain = new ComputationNode(ComputationNodeType.ADD, null);
+        plain.resolve(new SharedMatrix(data));
+        OutputWriter.write(plain, file.toString());
+        assertArrayEquals(data, readResult(file));
+
+        SharedMatrix columnMajor = new SharedMatrix();
+        columnMajor.loadColumnMajor(data);
+        ComputationNode negated = new ComputationNode(ComputationNodeType.ADD, null);
+        negated.resolve(columnMajor, true);
+        OutputWriter.write(negated, file.toString());
+        double[][] expected = new ComputationNode(data).getMatrix();
+        for (double[] row : expected) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = -row[j];
+            }
+        }
+        assertArrayEquals(expected, readResult(file));
+
+        ComputationNode stored = new ComputationNode(new double[][]{{1, 2}});
+        OutputWriter.write(stored, file.toString());
+        assertArrayEquals(new double[][]{{1, 2}}, readResult(file));
+    }
+
+    @Test
+    void writesSinglePrecisionEntriesAsFloats(@TempDir Path dir) throws Exception {
+        ComputationNode node = new ComputationNode(new SharedMatrix(new float[][]{{0.1f, -2.5f}}));
+        Path file = dir.resolve("out.json");
+        OutputWriter.write(node, file.toString());
+        assertEquals("{\"result\":[[0.1,-2.5]]}", Files.readString(file));
+    }
+}
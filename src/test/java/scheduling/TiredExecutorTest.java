@@ -6,8 +6,10 @@ import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -111,6 +113,73 @@ class TiredExecutorTest {
         assertTrue(finished.get(), "submitAll should block until all tasks complete");
     }
 
+    @Test
+    void interruptedSubmitAll_waitsForDispatchedTasks() throws InterruptedException {
+        executor = new TiredExecutor(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean firstDone = new AtomicBoolean(false);
+        AtomicBoolean secondRan = new AtomicBoolean(false);
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        AtomicBoolean stillInterrupted = new AtomicBoolean(false);
+
+        // the only worker is held by the first task, so the client blocks dispatching the second
+        Thread client = new Thread(() -> {
+            try {
+                executor.submitAll(List.of(() -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ignored) {}
+                    firstDone.set(true);
+                }, () -> secondRan.set(true)));
+            } catch (RuntimeException e) {
+                thrown.set(e);
+            }
+            stillInterrupted.set(Thread.currentThread().isInterrupted());
+        });
+        client.start();
+        started.await();
+        client.interrupt();
+        client.join(100);
+        assertTrue(client.isAlive(), "submitAll must wait for the task it already dispatched");
+
+        release.countDown();
+        client.join();
+        assertTrue(firstDone.get());
+        assertFalse(secondRan.get());
+        assertInstanceOf(IllegalStateException.class, thrown.get());
+        assertTrue(stillInterrupted.get());
+    }
+
+    @Test
+    void concurrentSubmitAll_waitsOnlyForOwnTasks() throws InterruptedException {
+        executor = new TiredExecutor(2);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean slowDone = new AtomicBoolean(false);
+
+        Thread slowClient = new Thread(() -> executor.submitAll(List.of(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {}
+            slowDone.set(true);
+        })));
+        slowClient.start();
+
+        AtomicInteger counter = new AtomicInteger(0);
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            tasks.add(counter::incrementAndGet);
+        }
+        executor.submitAll(tasks); // returns while the other client's task is still blocked
+        assertEquals(20, counter.get());
+        assertFalse(slowDone.get());
+
+        release.countDown();
+        slowClient.join();
+        assertTrue(slowDone.get());
+    }
+
 
     @Test
     void shutdownAfterTasks_tasksCompleteFirst() throws InterruptedException {
@@ -207,4 +276,121 @@ class TiredExecutorTest {
             assertEquals(-(i + 2), vectors[i].get(2), DELTA);
         }
     }
+
+    @Test
+    void constructorRejectsNullMode() {
+        assertThrows(IllegalArgumentException.class, () -> new TiredExecutor(2, null));
+    }
+
+    @Test
+    void workStealing_allTasksExecutedAndAccounted() {
+        executor = new TiredExecutor(3, SchedulingMode.WORK_STEALING);
+        assertEquals(SchedulingMode.WORK_STEALING, executor.getSchedulingMode());
+        AtomicInteger counter = new AtomicInteger(0);
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            tasks.add(counter::incrementAndGet);
+        }
+        // one slow task keeps a worker busy, the others must steal the rest of its deque
+        tasks.add(0, () -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {}
+        });
+        executor.submitAll(tasks);
+        assertEquals(3000, counter.get());
+
+        executor.submitAll(List.of(counter::incrementAndGet));
+        assertEquals(3001, counter.get());
+        String report = executor.getWorkerReport();
+        assertTrue(report.contains("Worker #2"));
+    }
+
+    @Test
+    void workStealing_failingTaskDoesNotStopWorkers() {
+        executor = new TiredExecutor(2, SchedulingMode.WORK_STEALING);
+        AtomicInteger counter = new AtomicInteger(0);
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            tasks.add(() -> {
+                throw new IllegalStateException("failing task");
+            });
+            tasks.add(counter::incrementAndGet);
+        }
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> executor.submitAll(tasks));
+        assertEquals("failing task", e.getMessage());
+        assertEquals(10, counter.get(), "the other tasks still run before submitAll rethrows");
+
+        executor.submitAll(List.of(counter::incrementAndGet));
+        assertEquals(11, counter.get());
+    }
+
+    @Test
+    void submitAll_rethrowsFirstFailureOnceAllTasksAreDone() {
+        executor = new TiredExecutor(2);
+        AtomicInteger counter = new AtomicInteger(0);
+        List<Runnable> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            throw new IllegalArgumentException("bad operand");
+        });
+        for (int i = 0; i < 20; i++) {
+            tasks.add(counter::incrementAndGet);
+        }
+        assertThrows(IllegalArgumentException.class, () -> executor.submitAll(tasks));
+        assertEquals(20, counter.get());
+
+        executor.submitAll(List.of(counter::incrementAndGet));
+        assertEquals(21, counter.get());
+    }
+
+    @Test
+    void sharedQueue_rejectsInvalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new TiredExecutor(2, SchedulingMode.SHARED_QUEUE, 0));
+    }
+
+    @Test
+    void sharedQueue_submitterOverlapsWithWorkers() {
+        // a queue much smaller than the task count: submit waits for room, never for an idle worker
+        executor = new TiredExecutor(3, SchedulingMode.SHARED_QUEUE, 4);
+        AtomicInteger counter = new AtomicInteger(0);
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            tasks.add(counter::incrementAndGet);
+        }
+        executor.submitAll(tasks);
+        assertEquals(2000, counter.get());
+
+        executor.submitAll(List.of());
+        executor.submitAll(List.of(counter::incrementAndGet));
+        assertEquals(2001, counter.get());
+        assertTrue(executor.getWorkerReport().contains("Worker #2"));
+    }
+
+    @Test
+    void virtualThreads_capConcurrencyAndAccountTime() {
+        executor = new TiredExecutor(2, SchedulingMode.VIRTUAL_THREADS);
+        AtomicInteger running = new AtomicInteger(0);
+        AtomicInteger maxRunning = new AtomicInteger(0);
+        AtomicInteger counter = new AtomicInteger(0);
+
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            tasks.add(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException ignored) {}
+                counter.incrementAndGet();
+                running.decrementAndGet();
+            });
+        }
+        executor.submitAll(tasks);
+
+        assertEquals(50, counter.get());
+        assertTrue(maxRunning.get() <= 2, "at most one task per worker runs at a time");
+        String report = executor.getWorkerReport();
+        assertTrue(report.contains("Worker #1"));
+    }
 }
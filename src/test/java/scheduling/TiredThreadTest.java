@@ -89,6 +89,10 @@ public class TiredThreadTest {
         worker.start();
 
         worker.newTask(() -> counter.incrementAndGet());
+        // the handoff slot is free again once the worker took the first task
+        while (counter.get() < 1) {
+            Thread.sleep(1);
+        }
         worker.newTask(() -> counter.incrementAndGet());
         worker.shutdown();
         worker.join(1000);
@@ -96,4 +100,33 @@ public class TiredThreadTest {
         assertEquals(2, counter.get(), "The worker should have executed both tasks sequentially.");
     }
 
+    @Test
+    @Timeout(5)
+    // Test a busy worker takes one more task and rejects the next one
+    void testBusyWorkerRejectsTaskWhenHandoffSlotIsTaken() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger counter = new AtomicInteger(0);
+        TiredThread worker = new TiredThread(6, 1.0);
+        worker.start();
+
+        worker.newTask(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        worker.newTask(() -> counter.incrementAndGet());
+        assertThrows(IllegalStateException.class, () -> worker.newTask(() -> counter.incrementAndGet()));
+
+        release.countDown();
+        worker.shutdown();
+        worker.join(1000);
+        assertEquals(1, counter.get(), "Only the task in the handoff slot should have run.");
+        assertFalse(worker.isAlive());
+    }
+
 }
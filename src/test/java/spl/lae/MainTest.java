@@ -0,0 +1,110 @@
+package spl.lae;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import parser.MatrixFile;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MainTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final PrintStream quiet = new PrintStream(new ByteArrayOutputStream());
+
+    private static Path job(Path dir, String name, int scale) throws IOException {
+        Path file = dir.resolve(name);
+        Files.writeString(file, "{\"operator\": \"+\", \"operands\": [[[" + scale + ", 2]], [[1, " + scale + "]]]}");
+        return file;
+    }
+
+    private static JsonNode read(Path file) throws IOException {
+        return mapper.readTree(file.toFile());
+    }
+
+    @Test
+    void directoryBatchWritesEveryOutput(@TempDir Path in, @TempDir Path out) throws IOException {
+        for (int i = 0; i < 5; i++) {
+            job(in, "job" + i + ".json", i);
+        }
+        Files.writeString(in.resolve("broken.json"), "[1, 2]");
+        Files.writeString(in.resolve("notes.txt"), "not a job");
+
+        try (LinearAlgebraEngine lae = new LinearAlgebraEngine(2)) {
+            int[] counts = Main.runDirectory(lae, in, out, quiet);
+            assertArrayEquals(new int[] { 5, 1 }, counts);
+            assertTrue(lae.getWorkerReport().contains("Worker #1"));
+        }
+        for (int i = 0; i < 5; i++) {
+            JsonNode row = read(out.resolve("job" + i + ".json")).get("result").get(0);
+            assertEquals(i + 1, row.get(0).asDouble());
+            assertEquals(2 + i, row.get(1).asDouble());
+        }
+        assertTrue(read(out.resolve("broken.json")).has("error"));
+        assertFalse(Files.exists(out.resolve("notes.txt")));
+    }
+
+    @Test
+    void manifestBatchRunsEachPair(@TempDir Path dir) throws IOException {
+        Path a = job(dir, "a.json", 3);
+        Path b = job(dir, "b.json", 4);
+        String manifest = "# jobs\n"
+                + a + " " + dir.resolve("a_out.json") + "\n"
+                + "\n"
+                + b + "\t" + dir.resolve("b_out.json") + "\n"
+                + "only-one-path.json\n"
+                + dir.resolve("missing.json") + " " + dir.resolve("missing_out.json") + "\n";
+
+        try (LinearAlgebraEngine lae = new LinearAlgebraEngine(2)) {
+            int[] counts = Main.runManifest(lae, new BufferedReader(new StringReader(manifest)), quiet);
+            assertArrayEquals(new int[] { 2, 2 }, counts);
+        }
+        assertEquals(4, read(dir.resolve("a_out.json")).get("result").get(0).get(0).asDouble());
+        assertEquals(5, read(dir.resolve("b_out.json")).get("result").get(0).get(0).asDouble());
+        assertTrue(read(dir.resolve("missing_out.json")).has("error"));
+    }
+
+    @Test
+    void failedJobsLeaveBinaryOutputsAlone(@TempDir Path dir) throws IOException {
+        Path leaf = dir.resolve("a.bin");
+        MatrixFile.write(new double[][] { { 1, 2 }, { 3, 4 } }, leaf);
+        byte[] before = Files.readAllBytes(leaf);
+        Path input = dir.resolve("in.json");
+        Files.writeString(input, "{\"operator\": \"+\", \"operands\": [{\"file\": \"a.bin\"}, [[1, 2, 3]]]}");
+
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        String manifest = input + " " + leaf + "\n" + input + " " + dir.resolve("fresh.bin") + "\n";
+        try (LinearAlgebraEngine lae = new LinearAlgebraEngine(2)) {
+            int[] counts = Main.runManifest(lae, new BufferedReader(new StringReader(manifest)), new PrintStream(log));
+            assertArrayEquals(new int[] { 0, 2 }, counts);
+        }
+        assertTrue(log.toString().contains(leaf + ": failed: "));
+        assertArrayEquals(before, Files.readAllBytes(leaf));
+        assertFalse(Files.exists(dir.resolve("fresh.bin")));
+
+        Main.main(new String[] { "1", input.toString(), leaf.toString() });
+        assertArrayEquals(before, Files.readAllBytes(leaf));
+    }
+
+    @Test
+    void prettyOptionIndentsJsonOutputs(@TempDir Path dir) throws IOException {
+        Path input = job(dir, "in.json", 2);
+        Path compact = dir.resolve("compact.json");
+        Path pretty = dir.resolve("pretty.json");
+
+        Main.main(new String[] { "1", input.toString(), compact.toString() });
+        Main.main(new String[] { "1", "--pretty", "--float32", input.toString(), pretty.toString() });
+        assertFalse(Files.readString(compact).contains("\n"));
+        assertTrue(Files.readString(pretty).contains("\n"));
+        assertEquals(read(compact), read(pretty));
+    }
+}
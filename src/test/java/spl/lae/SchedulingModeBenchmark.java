@@ -0,0 +1,76 @@
+package spl.lae;
+
+import memory.StorageMode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+import scheduling.SchedulingMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs many tiny jobs concurrently, as a service embedding the engine would, and compares the
+ * executor's scheduling modes, with one engine per job and with one warm engine shared by all jobs.
+ * With fewer CPUs than worker threads, it mostly measures the cost of starting and parking threads.
+ * Skipped by default, run with: mvn test -Dtest=SchedulingModeBenchmark -Dlae.benchmark=true
+ */
+@EnabledIfSystemProperty(named = "lae.benchmark", matches = "true")
+class SchedulingModeBenchmark {
+
+    private static final int JOBS = 2000;
+    private static final int CONCURRENT_JOBS = 16;
+    private static final int THREADS = 4;
+    private static final int ROUNDS = 3;
+
+    private static ComputationNode tinyJob(int seed) {
+        double[][] a = {{seed, 1}, {2, 3}};
+        double[][] b = {{1, seed}, {0, 1}};
+        return new ComputationNode(ComputationNodeType.ADD, List.of(
+                new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(a), new ComputationNode(b))),
+                new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(b)))));
+    }
+
+    // best of ROUNDS, in milliseconds
+    private static double time(SchedulingMode mode, boolean sharedEngine) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            ExecutorService clients = Executors.newFixedThreadPool(CONCURRENT_JOBS);
+            long start = System.nanoTime();
+            try (LinearAlgebraEngine shared = new LinearAlgebraEngine(THREADS, StorageMode.PER_VECTOR, mode)) {
+                List<Future<double[][]>> results = new ArrayList<>();
+                for (int i = 0; i < JOBS; i++) {
+                    int seed = i;
+                    results.add(clients.submit(() -> {
+                        if (sharedEngine) {
+                            return shared.run(tinyJob(seed)).getMatrix();
+                        }
+                        try (LinearAlgebraEngine own = new LinearAlgebraEngine(THREADS, StorageMode.PER_VECTOR, mode)) {
+                            return own.run(tinyJob(seed)).getMatrix();
+                        }
+                    }));
+                }
+                for (int i = 0; i < JOBS; i++) {
+                    assertEquals(i - 1, results.get(i).get()[0][0]);
+                }
+            }
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+            clients.shutdown();
+        }
+        return best;
+    }
+
+    @Test
+    void platformAgainstVirtualThreads() throws Exception {
+        for (SchedulingMode mode : SchedulingMode.values()) {
+            System.out.printf("%-16s %d tiny jobs, %d at a time: engine per job %8.1f ms | shared engine %8.1f ms%n",
+                    mode, JOBS, CONCURRENT_JOBS, time(mode, false), time(mode, true));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package spl.lae;
+
+import memory.StorageMode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the classical kernel with Strassen at a few cutoffs on large square products.
+ * Skipped by default, run with: mvn test -Dtest=StrassenBenchmark -Dlae.benchmark=true
+ */
+@EnabledIfSystemProperty(named = "lae.benchmark", matches = "true")
+class StrassenBenchmark {
+
+    private static final int THREADS = 4;
+    private static final int ROUNDS = 3;
+
+    private static double[][] matrix(int n, int seed) {
+        double[][] m = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                m[i][j] = ((i * 7 + j * 3 + seed) % 11 - 5) / 4.0;
+            }
+        }
+        return m;
+    }
+
+    // best of ROUNDS, in milliseconds
+    private static double time(int cutoff, double[][] a, double[][] b) {
+        double best = Double.MAX_VALUE;
+        try (LinearAlgebraEngine lae = new LinearAlgebraEngine(THREADS, StorageMode.CONTIGUOUS)) {
+            lae.setEvaluationMode(EvaluationMode.PARALLEL);
+            lae.setTaskGranularity(TaskGranularity.CHUNKED);
+            lae.setStrassenCutoff(cutoff);
+            for (int round = 0; round < ROUNDS; round++) {
+                ComputationNode root = new ComputationNode(ComputationNodeType.MULTIPLY,
+                        List.of(new ComputationNode(a), new ComputationNode(b)));
+                long start = System.nanoTime();
+                lae.run(root);
+                best = Math.min(best, (System.nanoTime() - start) / 1e6);
+                assertNotNull(root.getResult());
+            }
+        }
+        return best;
+    }
+
+    @Test
+    void classicalAgainstStrassen() {
+        for (int n : new int[] { 1024, 2048 }) {
+            double[][] a = matrix(n, 1);
+            double[][] b = matrix(n, 2);
+            double classical = time(Integer.MAX_VALUE, a, b);
+            for (int cutoff : new int[] { 1024, 512, 256 }) {
+                if (n < 2 * cutoff) {
+                    continue;
+                }
+                double strassen = time(cutoff, a, b);
+                System.out.printf("%4d x %-4d classical %8.1f ms | cutoff %4d %8.1f ms | speedup %.2fx%n",
+                        n, n, classical, cutoff, strassen, classical / strassen);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package spl.lae;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares per-row and chunked task generation on nodes with many cheap rows. The numbers
+ * only mean something next to the number of CPUs they were taken on.
+ * Skipped by default, run with: mvn test -Dtest=TaskGranularityBenchmark -Dlae.benchmark=true
+ */
+@EnabledIfSystemProperty(named = "lae.benchmark", matches = "true")
+class TaskGranularityBenchmark {
+
+    private static final int THREADS = 4;
+    private static final int ROUNDS = 5;
+
+    private static double[][] matrix(int rows, int cols) {
+        double[][] m = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                m[i][j] = (i + 3 * j) % 11;
+            }
+        }
+        return m;
+    }
+
+    // best of ROUNDS, in milliseconds
+    private static double time(TaskGranularity granularity, Supplier<ComputationNode> tree) {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            try (LinearAlgebraEngine lae = new LinearAlgebraEngine(THREADS)) {
+                lae.setTaskGranularity(granularity);
+                ComputationNode root = tree.get();
+                long start = System.nanoTime();
+                lae.run(root);
+                best = Math.min(best, (System.nanoTime() - start) / 1e6);
+                assertNotNull(root.getMatrix());
+            }
+        }
+        return best;
+    }
+
+    private static void compare(String name, Supplier<ComputationNode> tree) {
+        double perRow = time(TaskGranularity.PER_ROW, tree);
+        double chunked = time(TaskGranularity.CHUNKED, tree);
+        System.out.printf("%-28s per-row %9.1f ms | chunked %9.1f ms | speedup %.1fx%n",
+                name, perRow, chunked, perRow / chunked);
+    }
+
+    @Test
+    void perRowAgainstChunked() {
+        double[][] tall = matrix(200_000, 8);
+        double[][] wide = matrix(20_000, 64);
+        double[][] square = matrix(48, 48);
+        double[][] skinny = matrix(50_000, 48);
+
+        compare("add negated 200000 x 8", () -> new ComputationNode(ComputationNodeType.ADD, List.of(
+                new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(tall))),
+                new ComputationNode(matrix(200_000, 8)))));
+        compare("add 20000 x 64", () -> new ComputationNode(ComputationNodeType.ADD,
+                List.of(new ComputationNode(wide), new ComputationNode(matrix(20_000, 64)))));
+        compare("multiply 50000 x 48 x 48", () -> new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(new ComputationNode(skinny), new ComputationNode(square))));
+    }
+}
@@ -1,12 +1,26 @@
 package spl.lae;
 
+import memory.Precision;
+import memory.SharedMatrix;
+import memory.SparseMatrix;
+import memory.StorageMode;
 import parser.*;
+import scheduling.SchedulingMode;
+import scheduling.TiredExecutor;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static spl.lae.TestMatrices.*;
 
 class TestLinearAlgebraEngine {
 
@@ -17,6 +31,13 @@ class TestLinearAlgebraEngine {
         lae = new LinearAlgebraEngine(4);
     }
 
+    @AfterEach
+    void tearDown() {
+        if (lae != null) {
+            lae.close();
+        }
+    }
+
     @Test
     void nullRootThrows() {
         assertThrows(IllegalArgumentException.class, () -> lae.run(null));
@@ -97,6 +118,43 @@ class TestLinearAlgebraEngine {
 
 
     @Test
+    void noArgumentTaskFactoriesWorkOnTheLastLoadedOperands() {
+        ComputationNode node = new ComputationNode(ComputationNodeType.ADD,
+                List.of(new ComputationNode(new double[][]{{1, 2}}), new ComputationNode(new double[][]{{3, 4}})));
+        lae.loadAndCompute(node);
+
+        // the left matrix holds the result {4, 6}, the right one still the operand {3, 4}
+        lae.createAddTasks().forEach(Runnable::run);
+        lae.createNegateTasks().forEach(Runnable::run);
+        assertArrayEquals(new double[]{-7, -10}, node.getMatrix()[0], 1e-12);
+        assertEquals(1, lae.createTransposeTasks().size());
+    }
+
+    @Test
+    void loadAndComputeNegatesAndTransposes() {
+        double[][] a = {{1, 2, 3}, {4, 5, 6}};
+        ComputationNode negate = new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(a)));
+        lae.loadAndCompute(negate);
+        assertArrayEquals(new double[][]{{-1, -2, -3}, {-4, -5, -6}}, negate.getMatrix());
+
+        ComputationNode transpose = new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(a)));
+        lae.loadAndCompute(transpose);
+        assertArrayEquals(new double[][]{{1, 4}, {2, 5}, {3, 6}}, transpose.getMatrix());
+
+        // operands with a pending negation
+        ComputationNode negated = new ComputationNode(a);
+        negated.resolve(a, false, true);
+        ComputationNode negateTwice = new ComputationNode(ComputationNodeType.NEGATE, List.of(negated));
+        lae.loadAndCompute(negateTwice);
+        assertArrayEquals(a, negateTwice.getMatrix());
+
+        ComputationNode transposeNegated = new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(negated));
+        lae.loadAndCompute(transposeNegated);
+        assertArrayEquals(new double[][]{{-1, -4}, {-2, -5}, {-3, -6}}, transposeNegated.getMatrix());
+    }
+
+    @Test
+    @Timeout(5)
     void illegalMultiplicationDoesNotHangEngine() {
         double[][] a = {{1, 2, 3}};
         double[][] b = {{1, 2}};
@@ -106,10 +164,383 @@ class TestLinearAlgebraEngine {
                 List.of(new ComputationNode(a), new ComputationNode(b))
         );
 
-        assertDoesNotThrow(() -> lae.run(root));
+        // the failing row task fails the run instead of leaving the left operand as the result
+        assertThrows(IllegalArgumentException.class, () -> lae.run(root));
+    }
+
+
+
+    @Test
+    void largeMultiplyMatchesNaiveProduct() {
+        int n = 80;
+        double[][] a = new double[n][n];
+        double[][] b = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                a[i][j] = (i + 2 * j) % 7;
+                b[i][j] = (3 * i - j) % 5;
+            }
+        }
+
+        ComputationNode root = new ComputationNode(
+                ComputationNodeType.MULTIPLY,
+                List.of(new ComputationNode(a), new ComputationNode(b))
+        );
+        double[][] result = lae.run(root).getMatrix();
+
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                double expected = 0;
+                for (int k = 0; k < n; k++) {
+                    expected += a[i][k] * b[k][j];
+                }
+                assertEquals(expected, result[i][j], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    void transposeIsConsumedWithoutMaterializing() {
+        double[][] a = {{1, 2, 3}, {4, 5, 6}};
+        double[][] b = {{1, 0}, {0, 1}};
+
+        ComputationNode transposed = new ComputationNode(
+                ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(a)));
+        ComputationNode root = new ComputationNode(
+                ComputationNodeType.MULTIPLY, List.of(transposed, new ComputationNode(b)));
+
+        assertArrayEquals(new double[][]{{1, 4}, {2, 5}, {3, 6}}, lae.run(root).getMatrix());
+    }
+
+    @Test
+    void flaggedValueIsMaterializedOnceBesideTheStoredMatrix() throws Exception {
+        double[][] a = {{1, 2, 3}, {4, 5, 6}};
+        ComputationNode root = new ComputationNode(ComputationNodeType.NEGATE,
+                List.of(new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(a)))));
+        lae.run(root);
+        assertTrue(root.isTransposed() && root.isNegated());
+
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<double[][]>> values = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                values.add(readers.submit(root::getMatrix));
+            }
+            double[][] first = values.get(0).get();
+            assertArrayEquals(new double[][]{{-1, -4}, {-2, -5}, {-3, -6}}, first);
+            for (Future<double[][]> value : values) {
+                assertSame(first, value.get());
+            }
+        } finally {
+            readers.shutdown();
+        }
+        // readers of the stored matrix and the flags still see the same value
+        assertTrue(root.isTransposed() && root.isNegated());
+        assertArrayEquals(a, root.getStoredMatrix());
+    }
+
+    @Test
+    void doubleTransposeIsIdentity() {
+        double[][] a = {{1, 2, 3}, {4, 5, 6}};
+
+        ComputationNode inner = new ComputationNode(
+                ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(a)));
+        ComputationNode outer = new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(inner));
+        ComputationNode root = new ComputationNode(
+                ComputationNodeType.ADD, List.of(outer, new ComputationNode(a)));
+
+        assertArrayEquals(new double[][]{{2, 4, 6}, {8, 10, 12}}, lae.run(root).getMatrix());
+    }
+
+    private static ComputationNode independentSubtrees() {
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{0, 1}, {1, 0}};
+        ComputationNode negate = new ComputationNode(ComputationNodeType.NEGATE,
+                List.of(new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(a)))));
+        ComputationNode multiply = new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(new ComputationNode(a), new ComputationNode(b)));
+        ComputationNode add = new ComputationNode(ComputationNodeType.ADD,
+                List.of(new ComputationNode(b), new ComputationNode(a)));
+        return new ComputationNode(ComputationNodeType.ADD,
+                new ArrayList<>(List.of(negate, multiply, add)));
     }
 
+    @Test
+    void parallelEvaluationMatchesSequential() {
+        double[][] expected = lae.run(independentSubtrees()).getMatrix();
+
+        lae.setEvaluationMode(EvaluationMode.PARALLEL);
+        assertEquals(EvaluationMode.PARALLEL, lae.getEvaluationMode());
+        double[][] result = lae.run(independentSubtrees()).getMatrix();
 
+        assertArrayEquals(expected, result);
+        assertArrayEquals(new double[][]{{2, 1}, {6, 3}}, result);
+    }
+
+    @Test
+    void longOperandListDoesNotOverflowStack() {
+        List<ComputationNode> children = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            children.add(new ComputationNode(new double[][]{{1}}));
+        }
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, children);
+
+        assertEquals(20_000, lae.run(root).getMatrix()[0][0]);
+    }
+
+    @Test
+    void reorderedChainGivesSameProduct() {
+        double[][] a = {{1, 2}, {3, 4}, {5, 6}};
+        double[][] b = {{1, 0, 2}, {0, 1, 3}};
+        double[][] c = {{2, 1}, {0, 1}, {1, 0}};
+
+        ComputationNode root = new ComputationNode(ComputationNodeType.MULTIPLY, new ArrayList<>(List.of(
+                new ComputationNode(a), new ComputationNode(b), new ComputationNode(c))));
+
+        assertArrayEquals(new double[][]{{10, 3}, {24, 7}, {38, 11}}, lae.run(root).getMatrix());
+        assertTrue(lae.getOptimizationReport().startsWith("Matrix chains: reordered 1"));
+    }
+
+    @Test
+    void fusedMultiplyAddWithNegatedOperands() {
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{0, 1}, {1, 0}};
+        double[][] c = {{10, 20}, {30, 40}};
+
+        // -C + A * (-B), both signs folded into the fused kernel
+        ComputationNode product = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(
+                new ComputationNode(a),
+                new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(b)))));
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(
+                new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(c))), product));
+
+        assertArrayEquals(new double[][]{{-12, -21}, {-34, -43}}, lae.run(root).getMatrix());
+        assertTrue(lae.getOptimizationReport().contains("Operator fusion: 1 fused nodes"));
+    }
+
+    @Test
+    void largeFusedMultiplyAddMatchesNaive() {
+        int n = 70;
+        double[][] a = new double[n][n];
+        double[][] b = new double[n][n];
+        double[][] c = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                a[i][j] = (i + 2 * j) % 7;
+                b[i][j] = (3 * i - j) % 5;
+                c[i][j] = i - j;
+            }
+        }
+
+        // C + (-A) * B on the blocked kernel
+        ComputationNode product = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(
+                new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(a))),
+                new ComputationNode(b)));
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD,
+                List.of(new ComputationNode(c), product));
+        double[][] result = lae.run(root).getMatrix();
+
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                double expected = c[i][j];
+                for (int k = 0; k < n; k++) {
+                    expected -= a[i][k] * b[k][j];
+                }
+                assertEquals(expected, result[i][j], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    void negationIsAppliedToTheResult() {
+        double[][] a = {{1, -2}, {3, 4}};
+
+        ComputationNode negate = new ComputationNode(ComputationNodeType.NEGATE, List.of(
+                new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(a)))));
+        assertArrayEquals(new double[][]{{-1, -3}, {2, -4}}, lae.run(negate).getMatrix());
+
+        ComputationNode twice = new ComputationNode(ComputationNodeType.NEGATE, List.of(
+                new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(a)))));
+        assertArrayEquals(a, lae.run(twice).getMatrix());
+    }
+
+    private static ComputationNode repeatedSubtrees() {
+        double[][] x = {{1, 2}, {3, 4}};
+        double[][] y = {{0, 1}, {1, 0}};
+        // (X + Y) * T(X + Y), written out twice
+        ComputationNode sum = new ComputationNode(ComputationNodeType.ADD,
+                List.of(new ComputationNode(x), new ComputationNode(y)));
+        ComputationNode sumAgain = new ComputationNode(ComputationNodeType.ADD,
+                List.of(new ComputationNode(x), new ComputationNode(y)));
+        return new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(sum, new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(sumAgain))));
+    }
+
+    @Test
+    void repeatedSubtreesAreEvaluatedOnce() {
+        double[][] expected = {{10, 16}, {16, 32}};
+        assertArrayEquals(expected, lae.run(repeatedSubtrees()).getMatrix());
+        assertTrue(lae.getOptimizationReport().contains("Common subexpressions: 3 nodes shared"));
+
+        lae.setEvaluationMode(EvaluationMode.PARALLEL);
+        assertArrayEquals(expected, lae.run(repeatedSubtrees()).getMatrix());
+    }
+
+    @Test
+    void intermediatesAreConsumedInEngineForm() {
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{0, 1}, {1, 0}};
+        double[][] c = {{1, 1}, {0, 1}};
+
+        // T(A + B) * C: the sum is viewed as columns; T(A + B) + C: it is copied across
+        ComputationNode product = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(
+                new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(ComputationNodeType.ADD,
+                        List.of(new ComputationNode(a), new ComputationNode(b))))),
+                new ComputationNode(c)));
+        ComputationNode sum = new ComputationNode(ComputationNodeType.ADD, List.of(
+                new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(ComputationNodeType.NEGATE,
+                        List.of(new ComputationNode(ComputationNodeType.ADD,
+                                List.of(new ComputationNode(a), new ComputationNode(b))))))),
+                new ComputationNode(c)));
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, List.of(product, sum));
+
+        // T(A + B) = {{1, 4}, {3, 4}}, times C = {{1, 5}, {3, 7}}; -T(A + B) + C = {{0, -3}, {-3, -3}}
+        ComputationNode result = lae.run(root);
+        assertNotNull(result.getResult());
+        assertArrayEquals(new double[][]{{1, 2}, {0, 4}}, result.getMatrix());
+        assertNull(result.getResult());
+    }
+
+    @Test
+    void sharedIntermediateIsNotOverwritten() {
+        double[][] a = {{1, 2}, {3, 4}};
+        double[][] b = {{1, 0}, {0, 1}};
+
+        // (A * B) + (A * B) + (A * B): the shared product feeds three additions
+        ComputationNode root = new ComputationNode(ComputationNodeType.ADD, new ArrayList<>(List.of(
+                new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(ComputationNodeType.MULTIPLY,
+                        List.of(new ComputationNode(a), new ComputationNode(b))))),
+                new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(ComputationNodeType.MULTIPLY,
+                        List.of(new ComputationNode(a), new ComputationNode(b))))),
+                new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(ComputationNodeType.MULTIPLY,
+                        List.of(new ComputationNode(a), new ComputationNode(b))))))));
+
+        assertArrayEquals(new double[][]{{-3, -6}, {-9, -12}}, lae.run(root).getMatrix());
+    }
+
+    @Test
+    void schedulingModesGiveSameResult() {
+        double[][] expected = lae.run(independentSubtrees()).getMatrix();
+
+        try (LinearAlgebraEngine stealing = new LinearAlgebraEngine(3, StorageMode.CONTIGUOUS,
+                SchedulingMode.WORK_STEALING)) {
+            stealing.setEvaluationMode(EvaluationMode.PARALLEL);
+            assertArrayEquals(expected, stealing.run(independentSubtrees()).getMatrix());
+        }
+
+        try (LinearAlgebraEngine sharedQueue = new LinearAlgebraEngine(3, StorageMode.PER_VECTOR,
+                SchedulingMode.SHARED_QUEUE)) {
+            assertArrayEquals(expected, sharedQueue.run(independentSubtrees()).getMatrix());
+        }
+
+        try (LinearAlgebraEngine virtual = new LinearAlgebraEngine(2, StorageMode.PER_VECTOR,
+                SchedulingMode.VIRTUAL_THREADS)) {
+            virtual.setEvaluationMode(EvaluationMode.PARALLEL);
+            assertArrayEquals(expected, virtual.run(independentSubtrees()).getMatrix());
+        }
+    }
+
+    @Test
+    void parallelModeDoesNotWaitForSiblingBranches() {
+        // a deep chain next to a single product: the chain's nodes start as their operand resolves
+        double[][] a = pattern(40, 40, 1);
+        ComputationNode chain = new ComputationNode(a);
+        for (int i = 0; i < 6; i++) {
+            chain = new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(ComputationNodeType.ADD,
+                    List.of(chain, new ComputationNode(a)))));
+        }
+        ComputationNode product = new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(new ComputationNode(a), new ComputationNode(a)));
+        double[][] expected = lae.run(new ComputationNode(ComputationNodeType.ADD, List.of(chain, product))).getMatrix();
+
+        lae.setEvaluationMode(EvaluationMode.PARALLEL);
+        ComputationNode again = new ComputationNode(a);
+        for (int i = 0; i < 6; i++) {
+            again = new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(ComputationNodeType.ADD,
+                    List.of(again, new ComputationNode(a)))));
+        }
+        assertArrayEquals(expected, lae.run(new ComputationNode(ComputationNodeType.ADD, List.of(again,
+                new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(a),
+                        new ComputationNode(a)))))).getMatrix());
+    }
+
+    @Test
+    void parallelModeFailureLeavesEngineUsable() {
+        lae.setEvaluationMode(EvaluationMode.PARALLEL);
+        ComputationNode mismatched = new ComputationNode(ComputationNodeType.ADD, List.of(
+                new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(new double[][]{{1, 2}}),
+                        new ComputationNode(new double[][]{{1}, {2}}))),
+                new ComputationNode(new double[][]{{1, 2}, {3, 4}})));
+        assertThrows(IllegalArgumentException.class,
+                () -> lae.run(new ComputationNode(ComputationNodeType.ADD, new ArrayList<>(List.of(mismatched,
+                        independentSubtrees())))));
+        assertArrayEquals(new double[][]{{2, 1}, {6, 3}}, lae.run(independentSubtrees()).getMatrix());
+    }
+
+    @Test
+    void chunkedTasksCoverEveryRow() {
+        double[][] expected = lae.run(independentSubtrees()).getMatrix();
+        assertThrows(IllegalArgumentException.class, () -> lae.setMinimumGrain(0));
+        lae.setTaskGranularity(TaskGranularity.CHUNKED);
+        lae.setMinimumGrain(10);
+
+        double[][] data = new double[1000][10];
+        for (int i = 0; i < data.length; i++) {
+            data[i][i % 10] = i;
+        }
+        memory.SharedMatrix matrix = new memory.SharedMatrix(data);
+        // 4 workers: 16 ranges of 63 rows
+        List<Runnable> tasks = lae.createNegateTasks(matrix);
+        assertEquals(16, tasks.size());
+        tasks.forEach(Runnable::run);
+        double[][] negated = matrix.readRowMajor();
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(-i, negated[i][i % 10], 0.0);
+        }
+
+        // the default grain batches cheap rows into a single task
+        lae.setMinimumGrain(LinearAlgebraEngine.DEFAULT_MINIMUM_GRAIN);
+        assertEquals(1, lae.createNegateTasks(matrix).size());
+        assertArrayEquals(expected, lae.run(independentSubtrees()).getMatrix());
+
+        lae.setTaskGranularity(TaskGranularity.PER_ROW);
+        assertEquals(1000, lae.createNegateTasks(matrix).size());
+        assertArrayEquals(expected, lae.run(independentSubtrees()).getMatrix());
+    }
+
+    @Test
+    void chunkedBlockedMultiplyMatchesPerRow() {
+        double[][] a = new double[100][70];
+        double[][] b = new double[70][90];
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < 70; j++) {
+                a[i][j] = (i * j) % 5 - 2;
+            }
+        }
+        for (int i = 0; i < 70; i++) {
+            for (int j = 0; j < 90; j++) {
+                b[i][j] = (i + j) % 3;
+            }
+        }
+        double[][] expected = lae.run(new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(new ComputationNode(a), new ComputationNode(b)))).getMatrix();
+
+        lae.setTaskGranularity(TaskGranularity.CHUNKED);
+        lae.setMinimumGrain(1);
+        assertEquals(TaskGranularity.CHUNKED, lae.getTaskGranularity());
+        assertArrayEquals(expected, lae.run(new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(new ComputationNode(a), new ComputationNode(b)))).getMatrix());
+    }
 
     @Test
     void manyIndependentRunsDoNotBlock() {
@@ -128,6 +559,338 @@ class TestLinearAlgebraEngine {
 
         lae.run(node);
 
+        lae.close();
+        lae.close(); // closing twice is harmless
+        assertThrows(IllegalStateException.class, () -> lae.run(node));
         lae = null;
     }
+
+    @Test
+    void engineIsReusableAcrossRuns() {
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(new double[][]{{10, 16}, {16, 32}}, lae.run(repeatedSubtrees()).getMatrix());
+            assertArrayEquals(new double[][]{{2, 1}, {6, 3}}, lae.run(independentSubtrees()).getMatrix());
+        }
+    }
+
+    @Test
+    void concurrentClientsShareOneEngine() throws Exception {
+        lae.setEvaluationMode(EvaluationMode.PARALLEL);
+        ExecutorService clients = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<double[][]>> results = new ArrayList<>();
+            for (int i = 0; i < 60; i++) {
+                boolean repeated = i % 2 == 0;
+                results.add(clients.submit(() -> lae.run(repeated ? repeatedSubtrees() : independentSubtrees())
+                        .getMatrix()));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                double[][] expected = i % 2 == 0 ? new double[][]{{10, 16}, {16, 32}} : new double[][]{{2, 1}, {6, 3}};
+                assertArrayEquals(expected, results.get(i).get());
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    void optimizationReportIsKeptPerClientThread() throws Exception {
+        lae.run(repeatedSubtrees());
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        try {
+            // another client's run doesn't replace the report of this one
+            String other = client.submit(() -> {
+                lae.run(new ComputationNode(new double[][]{{1}}));
+                return lae.getOptimizationReport();
+            }).get();
+            assertTrue(other.contains("Common subexpressions: 0 nodes shared"));
+            assertTrue(lae.getOptimizationReport().contains("Common subexpressions: 3 nodes shared"));
+        } finally {
+            client.shutdownNow();
+        }
+    }
+
+    @Test
+    void closeWaitsForRunsInProgress() throws Exception {
+        double[][] a = pattern(200, 200, 1);
+        LinearAlgebraEngine engine = new LinearAlgebraEngine(2);
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        try {
+            Future<double[][]> result = client.submit(() -> engine.run(new ComputationNode(
+                    ComputationNodeType.MULTIPLY, List.of(new ComputationNode(a), new ComputationNode(a)))).getMatrix());
+            engine.close();
+            // either the run got in first and completes, or it finds the engine closed
+            try {
+                assertEquals(200, result.get().length);
+            } catch (ExecutionException e) {
+                assertEquals("Engine is closed", e.getCause().getMessage());
+            }
+            assertThrows(IllegalStateException.class, () -> engine.run(new ComputationNode(a)));
+        } finally {
+            client.shutdownNow();
+        }
+    }
+
+    // A * T(B) + -C, with sizes that cross the tiles of the out-of-core kernels
+    private static ComputationNode outOfCoreTree(Path a, double[][] b, Path c) {
+        ComputationNode product = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(a),
+                new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(new ComputationNode(b)))));
+        return new ComputationNode(ComputationNodeType.ADD, List.of(product,
+                new ComputationNode(ComputationNodeType.NEGATE, List.of(new ComputationNode(c)))));
+    }
+
+    @Test
+    void outOfCoreMatchesInHeap(@TempDir Path dir) throws Exception {
+        Path a = dir.resolve("a.bin");
+        Path c = dir.resolve("c.bin");
+        MatrixFile.write(pattern(70, 300, 1), a);
+        MatrixFile.write(pattern(70, 2100, 2), c);
+        double[][] b = pattern(2100, 300, 3);
+
+        double[][] expected = lae.run(outOfCoreTree(a, b, c)).getMatrix();
+        Path out = dir.resolve("out.bin");
+        lae.runOutOfCore(outOfCoreTree(a, b, c), out);
+        double[][] actual = MatrixFile.read(out);
+        assertMatches(expected, actual, 1e-9);
+        // only the operands and the output are left
+        try (var files = Files.list(dir)) {
+            assertEquals(3, files.count());
+        }
+
+        lae.runOutOfCore(new ComputationNode(a), out);
+        assertArrayEquals(MatrixFile.read(a), MatrixFile.read(out));
+
+        ComputationNode mismatch = new ComputationNode(ComputationNodeType.ADD,
+                List.of(new ComputationNode(a), new ComputationNode(c)));
+        assertThrows(IllegalArgumentException.class, () -> lae.runOutOfCore(mismatch, out));
+    }
+
+    @Test
+    void outOfCoreOutputMayBeALeafFile(@TempDir Path dir) throws Exception {
+        Path a = dir.resolve("a.bin");
+        Path b = dir.resolve("b.bin");
+        double[][] left = pattern(40, 30, 1);
+        double[][] right = pattern(40, 30, 2);
+        MatrixFile.write(left, a);
+        MatrixFile.write(right, b);
+
+        lae.runOutOfCore(new ComputationNode(ComputationNodeType.ADD,
+                List.of(new ComputationNode(a), new ComputationNode(b))), a);
+        double[][] sum = MatrixFile.read(a);
+        for (int i = 0; i < left.length; i++) {
+            for (int j = 0; j < left[i].length; j++) {
+                assertEquals(left[i][j] + right[i][j], sum[i][j]);
+            }
+        }
+        lae.runOutOfCore(new ComputationNode(b), b);
+        assertArrayEquals(right, MatrixFile.read(b));
+        try (var files = Files.list(dir)) {
+            assertEquals(2, files.count());
+        }
+        // fusion and subexpression elimination don't run out of core
+        assertEquals("Matrix chains: nothing to reorder", lae.getOptimizationReport());
+    }
+
+    @Test
+    void failingOutOfCoreRunLeavesTheLeafFileAlone(@TempDir Path dir) throws Exception {
+        Path a = dir.resolve("a.bin");
+        Path b = dir.resolve("b.bin");
+        MatrixFile.write(new double[][]{{1, 2}, {3, 4}}, a);
+        MatrixFile.write(new double[][]{{1, 2, 3}}, b);
+        byte[] before = Files.readAllBytes(a);
+
+        ComputationNode mismatch = new ComputationNode(ComputationNodeType.ADD,
+                List.of(new ComputationNode(a), new ComputationNode(b)));
+        assertThrows(IllegalArgumentException.class, () -> lae.runOutOfCore(mismatch, a));
+        assertArrayEquals(before, Files.readAllBytes(a));
+
+        // nor through the command line, which reports the failure on stderr only
+        Path input = dir.resolve("in.json");
+        Files.writeString(input, "{\"operator\": \"+\", \"operands\": [{\"file\": \"a.bin\"}, {\"file\": \"b.bin\"}]}");
+        Main.main(new String[]{"1", "--out-of-core", input.toString(), a.toString()});
+        assertArrayEquals(before, Files.readAllBytes(a));
+        try (var files = Files.list(dir)) {
+            assertEquals(3, files.count()); // no temporary file is left behind
+        }
+    }
+
+    @Test
+    void offHeapMatchesInHeap() {
+        double[][] a = pattern(70, 80, 1);
+        double[][] b = pattern(80, 90, 2);
+        double[][] c = pattern(70, 90, 3);
+        double[][] expected = lae.run(everyOperation(a, b, c)).getMatrix();
+        for (EvaluationMode mode : EvaluationMode.values()) {
+            try (LinearAlgebraEngine offHeap = new LinearAlgebraEngine(2, StorageMode.OFF_HEAP)) {
+                offHeap.setEvaluationMode(mode);
+                for (int run = 0; run < 2; run++) { // the second run reuses the storage of the first
+                    ComputationNode root = offHeap.run(everyOperation(a, b, c));
+                    assertNull(root.getResult());
+                    double[][] actual = root.getMatrix();
+                    assertMatches(expected, actual, 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    void offHeapResultsAreReleasedOnceRead() {
+        double[][] a = pattern(40, 50, 1);
+        double[][] b = pattern(50, 40, 2);
+        double[][] c = pattern(40, 40, 3);
+        double[][] expected = lae.run(releaseTree(new ComputationNode[2], a, b, c)).getMatrix();
+        for (EvaluationMode mode : EvaluationMode.values()) {
+            ComputationNode[] intermediates = new ComputationNode[2];
+            ComputationNode root = releaseTree(intermediates, a, b, c);
+            try (LinearAlgebraEngine offHeap = new LinearAlgebraEngine(2, StorageMode.OFF_HEAP)) {
+                offHeap.setEvaluationMode(mode);
+                assertArrayEquals(expected, offHeap.run(root).getMatrix());
+            }
+            // both were given back as soon as the root was computed, which empties them
+            assertEquals(0, intermediates[0].getResult().length());
+            assertEquals(0, intermediates[1].getResult().length());
+        }
+    }
+
+    // (C + C) x (A x B)^T: the sum is taken over by the product, A x B is read through a flag
+    private static ComputationNode releaseTree(ComputationNode[] intermediates, double[][] a, double[][] b,
+            double[][] c) {
+        intermediates[0] = new ComputationNode(ComputationNodeType.ADD,
+                List.of(new ComputationNode(c), new ComputationNode(c)));
+        intermediates[1] = new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(new ComputationNode(a), new ComputationNode(b)));
+        return new ComputationNode(ComputationNodeType.MULTIPLY, List.of(intermediates[0],
+                new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(intermediates[1]))));
+    }
+
+    @Test
+    void singlePrecisionStaysCloseToDouble() {
+        double[][] a = pattern(70, 80, 1);
+        double[][] b = pattern(80, 90, 2);
+        double[][] c = pattern(70, 90, 3);
+        double[][] expected = lae.run(everyOperation(a, b, c)).getMatrix();
+        for (StorageMode storage : new StorageMode[] { StorageMode.PER_VECTOR, StorageMode.CONTIGUOUS }) {
+            for (EvaluationMode mode : EvaluationMode.values()) {
+                try (LinearAlgebraEngine single = new LinearAlgebraEngine(2, storage)) {
+                    single.setEvaluationMode(mode);
+                    single.setPrecision(Precision.FLOAT32);
+                    ComputationNode root = single.run(everyOperation(a, b, c));
+                    assertEquals(Precision.FLOAT32, root.getResult().getPrecision());
+                    double[][] actual = root.getMatrix();
+                    for (int i = 0; i < expected.length; i++) {
+                        for (int j = 0; j < expected[i].length; j++) {
+                            assertEquals(expected[i][j], actual[i][j], 1e-6 * Math.abs(expected[i][j]) + 1e-3);
+                            assertEquals((float) actual[i][j], actual[i][j]); // stored as a float
+                        }
+                    }
+                }
+            }
+        }
+        try (LinearAlgebraEngine offHeap = new LinearAlgebraEngine(1, StorageMode.OFF_HEAP)) {
+            assertThrows(IllegalArgumentException.class, () -> offHeap.setPrecision(Precision.FLOAT32));
+        }
+    }
+
+    @Test
+    void strassenMatchesClassicalProducts() {
+        double[][] a = pattern(67, 67, 1);
+        double[][] b = pattern(67, 67, 2);
+        double[][] c = pattern(67, 67, 3);
+        lae.setStrassenCutoff(Integer.MAX_VALUE);
+        double[][] expected = lae.run(everyOperation(a, b, c)).getMatrix();
+        for (EvaluationMode mode : EvaluationMode.values()) {
+            for (TaskGranularity granularity : TaskGranularity.values()) {
+                try (LinearAlgebraEngine strassen = new LinearAlgebraEngine(3)) {
+                    strassen.setEvaluationMode(mode);
+                    strassen.setTaskGranularity(granularity);
+                    strassen.setStrassenCutoff(16); // two levels, padded from 67 to 68
+                    double[][] actual = strassen.run(everyOperation(a, b, c)).getMatrix();
+                    assertMatches(expected, actual, 1e-6);
+                }
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> lae.setStrassenCutoff(0));
+    }
+
+    @Test
+    void strassenHandlesOddAndUnevenSizes() {
+        lae.setStrassenCutoff(8);
+        for (int n : new int[] { 17, 33, 50, 100 }) {
+            double[][] a = pattern(n, n, 4);
+            double[][] b = pattern(n, n, 5);
+            double[][] expected = product(a, b);
+            double[][] actual = lae.run(new ComputationNode(ComputationNodeType.MULTIPLY,
+                    List.of(new ComputationNode(a), new ComputationNode(b)))).getMatrix();
+            assertMatches(expected, actual, 1e-9);
+        }
+    }
+
+    @Test
+    void failingStrassenTaskFailsTheMultiplication() throws InterruptedException {
+        double[][] a = pattern(32, 32, 6);
+        SharedMatrix left = new SharedMatrix(a);
+        SharedMatrix right = new SharedMatrix();
+        right.loadColumnMajor(pattern(32, 32, 7));
+        lae.setStrassenCutoff(8);
+        List<Runnable> tasks = lae.createStrassenMultiplyTasks(left, right, 1, null, 0);
+        right.loadColumnMajor(new double[1][32]); // columns too short for any product
+
+        TiredExecutor executor = new TiredExecutor(2);
+        try {
+            assertThrows(RuntimeException.class, () -> executor.submitAll(tasks));
+        } finally {
+            executor.shutdown();
+        }
+        assertArrayEquals(a, left.readRowMajor());
+    }
+
+    @Test
+    void sparseOperandsMatchDense() {
+        double[][] s = new double[60][60];
+        double[][] t = new double[60][60];
+        for (int i = 0; i < 60; i++) {
+            s[i][(7 * i) % 60] = i - 20;
+            t[(3 * i) % 60][i] = 2;
+        }
+        double[][] d = pattern(60, 60, 4);
+        for (EvaluationMode mode : EvaluationMode.values()) {
+            lae.setEvaluationMode(mode);
+            // -(S^T x D) + (D x T) x S, with S + T kept compressed
+            double[][] expected = lae.run(sparseTree(new ComputationNode(s), new ComputationNode(t), d)).getMatrix();
+            ComputationNode root = lae.run(sparseTree(new ComputationNode(SparseMatrix.fromDense(s)),
+                    new ComputationNode(SparseMatrix.fromDense(t)), d));
+            assertArrayEquals(expected, root.getMatrix());
+
+            ComputationNode sum = lae.run(new ComputationNode(ComputationNodeType.ADD, List.of(
+                    new ComputationNode(SparseMatrix.fromDense(s)),
+                    new ComputationNode(ComputationNodeType.NEGATE,
+                            List.of(new ComputationNode(SparseMatrix.fromDense(t)))))));
+            assertNotNull(sum.getSparse());
+            double[][] difference = new double[60][60];
+            for (int i = 0; i < 60; i++) {
+                for (int j = 0; j < 60; j++) {
+                    difference[i][j] = s[i][j] - t[i][j];
+                }
+            }
+            assertArrayEquals(difference, sum.getMatrix());
+        }
+
+        // a NaN in the dense operand must still spread through the zeros of the sparse one
+        double[][] nan = pattern(60, 60, 5);
+        nan[0][0] = Double.NaN;
+        ComputationNode product = lae.run(new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(new ComputationNode(nan), new ComputationNode(SparseMatrix.fromDense(t)))));
+        assertTrue(Double.isNaN(product.getMatrix()[0][59]));
+    }
+
+    private static ComputationNode sparseTree(ComputationNode s, ComputationNode t, double[][] d) {
+        ComputationNode left = new ComputationNode(ComputationNodeType.NEGATE, List.of(
+                new ComputationNode(ComputationNodeType.MULTIPLY, List.of(
+                        new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(s)),
+                        new ComputationNode(d)))));
+        ComputationNode right = new ComputationNode(ComputationNodeType.MULTIPLY, List.of(
+                new ComputationNode(ComputationNodeType.MULTIPLY, List.of(new ComputationNode(d), t)),
+                new ComputationNode(ComputationNodeType.ADD, List.of(s, t))));
+        return new ComputationNode(ComputationNodeType.ADD, List.of(left, right));
+    }
 }
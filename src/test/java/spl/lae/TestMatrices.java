@@ -0,0 +1,61 @@
+package spl.lae;
+
+import parser.ComputationNode;
+import parser.ComputationNodeType;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Matrices and trees shared by the engine tests, and the check that two results match.
+ */
+final class TestMatrices {
+
+    private TestMatrices() {
+    }
+
+    // small integers in [-5, 5], so products stay exact in double
+    static double[][] pattern(int rows, int cols, int seed) {
+        double[][] m = new double[rows][cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                m[i][j] = (i * 7 + j * 3 + seed) % 11 - 5;
+            }
+        }
+        return m;
+    }
+
+    // the classical product, computed directly
+    static double[][] product(double[][] a, double[][] b) {
+        double[][] p = new double[a.length][b[0].length];
+        for (int i = 0; i < a.length; i++) {
+            for (int k = 0; k < b.length; k++) {
+                for (int j = 0; j < b[0].length; j++) {
+                    p[i][j] += a[i][k] * b[k][j];
+                }
+            }
+        }
+        return p;
+    }
+
+    // -(A x B + C)^T x (A x B), with every operation the engine computes
+    static ComputationNode everyOperation(double[][] a, double[][] b, double[][] c) {
+        ComputationNode product = new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(new ComputationNode(a), new ComputationNode(b)));
+        ComputationNode sum = new ComputationNode(ComputationNodeType.ADD,
+                List.of(product, new ComputationNode(c)));
+        ComputationNode negated = new ComputationNode(ComputationNodeType.NEGATE, List.of(sum));
+        ComputationNode transposed = new ComputationNode(ComputationNodeType.TRANSPOSE, List.of(negated));
+        ComputationNode again = new ComputationNode(ComputationNodeType.MULTIPLY,
+                List.of(new ComputationNode(a), new ComputationNode(b)));
+        return new ComputationNode(ComputationNodeType.MULTIPLY, List.of(transposed, again));
+    }
+
+    static void assertMatches(double[][] expected, double[][] actual, double delta) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], delta);
+        }
+    }
+}